@@ -0,0 +1,91 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Arithmetic of the balances: a top-up on a balance read back from the database (scale 2),
+ * the minimum amount check, and the replay of a ledger (LEDGER mode projection, snapshot rebuilds),
+ * as BigDecimal and as the long minor units ({@link Money}) the balances are stored in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BalanceArithmeticBenchmark {
+
+    private static final BigDecimal MINIMUM_AMOUNT = new BigDecimal(10);
+
+    /** Entries replayed to rebuild a balance */
+    @Param({"100", "10000"})
+    private int historySize;
+
+    private BigDecimal balance;
+    private BigDecimal amount;
+    private BigDecimal requestedAmount;
+    private BigDecimal[] history;
+    private long balanceMinorUnits;
+    private long[] historyMinorUnits;
+
+    @Setup
+    public void setUp() {
+        balance = new BigDecimal("1234567.89");
+        amount = new BigDecimal("10.00");
+        requestedAmount = new BigDecimal("25.5");
+        history = new BigDecimal[historySize];
+        for (int i = 0; i < historySize; i++) {
+            history[i] = BigDecimal.valueOf(ThreadLocalRandom.current().nextLong(1, 100_000), 2);
+        }
+        balanceMinorUnits = Money.toMinorUnits(balance);
+        historyMinorUnits = new long[historySize];
+        for (int i = 0; i < historySize; i++) {
+            historyMinorUnits[i] = Money.toMinorUnits(history[i]);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal add() {
+        return balance.add(amount);
+    }
+
+    @Benchmark
+    public BigDecimal addWithRescale() {
+        return balance.add(requestedAmount.setScale(2, RoundingMode.UNNECESSARY));
+    }
+
+    @Benchmark
+    public void compareToMinimum(Blackhole blackhole) {
+        blackhole.consume(requestedAmount.compareTo(MINIMUM_AMOUNT) < 0);
+    }
+
+    @Benchmark
+    public BigDecimal replay() {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (BigDecimal entry : history) {
+            sum = sum.add(entry);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long addMinorUnits() {
+        return Money.add(balanceMinorUnits, Money.toMinorUnits(amount));
+    }
+
+    @Benchmark
+    public long replayMinorUnits() {
+        long sum = 0;
+        for (long entry : historyMinorUnits) {
+            sum = Money.add(sum, entry);
+        }
+        return sum;
+    }
+}
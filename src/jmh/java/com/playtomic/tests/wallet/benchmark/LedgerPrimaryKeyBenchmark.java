@@ -0,0 +1,114 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Fills a wallet_transaction shaped ledger with random (v4) or time-ordered (v7) primary keys, on a file H2
+ * database whose page cache is much smaller than the table, as a production ledger is. Each invocation inserts
+ * the given number of rows in committed batches; the table size on disk (table and primary key) is reported with
+ * the results as the diskMegabytes counter.
+ *
+ *   mvn -P benchmark verify -DskipTests -Djmh.include=LedgerPrimaryKeyBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LedgerPrimaryKeyBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"2000000"})
+    private int rows;
+
+    @Param({"RANDOM", "TIME_ORDERED"})
+    private String idType;
+
+    /** H2 page cache in KB */
+    @Param({"16384"})
+    private int cacheSize;
+
+    private Path directory;
+    private Connection connection;
+    private Supplier<UUID> ids;
+    private UUID[] walletIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("ledger-primary-key");
+        connection = DriverManager.getConnection(
+                "jdbc:h2:file:" + directory.resolve("ledger") + ";CACHE_SIZE=" + cacheSize, "sa", "");
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE wallet_transaction (id UUID PRIMARY KEY, created_on TIMESTAMP, " +
+                    "wallet_id UUID, type VARCHAR(16), amount BIGINT, old_balance BIGINT, new_balance BIGINT)");
+        }
+        connection.commit();
+        ids = "RANDOM".equals(idType) ? UUID::randomUUID : TimeOrderedUuidGenerator::next;
+        walletIds = new UUID[1000];
+        for (int i = 0; i < walletIds.length; i++) {
+            walletIds[i] = UUID.randomUUID();
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class DiskSpace {
+
+        /** wallet_transaction (table and primary key) on disk once the rows are inserted */
+        public double diskMegabytes;
+    }
+
+    @Benchmark
+    public void insert(DiskSpace diskSpace) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO wallet_transaction " +
+                "(id, created_on, wallet_id, type, amount, old_balance, new_balance) VALUES (?, ?, ?, 'TOP_UP', ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                statement.setObject(1, ids.get());
+                statement.setTimestamp(2, Timestamp.from(Instant.now()));
+                statement.setObject(3, walletIds[i % walletIds.length]);
+                statement.setLong(4, 1000);
+                statement.setLong(5, i * 1000L);
+                statement.setLong(6, i * 1000L + 1000);
+                statement.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("CALL DISK_SPACE_USED('WALLET_TRANSACTION')")) {
+            resultSet.next();
+            diskSpace.diskMegabytes = resultSet.getLong(1) / (1024.0 * 1024.0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException, IOException {
+        connection.close();
+        try (var files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.playtomic.tests.wallet.WalletApplication;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.service.StripeService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * End-to-end WalletService.addToWallet against the in-memory H2 database of the test profile, with a stubbed
+ * payment provider, so only the service and persistence costs are measured.
+ *
+ * The top-ups of the benchmark threads are spread over the given number of Wallets: 1 means every thread writes
+ * the same row (highest contention). JOURNAL journals to a new temporary directory per trial.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class TopUpBenchmark {
+
+    @Param({"1", "64"})
+    private int wallets;
+
+    /** Transactions of each Wallet before the benchmark */
+    @Param({"0", "10000"})
+    private int historySize;
+
+    @Param({"ATOMIC", "LOAD_AND_SAVE", "JOURNAL"})
+    private String balanceUpdateMode;
+
+    private ConfigurableApplicationContext context;
+    private WalletService walletService;
+    private UUID[] ids;
+    private Money amount;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path journal = Files.createTempDirectory("journal");
+        context = new SpringApplicationBuilder(WalletApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("wallet.balance-update-mode=" + balanceUpdateMode, "wallet.journal.directory=" + journal,
+                        "logging.level.root=WARN")
+                // registered here rather than in a @Configuration, which the component scan would pick up in the tests
+                .initializers(applicationContext -> ((GenericApplicationContext) applicationContext).registerBean(
+                        StripeService.class, () -> mock(StripeService.class), definition -> definition.setPrimary(true)))
+                .run();
+        walletService = context.getBean(WalletService.class);
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        ids = new UUID[wallets];
+        for (int i = 0; i < wallets; i++) {
+            ids[i] = UUID.randomUUID();
+            jdbcTemplate.update("INSERT INTO wallet (id, balance, credit_card_number) VALUES (?, 10000, '1111 2222 3333 4444')",
+                    ids[i]);
+            jdbcTemplate.update("INSERT INTO wallet_transaction (id, created_on, old_balance, new_balance, wallet_id) " +
+                    "SELECT RANDOM_UUID(), CURRENT_TIMESTAMP, 10000, 10000, ? FROM SYSTEM_RANGE(1, ?)", ids[i], historySize);
+        }
+        amount = Money.of("10.00");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public WalletDto addToWallet() {
+        return walletService.addToWallet(ids[ThreadLocalRandom.current().nextInt(ids.length)], amount);
+    }
+}
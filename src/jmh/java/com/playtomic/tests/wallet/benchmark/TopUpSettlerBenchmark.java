@@ -0,0 +1,85 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.BalanceProjection;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics;
+import com.playtomic.tests.wallet.api.service.TopUpSettler;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * In-memory part of a LOAD_AND_SAVE balance update, the step every API version runs through TopUpSettler.add:
+ * new balance, Transaction, saves and mapping to the response, with the phase timings.
+ * The repositories are plain proxies returning the loaded Wallet and the saved entity, so no persistence cost
+ * is included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopUpSettlerBenchmark {
+
+    /** Transactions already loaded in the history of the Wallet, which add must not touch */
+    @Param({"0", "10000"})
+    private int historySize;
+
+    private TopUpSettler topUpSettler;
+    private Wallet wallet;
+    private Money amount;
+
+    @Setup
+    public void setUp() {
+        List<WalletTransaction> history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            history.add(new WalletTransaction(LedgerEntryType.TOP_UP, Money.of("10.00"), Money.ZERO, Money.of("10.00")));
+        }
+        wallet = new Wallet(UUID.randomUUID(), Instant.now(), Instant.now(), Money.of("100.00"),
+                "1111 2222 3333 4444", history);
+        amount = Money.of("10.00");
+
+        // add touches neither the transaction manager, the group commit, the projection nor the TopUps
+        topUpSettler = new TopUpSettler(BalanceUpdateMode.LOAD_AND_SAVE, mock(PlatformTransactionManager.class),
+                WalletLockStripes.disabled(), mock(LedgerGroupCommitter.class), mock(BalanceProjection.class),
+                new TopUpMetrics(new SimpleMeterRegistry()), repository(WalletRepository.class, wallet),
+                repository(WalletTransactionRepository.class, null), mock(TopUpRepository.class));
+    }
+
+    @Benchmark
+    public WalletDto add() {
+        return topUpSettler.add("v1", wallet.getId(), amount);
+    }
+
+    /** findById finds the given Wallet, save returns the saved entity */
+    private static <T> T repository(Class<T> repository, Wallet wallet) {
+        return repository.cast(Proxy.newProxyInstance(repository.getClassLoader(), new Class<?>[]{repository},
+                (proxy, method, args) -> {
+                    if ("findById".equals(method.getName())) {
+                        return Optional.ofNullable(wallet);
+                    }
+                    return args != null && args.length > 0 ? args[0] : null;
+                }));
+    }
+}
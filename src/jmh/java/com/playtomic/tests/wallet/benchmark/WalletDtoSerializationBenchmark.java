@@ -0,0 +1,53 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of the responses, with the ObjectMapper configured as Spring MVC does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalletDtoSerializationBenchmark {
+
+    /** Wallets of a page of GET /wallets */
+    @Param({"100"})
+    private int pageSize;
+
+    private ObjectMapper objectMapper;
+    private WalletDto walletDto;
+    private List<WalletDto> page;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        walletDto = new WalletDto(UUID.randomUUID(), Money.of("1234.56"), "1111 2222 3333 4444");
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(new WalletDto(UUID.randomUUID(), Money.ofMinorUnits(i * 100L), "1111 2222 3333 4444"));
+        }
+    }
+
+    @Benchmark
+    public String writeWallet() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(walletDto);
+    }
+
+    @Benchmark
+    public byte[] writePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
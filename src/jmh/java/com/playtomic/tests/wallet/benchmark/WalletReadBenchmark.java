@@ -0,0 +1,108 @@
+package com.playtomic.tests.wallet.benchmark;
+
+import com.playtomic.tests.wallet.WalletApplication;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRow;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reads of Wallets as they were done before (Wallet entities loaded into a persistence context, then copied
+ * into WalletDtos) against a JPQL constructor projection and the JDBC reads of WalletReadRepository, on the
+ * in-memory H2 database of the test profile. Run with the GC profiler to see the allocation per read (gc.alloc.rate.norm):
+ *
+ *   mvn -P benchmark verify -DskipTests -Djmh.include=WalletReadBenchmark -Djmh.args="-prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalletReadBenchmark {
+
+    private static final int WALLETS = 1000;
+
+    /** Wallets per listing page */
+    @Param({"50"})
+    private int pageSize;
+
+    private ConfigurableApplicationContext context;
+    private WalletRepository walletRepository;
+    private EntityManager entityManager;
+    private UUID[] ids;
+    private WalletReadRepository walletReadRepository;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(WalletApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("logging.level.root=WARN")
+                .run();
+        walletRepository = context.getBean(WalletRepository.class);
+        walletReadRepository = context.getBean(WalletReadRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        ids = new UUID[WALLETS];
+        for (int i = 0; i < WALLETS; i++) {
+            ids[i] = UUID.randomUUID();
+            jdbcTemplate.update("INSERT INTO wallet (id, balance, credit_card_number) VALUES (?, 10000, '1111 2222 3333 4444')",
+                    ids[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public WalletDto getByIdEntity() {
+        Wallet wallet = walletRepository.findById(ids[ThreadLocalRandom.current().nextInt(WALLETS)]).orElseThrow();
+        return new WalletDto(wallet.getId(), wallet.getBalance(), wallet.getCreditCardNumber());
+    }
+
+    @Benchmark
+    public WalletDto getByIdJpqlProjection() {
+        return walletRepository.findDtoById(ids[ThreadLocalRandom.current().nextInt(WALLETS)]).orElseThrow();
+    }
+
+    @Benchmark
+    public WalletDto getByIdJdbc() {
+        return walletReadRepository.findDtoById(ids[ThreadLocalRandom.current().nextInt(WALLETS)]).orElseThrow();
+    }
+
+    @Benchmark
+    public List<WalletDto> pageEntity() {
+        return entityManager.createQuery("SELECT w FROM Wallet w ORDER BY w.createdOn, w.id", Wallet.class)
+                .setMaxResults(pageSize)
+                .getResultList()
+                .stream()
+                .map(wallet -> new WalletDto(wallet.getId(), wallet.getBalance(), wallet.getCreditCardNumber()))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<WalletDto> pageJdbc() {
+        return walletReadRepository.findFirstPage(pageSize).stream()
+                .map(WalletRow::toDto)
+                .collect(Collectors.toList());
+    }
+}
@@ -1,18 +1,30 @@
 package com.playtomic.tests.wallet.api.controller;
 
+import com.playtomic.tests.wallet.api.entity.Money;
 import com.playtomic.tests.wallet.api.request.AddMoneyRequest;
+import com.playtomic.tests.wallet.api.request.BulkTopUpRequest;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.TopUpResultDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.response.WalletTransactionDto;
+import com.playtomic.tests.wallet.api.service.IdempotencyStore;
+import com.playtomic.tests.wallet.api.service.TransactionHistoryService;
 import com.playtomic.tests.wallet.api.service.WalletService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @RequiredArgsConstructor
 @Slf4j
@@ -20,7 +32,11 @@ import java.util.UUID;
 @RequestMapping("/v1/wallets")
 public class WalletController {
 
+    private static final String NDJSON = "application/x-ndjson";
+
     private final WalletService walletService;
+    private final IdempotencyStore idempotencyStore;
+    private final TransactionHistoryService transactionHistoryService;
 
     @GetMapping
     public ResponseEntity<Page<WalletDto>> getWallets(@PageableDefault Pageable pageable){
@@ -29,6 +45,17 @@ public class WalletController {
         return ResponseEntity.ok(wallets);
     }
 
+    /**
+     * Keyset (seek) listing: start with an empty cursor, then pass the nextCursor of the previous page.
+     */
+    @GetMapping(params = "cursor")
+    public ResponseEntity<CursorPage<WalletDto>> getWalletsAfter(@RequestParam String cursor,
+                                                                  @RequestParam(defaultValue = "10") int size){
+        log.info("GET request -> get Wallets after cursor={}", cursor);
+        CursorPage<WalletDto> wallets = walletService.getPage(cursor, size);
+        return ResponseEntity.ok(wallets);
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<WalletDto> getWalletById(@PathVariable UUID id){
         log.info("GET request -> get the Wallet with id={}", id);
@@ -36,10 +63,45 @@ public class WalletController {
         return ResponseEntity.ok(wallet);
     }
 
+    @GetMapping("/{id}/transactions")
+    public ResponseEntity<CursorPage<WalletTransactionDto>> getTransactions(@PathVariable UUID id,
+                                                                           @RequestParam(defaultValue = "") String cursor,
+                                                                           @RequestParam(defaultValue = "10") int size){
+        log.info("GET request -> get Transactions of the Wallet with id={} after cursor={}", id, cursor);
+        CursorPage<WalletTransactionDto> transactions = transactionHistoryService.getPage(id, cursor, size);
+        return ResponseEntity.ok(transactions);
+    }
+
+    /**
+     * Streaming export of the whole history, selected with "Accept: application/x-ndjson".
+     */
+    @GetMapping(value = "/{id}/transactions", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@PathVariable UUID id){
+        log.info("GET request -> export Transactions of the Wallet with id={}", id);
+        Consumer<OutputStream> export = transactionHistoryService.export(id);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(export::accept);
+    }
+
+    /**
+     * Tops up many Wallets at once; answers 200 with one result (and status) per requested top-up.
+     */
+    @PostMapping("/top-ups")
+    public ResponseEntity<List<TopUpResultDto>> addMoneyToWallets(@Valid @RequestBody BulkTopUpRequest request){
+        log.info("POST request -> bulk top-up of {} Wallets", request.getTopUps().size());
+        List<TopUpResultDto> results = walletService.addToWallets(request.getTopUps());
+        return ResponseEntity.ok(results);
+    }
+
     @PostMapping("/{id}")
-    public ResponseEntity<WalletDto> addMoneyToWallet(@PathVariable UUID id, @Valid @RequestBody AddMoneyRequest request){
+    public ResponseEntity<WalletDto> addMoneyToWallet(@PathVariable UUID id, @Valid @RequestBody AddMoneyRequest request,
+                                                      @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
         log.info("POST request -> add amount={} to the Wallet with id={}", request.getAmount(), id);
-        WalletDto wallet = walletService.addToWallet(id, request.getAmount());
+        Money amount = Money.of(request.getAmount());
+        WalletDto wallet = idempotencyKey == null
+                ? walletService.addToWallet(id, amount)
+                : idempotencyStore.execute(idempotencyKey, id, amount, () -> walletService.addToWallet(id, amount));
         return ResponseEntity.ok(wallet);
     }
 
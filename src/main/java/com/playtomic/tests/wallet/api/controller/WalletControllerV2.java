@@ -1,13 +1,17 @@
 package com.playtomic.tests.wallet.api.controller;
 
+import com.playtomic.tests.wallet.api.entity.Money;
 import com.playtomic.tests.wallet.api.request.AddMoneyRequest;
+import com.playtomic.tests.wallet.api.response.TopUpDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.IdempotencyStore;
 import com.playtomic.tests.wallet.api.service.WalletServiceV2;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
+import java.net.URI;
 import java.util.UUID;
 
 @Slf4j
@@ -16,18 +20,41 @@ import java.util.UUID;
 public class WalletControllerV2 {
 
     private final WalletServiceV2 walletService;
+    private final IdempotencyStore idempotencyStore;
 
-    public WalletControllerV2(WalletServiceV2 walletService) {
+    public WalletControllerV2(WalletServiceV2 walletService, IdempotencyStore idempotencyStore) {
         this.walletService = walletService;
+        this.idempotencyStore = idempotencyStore;
     }
 
+    /**
+     * 200 with the new balance, or in OUTBOX mode 202 with the accepted TopUp (its status is at the Location).
+     * Top-ups sent with an Idempotency-Key are always processed synchronously, so their response can be replayed.
+     */
     @PostMapping("/{id}")
-    public ResponseEntity<WalletDto> addMoneyToWallet(@PathVariable UUID id, @Valid @RequestBody AddMoneyRequest request){
+    public ResponseEntity<?> addMoneyToWallet(@PathVariable UUID id, @Valid @RequestBody AddMoneyRequest request,
+                                             @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
 
         log.info("POST request -> add amount={} to the Wallet with id={}", request.getAmount(), id);
-        WalletDto walletDto = walletService.addToWallet(id, request.getAmount());
+        Money amount = Money.of(request.getAmount());
+        if (walletService.isQueued() && idempotencyKey == null) {
+            TopUpDto topUp = walletService.enqueueTopUp(id, amount);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/v2/wallets/" + id + "/top-ups/" + topUp.getId()))
+                    .body(topUp);
+        }
+
+        WalletDto walletDto = idempotencyKey == null
+                ? walletService.addToWallet(id, amount)
+                : idempotencyStore.execute(idempotencyKey, id, amount, () -> walletService.addToWallet(id, amount));
 
         return ResponseEntity.ok(walletDto);
     }
 
+    @GetMapping("/{id}/top-ups/{topUpId}")
+    public ResponseEntity<TopUpDto> getTopUp(@PathVariable UUID id, @PathVariable UUID topUpId) {
+        log.info("GET request -> get the TopUp with id={} of the Wallet with id={}", topUpId, id);
+        return ResponseEntity.ok(walletService.getTopUp(id, topUpId));
+    }
+
 }
@@ -0,0 +1,39 @@
+package com.playtomic.tests.wallet.api.controller;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.request.AddMoneyRequest;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.WalletServiceV3;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.UUID;
+
+/**
+ * Reactive API: the servlet thread is released while the top-up waits for the database or Stripe.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@RestController
+@RequestMapping("/v3/wallets")
+public class WalletControllerV3 {
+
+    private final WalletServiceV3 walletService;
+
+    @GetMapping("/{id}")
+    public Mono<WalletDto> getWalletById(@PathVariable UUID id) {
+        log.info("GET request -> get the Wallet with id={}", id);
+        return walletService.getById(id);
+    }
+
+    @PostMapping("/{id}")
+    public Mono<WalletDto> addMoneyToWallet(@PathVariable UUID id, @Valid @RequestBody AddMoneyRequest request) {
+        log.info("POST request -> add amount={} to the Wallet with id={}", request.getAmount(), id);
+        Money amount = Money.of(request.getAmount());
+        return walletService.addToWallet(id, amount);
+    }
+
+}
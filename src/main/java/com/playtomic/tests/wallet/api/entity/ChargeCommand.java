@@ -0,0 +1,61 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Outbox row of an OUTBOX top-up: the card charge still to be made for a PENDING TopUp. Written in the same
+ * transaction as the TopUp and deleted in the one that settles it (CONFIRMED or FAILED).
+ */
+@NoArgsConstructor
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_charge_command_sequence", columnList = "sequence_number"))
+public class ChargeCommand {
+
+    public ChargeCommand(TopUp topUp, String creditCardNumber) {
+        this.topUpId = topUp.getId();
+        this.walletId = topUp.getWalletId();
+        this.amount = topUp.getAmount();
+        this.creditCardNumber = creditCardNumber;
+    }
+
+    @Id
+    @Column(name = "top_up_id", columnDefinition = "uuid", updatable = false, nullable = false)
+    private UUID topUpId;
+
+    /**
+     * Order in which the commands were written, assigned by the database.
+     */
+    @Column(name = "sequence_number", columnDefinition = "bigint generated by default as identity", insertable = false, updatable = false)
+    private Long sequenceNumber;
+
+    @Column(name = "created_on", updatable = false)
+    private Instant createdOn;
+
+    @Column(name = "wallet_id", columnDefinition = "uuid", nullable = false)
+    private UUID walletId;
+
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "amount", nullable = false)
+    private Money amount;
+
+    @Column(name = "credit_card_number", nullable = false)
+    private String creditCardNumber;
+
+    /**
+     * Times a worker started charging it. Above 0 when read back after a restart, the outcome of the charge is unknown.
+     */
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    public TopUp toTopUp() {
+        TopUp topUp = new TopUp(walletId, amount);
+        topUp.setId(topUpId);
+        return topUp;
+    }
+}
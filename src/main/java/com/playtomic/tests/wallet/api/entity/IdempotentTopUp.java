@@ -0,0 +1,45 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Response of a top-up stored under its Idempotency-Key, replayed when a client retries the same request. The amount
+ * of the request is stored with it: the key can not be replayed for another amount.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_idempotent_top_up_created_on", columnList = "created_on"))
+public class IdempotentTopUp {
+
+    @Id
+    @Column(name = "idempotency_key", updatable = false, nullable = false)
+    private String idempotencyKey;
+
+    @Column(name = "created_on", updatable = false)
+    @CreationTimestamp
+    private Instant createdOn;
+
+    @Column(name = "wallet_id", columnDefinition = "uuid", nullable = false)
+    private UUID walletId;
+
+    /** null for the keys stored before the amount was (see src/main/sql/idempotent-top-up-amount.sql) */
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "amount", updatable = false)
+    private Money amount;
+
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "balance")
+    private Money balance;
+
+    @Column(name = "credit_card_number")
+    private String creditCardNumber;
+}
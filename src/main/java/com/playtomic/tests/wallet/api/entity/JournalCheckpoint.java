@@ -0,0 +1,32 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Last record of a journal (JOURNAL balance update mode) that is projected into the database, written in the
+ * same transaction as the projected rows (JournalProjection, with JDBC).
+ */
+@NoArgsConstructor
+@Data
+@Entity
+public class JournalCheckpoint {
+
+    @Id
+    @Column(name = "journal_id", columnDefinition = "uuid", updatable = false, nullable = false)
+    private UUID journalId;
+
+    @Column(name = "sequence_number", nullable = false)
+    private long sequenceNumber;
+
+    @Column(name = "updated_on")
+    @UpdateTimestamp
+    private Instant updatedOn;
+}
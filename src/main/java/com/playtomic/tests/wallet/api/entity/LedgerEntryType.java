@@ -0,0 +1,17 @@
+package com.playtomic.tests.wallet.api.entity;
+
+/**
+ * Kind of a ledger entry; the amount of an entry is always positive, the type gives its sign.
+ */
+public enum LedgerEntryType {
+    TOP_UP,
+    SPEND,
+    REFUND;
+
+    /**
+     * Effect of an entry of this type with the given amount (minor units) on the balance.
+     */
+    public long signed(long amount) {
+        return this == SPEND ? -amount : amount;
+    }
+}
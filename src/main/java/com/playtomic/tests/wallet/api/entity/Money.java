@@ -0,0 +1,137 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.playtomic.tests.wallet.api.exceptions.InvalidAmountException;
+import lombok.NonNull;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * An amount of money: a long count of minor units (cents) and its currency. This is how amounts are stored
+ * (BIGINT columns, see MoneyConverter), carried by the entities, DTOs and services, and added on the hot path:
+ * a single CPU add and compare, no BigDecimal.
+ *
+ * BigDecimal is only used at the JSON edge: request amounts are converted once with of, which never rounds
+ * (more than FRACTION_DIGITS decimals is an error, so is an amount beyond MAX_AMOUNT), and a Money is written to
+ * JSON (responses, payment calls) as its decimal value. Sums overflowing a long fail instead of wrapping around.
+ * The static long methods are for the code that keeps raw minor units (JDBC rows, in-memory balances).
+ */
+public final class Money implements Comparable<Money> {
+
+    /** every Wallet is in this currency for now; stored in wallet.currency to allow others later */
+    public static final Currency CURRENCY = Currency.getInstance("EUR");
+    public static final int FRACTION_DIGITS = CURRENCY.getDefaultFractionDigits();
+    /** largest amount accepted at the API edge, so that no request can overflow a balance on its own */
+    public static final BigDecimal MAX_AMOUNT = new BigDecimal("9999999999999.99");
+    public static final Money ZERO = new Money(0, CURRENCY);
+
+    private final long minorUnits;
+    private final Currency currency;
+
+    private Money(long minorUnits, Currency currency) {
+        this.minorUnits = minorUnits;
+        this.currency = currency;
+    }
+
+    public static Money ofMinorUnits(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits, CURRENCY);
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static Money of(@NonNull BigDecimal amount) {
+        return ofMinorUnits(toMinorUnits(amount));
+    }
+
+    public static Money of(@NonNull String amount) {
+        return of(new BigDecimal(amount));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public Money plus(@NonNull Money amount) {
+        return ofMinorUnits(add(minorUnits, sameCurrency(amount).minorUnits));
+    }
+
+    public Money minus(@NonNull Money amount) {
+        return plus(amount.negate());
+    }
+
+    public Money negate() {
+        return ofMinorUnits(Math.negateExact(minorUnits));
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    @JsonValue
+    public BigDecimal toDecimal() {
+        return toDecimal(minorUnits);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, sameCurrency(other).minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Money)) {
+            return false;
+        }
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits && currency.equals(money.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toDecimal().toPlainString() + " " + currency.getCurrencyCode();
+    }
+
+    private Money sameCurrency(Money amount) {
+        if (!currency.equals(amount.currency)) {
+            throw new IllegalArgumentException("Can not mix " + currency + " and " + amount.currency);
+        }
+        return amount;
+    }
+
+    public static long toMinorUnits(BigDecimal amount) {
+        if (amount.compareTo(MAX_AMOUNT) > 0 || amount.compareTo(MAX_AMOUNT.negate()) < 0) {
+            throw new InvalidAmountException("Amount must not exceed " + MAX_AMOUNT);
+        }
+        try {
+            return amount.setScale(FRACTION_DIGITS, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new InvalidAmountException("Amount must not have more than " + FRACTION_DIGITS + " decimals");
+        }
+    }
+
+    public static BigDecimal toDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, FRACTION_DIGITS);
+    }
+
+    public static long add(long balance, long amount) {
+        try {
+            return Math.addExact(balance, amount);
+        } catch (ArithmeticException e) {
+            throw new InvalidAmountException("Balance would exceed the supported range");
+        }
+    }
+}
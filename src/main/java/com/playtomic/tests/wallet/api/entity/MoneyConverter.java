@@ -0,0 +1,28 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Maps the Money attributes of the entities to BIGINT columns of minor units. Every Wallet is in Money.CURRENCY
+ * (wallet.currency), so the column holds the minor units only and an amount in another currency is rejected.
+ */
+@Converter
+public class MoneyConverter implements AttributeConverter<Money, Long> {
+
+    @Override
+    public Long convertToDatabaseColumn(Money amount) {
+        if (amount == null) {
+            return null;
+        }
+        if (!Money.CURRENCY.equals(amount.getCurrency())) {
+            throw new IllegalArgumentException("Only " + Money.CURRENCY + " amounts can be stored, not " + amount);
+        }
+        return amount.getMinorUnits();
+    }
+
+    @Override
+    public Money convertToEntityAttribute(Long minorUnits) {
+        return minorUnits == null ? null : Money.ofMinorUnits(minorUnits);
+    }
+}
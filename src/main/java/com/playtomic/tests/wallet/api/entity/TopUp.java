@@ -0,0 +1,54 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Intent of a top-up, recorded before the payment provider is called.
+ * PENDING -> CONFIRMED (balance applied), PENDING -> FAILED (not charged, nothing applied) or PENDING -> UNKNOWN
+ * (outcome of the charge unknown, nothing applied, to be reconciled).
+ */
+@NoArgsConstructor
+@Data
+@Entity
+@Table(indexes = @Index(name = "idx_top_up_status_created_on", columnList = "status, created_on"))
+public class TopUp {
+
+    public TopUp(UUID walletId, Money amount) {
+        this.walletId = walletId;
+        this.amount = amount;
+        this.status = TopUpStatus.PENDING;
+    }
+
+    @Id
+    @GeneratedValue(generator = TimeOrderedUuidGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedUuidGenerator.NAME, strategy = "com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator")
+    @Column(name = "id", columnDefinition = "uuid", updatable = false, nullable = false)
+    private UUID id;
+
+    @Column(name = "created_on", updatable = false)
+    @CreationTimestamp
+    private Instant createdOn;
+
+    @Column(name = "updated_on", updatable = true)
+    @UpdateTimestamp
+    private Instant updatedOn;
+
+    @Column(name = "wallet_id", columnDefinition = "uuid", nullable = false)
+    private UUID walletId;
+
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "amount", nullable = false)
+    private Money amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private TopUpStatus status;
+}
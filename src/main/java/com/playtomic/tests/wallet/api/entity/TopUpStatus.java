@@ -0,0 +1,12 @@
+package com.playtomic.tests.wallet.api.entity;
+
+public enum TopUpStatus {
+    PENDING,
+    CONFIRMED,
+    FAILED,
+    /**
+     * The charge may or may not have been made (stuck in PENDING past the payment timeout, or interrupted while
+     * being charged): nothing is applied to the Wallet, the TopUp is left to be reconciled with the payment provider.
+     */
+    UNKNOWN
+}
@@ -1,32 +1,42 @@
 package com.playtomic.tests.wallet.api.entity;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.*;
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
-@AllArgsConstructor
 @NoArgsConstructor
 @Data
 @Entity
+@Table(indexes = @Index(name = "idx_wallet_created_on_id", columnList = "created_on, id"))
 public class Wallet {
 
+    public Wallet(UUID id, Instant createdOn, Instant updatedOn, Money balance, String creditCardNumber,
+                  List<WalletTransaction> transactions) {
+        this.id = id;
+        this.createdOn = createdOn;
+        this.updatedOn = updatedOn;
+        this.balance = balance;
+        this.creditCardNumber = creditCardNumber;
+        this.transactions = transactions;
+    }
+
     @Id
-    @GeneratedValue(generator = "pg-uuid")
-    @GenericGenerator(name = "uuid", strategy = "org.hibernate.id.UUIDGenerator")
+    @GeneratedValue(generator = TimeOrderedUuidGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedUuidGenerator.NAME, strategy = "com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator")
     @Column(name = "id", columnDefinition = "uuid", updatable = false, nullable = false)
     private UUID id;
 
-    @Column(name = "created_on", updatable = false)
+    @Column(name = "created_on", updatable = false, nullable = false)
+    @ColumnDefault("CURRENT_TIMESTAMP")
     @CreationTimestamp
     private Instant createdOn;
 
@@ -34,8 +44,14 @@ public class Wallet {
     @UpdateTimestamp
     private Instant updatedOn;
 
+    /** stored as minor units (BIGINT) of the currency */
+    @Convert(converter = MoneyConverter.class)
     @Column(name = "balance")
-    private BigDecimal balance;
+    private Money balance;
+
+    @Column(name = "currency", length = 3, nullable = false, updatable = false)
+    @ColumnDefault("'EUR'")
+    private String currency = Money.CURRENCY.getCurrencyCode();
 
     @Column(name = "credit_card_number")
     private String creditCardNumber;
@@ -48,6 +64,10 @@ public class Wallet {
     )
     private List<WalletTransaction> transactions = new ArrayList<>();
 
+    /**
+     * Initializes the whole (lazy) transaction history. Services append new entries
+     * through WalletTransactionRepository instead.
+     */
     public void addTransaction(WalletTransaction transaction) {
         transactions.add(transaction);
         transaction.setWallet(this);
@@ -0,0 +1,43 @@
+package com.playtomic.tests.wallet.api.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Balance of a Wallet including every typed ledger entry up to (and including) sequenceNumber.
+ * The balance now is the snapshot plus the entries after it.
+ */
+@NoArgsConstructor
+@Data
+@Entity
+public class WalletSnapshot {
+
+    public WalletSnapshot(UUID walletId, Money balance, long sequenceNumber) {
+        this.walletId = walletId;
+        this.balance = balance;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    @Id
+    @Column(name = "wallet_id", columnDefinition = "uuid", updatable = false, nullable = false)
+    private UUID walletId;
+
+    @Convert(converter = MoneyConverter.class)
+    @Column(name = "balance", nullable = false)
+    private Money balance;
+
+    @Column(name = "sequence_number", nullable = false)
+    private long sequenceNumber;
+
+    @Column(name = "updated_on")
+    @UpdateTimestamp
+    private Instant updatedOn;
+}
@@ -6,23 +6,32 @@ import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.*;
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.UUID;
 
 @NoArgsConstructor
 @Data
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_wallet_transaction_wallet_created_on", columnList = "wallet_id, created_on, id"),
+        @Index(name = "idx_wallet_transaction_wallet_sequence", columnList = "wallet_id, sequence_number")
+})
 public class WalletTransaction {
 
-    public WalletTransaction(BigDecimal oldBalance, BigDecimal newBalance) {
+    public WalletTransaction(Money oldBalance, Money newBalance) {
         this.oldBalance = oldBalance;
         this.newBalance = newBalance;
     }
 
+    public WalletTransaction(LedgerEntryType type, Money amount, Money oldBalance, Money newBalance) {
+        this(oldBalance, newBalance);
+        this.type = type;
+        this.amount = amount;
+    }
+
     @Id
-    @GeneratedValue(generator = "pg-uuid")
-    @GenericGenerator(name = "uuid", strategy = "org.hibernate.id.UUIDGenerator")
+    @GeneratedValue(generator = TimeOrderedUuidGenerator.NAME)
+    @GenericGenerator(name = TimeOrderedUuidGenerator.NAME, strategy = "com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator")
     @Column(name = "id", columnDefinition = "uuid", updatable = false, nullable = false)
     private UUID id;
 
@@ -30,9 +39,28 @@ public class WalletTransaction {
     @CreationTimestamp
     private Instant createdOn;
 
-    private BigDecimal oldBalance;
+    /**
+     * Order of the entries in the ledger, assigned by the database. Unlike created_on it is unique and
+     * increasing, so "entries after a snapshot" is well defined.
+     */
+    @Column(name = "sequence_number", columnDefinition = "bigint generated by default as identity", insertable = false, updatable = false)
+    private Long sequenceNumber;
+
+    /**
+     * Null on rows written before the ledger was typed; those are already included in Wallet.balance.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", length = 16)
+    private LedgerEntryType type;
+
+    @Convert(converter = MoneyConverter.class)
+    private Money amount;
+
+    @Convert(converter = MoneyConverter.class)
+    private Money oldBalance;
 
-    private BigDecimal newBalance;
+    @Convert(converter = MoneyConverter.class)
+    private Money newBalance;
 
     @ManyToOne(fetch = FetchType.LAZY)
     private Wallet wallet;
@@ -3,6 +3,8 @@ package com.playtomic.tests.wallet.api.exceptions;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
 import com.playtomic.tests.wallet.service.StripeServiceException;
+import com.playtomic.tests.wallet.service.StripeServiceOverloadedException;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
 import lombok.AllArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -26,6 +28,48 @@ public class GlobalExceptionHandler {
                 .body(new ErrorResponse("Sorry, we have some problems :)", 500, Instant.now()));
     }
 
+    @ExceptionHandler(StripeServiceOverloadedException.class)
+    public ResponseEntity<ErrorResponse> stripeServiceOverloadedException(StripeServiceOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new ErrorResponse("Too many concurrent payments, try again later", 503, Instant.now()));
+    }
+
+    @ExceptionHandler(BulkheadFullException.class)
+    public ResponseEntity<ErrorResponse> bulkheadFullException(BulkheadFullException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new ErrorResponse("Too many concurrent payments, try again later", 503, Instant.now()));
+    }
+
+    @ExceptionHandler(WalletBusyException.class)
+    public ResponseEntity<ErrorResponse> walletBusyException(WalletBusyException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body(new ErrorResponse(e.getMessage(), 429, Instant.now()));
+    }
+
+    @ExceptionHandler(TopUpQueueFullException.class)
+    public ResponseEntity<ErrorResponse> topUpQueueFullException(TopUpQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new ErrorResponse(e.getMessage(), 503, Instant.now()));
+    }
+
+    @ExceptionHandler(InvalidAmountException.class)
+    public ResponseEntity<ErrorResponse> invalidAmountException(InvalidAmountException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ErrorResponse(e.getMessage(), 400, Instant.now()));
+    }
+
+    @ExceptionHandler(IdempotencyKeyMismatchException.class)
+    public ResponseEntity<ErrorResponse> idempotencyKeyMismatchException(IdempotencyKeyMismatchException e) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY)
+                .body(new ErrorResponse(e.getMessage(), 422, Instant.now()));
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<ErrorResponse> invalidCursorException(InvalidCursorException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ErrorResponse(e.getMessage(), 400, Instant.now()));
+    }
+
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<ErrorResponse> entityNotFoundException(EntityNotFoundException e) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND)
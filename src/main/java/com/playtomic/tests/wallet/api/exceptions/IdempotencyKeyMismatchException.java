@@ -0,0 +1,7 @@
+package com.playtomic.tests.wallet.api.exceptions;
+
+public class IdempotencyKeyMismatchException extends RuntimeException {
+    public IdempotencyKeyMismatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.playtomic.tests.wallet.api.exceptions;
+
+public class InvalidAmountException extends RuntimeException {
+    public InvalidAmountException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.playtomic.tests.wallet.api.exceptions;
+
+public class TopUpQueueFullException extends RuntimeException {
+    public TopUpQueueFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.playtomic.tests.wallet.api.exceptions;
+
+public class WalletBusyException extends RuntimeException {
+    public WalletBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,44 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.IdempotentTopUp;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface IdempotentTopUpRepository extends JpaRepository<IdempotentTopUp, String> {
+
+    /**
+     * Read-write, so it is read from the primary: a key stored by another instance must be seen at once, or the
+     * top-up would be charged again.
+     */
+    @Override
+    @Transactional
+    Optional<IdempotentTopUp> findById(String idempotencyKey);
+
+    /**
+     * Inserts the key, never overwrites it: a key already stored (by another instance) fails with a
+     * DataIntegrityViolationException. The amounts are in minor units, like the columns (see Money).
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO idempotent_top_up " +
+            "(idempotency_key, created_on, wallet_id, amount, balance, credit_card_number) " +
+            "VALUES (:idempotencyKey, CURRENT_TIMESTAMP, :walletId, :amount, :balance, :creditCardNumber)",
+            nativeQuery = true)
+    int insert(@Param("idempotencyKey") String idempotencyKey,
+               @Param("walletId") UUID walletId,
+               @Param("amount") long amount,
+               @Param("balance") long balance,
+               @Param("creditCardNumber") String creditCardNumber);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IdempotentTopUp i WHERE i.createdOn < :createdOn")
+    int deleteCreatedBefore(@Param("createdOn") Instant createdOn);
+}
@@ -0,0 +1,43 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface TopUpRepository extends JpaRepository<TopUp, UUID> {
+
+    /**
+     * Moves the TopUp to the given status only if it is still in the expected one.
+     * Returns 0 when somebody else (e.g. the sweeper) already settled it.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE TopUp t SET t.status = :to, t.updatedOn = CURRENT_TIMESTAMP WHERE t.id = :id AND t.status = :from")
+    int transition(@Param("id") UUID id, @Param("from") TopUpStatus from, @Param("to") TopUpStatus to);
+
+    /**
+     * Bulk {@link #transition(UUID, TopUpStatus, TopUpStatus)}; returns the number of TopUps moved.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE TopUp t SET t.status = :to, t.updatedOn = CURRENT_TIMESTAMP WHERE t.id IN :ids AND t.status = :from")
+    int transitionAll(@Param("ids") Collection<UUID> ids, @Param("from") TopUpStatus from, @Param("to") TopUpStatus to);
+
+    /**
+     * TopUps in the given status since before createdOn, oldest first. TopUps still waiting in the outbox
+     * (OUTBOX mode) are not stuck, however old, and are left out.
+     */
+    @Query("SELECT t FROM TopUp t WHERE t.status = :status AND t.createdOn < :createdOn " +
+            "AND NOT EXISTS (SELECT c FROM ChargeCommand c WHERE c.topUpId = t.id) ORDER BY t.createdOn")
+    List<TopUp> findStuck(@Param("status") TopUpStatus status, @Param("createdOn") Instant createdOn, Pageable pageable);
+}
@@ -0,0 +1,76 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Reads of the GET endpoints in plain JDBC: only the columns of the response are selected and mapped straight
+ * into DTOs, so no Wallet entity is hydrated, attached to a persistence context or snapshotted for dirty checking,
+ * and no Spring Data query method is resolved per call. The top-up paths keep the JPA reads of
+ * {@link WalletRepository}, which flush pending changes first.
+ *
+ * Read-only without starting a transaction of their own (SUPPORTS), so they are served by the replica when there is
+ * one (wallet.replica.enabled).
+ */
+@Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+@Repository
+public class WalletReadRepository {
+
+    private static final String SELECT_DTO_BY_ID = "SELECT id, balance, credit_card_number FROM wallet WHERE id = ?";
+
+    private static final String SELECT_ROWS = "SELECT id, created_on, balance, credit_card_number FROM wallet ";
+    private static final String SELECT_FIRST_PAGE = SELECT_ROWS + "ORDER BY created_on, id LIMIT ?";
+    private static final String SELECT_PAGE_AFTER = SELECT_ROWS +
+            "WHERE created_on > ? OR (created_on = ? AND id > ?) ORDER BY created_on, id LIMIT ?";
+
+    private static final ResultSetExtractor<Optional<WalletDto>> DTO_EXTRACTOR = rs -> rs.next()
+            ? Optional.of(new WalletDto(
+                    rs.getObject("id", UUID.class),
+                    Money.ofMinorUnits(rs.getLong("balance")),
+                    rs.getString("credit_card_number")))
+            : Optional.empty();
+
+    private static final RowMapper<WalletRow> ROW_MAPPER = (rs, rowNum) -> new WalletRow(
+            rs.getObject("id", UUID.class),
+            rs.getTimestamp("created_on").toInstant(),
+            Money.ofMinorUnits(rs.getLong("balance")),
+            rs.getString("credit_card_number"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WalletReadRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<WalletDto> findDtoById(UUID id) {
+        return jdbcTemplate.query(SELECT_DTO_BY_ID, DTO_EXTRACTOR, id);
+    }
+
+    /**
+     * First rows of the keyset listing ordered by (created_on, id), served by idx_wallet_created_on_id.
+     */
+    public List<WalletRow> findFirstPage(int limit) {
+        return jdbcTemplate.query(SELECT_FIRST_PAGE, ROW_MAPPER, limit);
+    }
+
+    /**
+     * Keyset (seek) listing: first rows after the given (createdOn, id). No OFFSET and no count query,
+     * so every page costs the same.
+     */
+    public List<WalletRow> findPageAfter(Instant createdOn, UUID id, int limit) {
+        Timestamp after = Timestamp.from(createdOn);
+        return jdbcTemplate.query(SELECT_PAGE_AFTER, ROW_MAPPER, after, after, id, limit);
+    }
+}
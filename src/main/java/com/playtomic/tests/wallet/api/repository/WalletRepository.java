@@ -1,9 +1,60 @@
 package com.playtomic.tests.wallet.api.repository;
 
 import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 public interface WalletRepository extends JpaRepository<Wallet, UUID> {
+
+    /**
+     * Applies the delta directly in the database, so concurrent top-ups are serialized by the row lock
+     * instead of overwriting each other. Returns the number of updated rows (0 when the Wallet does not exist).
+     * The amount is in minor units, like the column (see Money).
+     */
+    @Modifying
+    @Query(value = "UPDATE wallet SET balance = balance + :amount, updated_on = CURRENT_TIMESTAMP WHERE id = :id",
+            nativeQuery = true)
+    int addToBalance(@Param("id") UUID id, @Param("amount") long amount);
+
+    /**
+     * Writes the ledger row from the (already updated and locked) Wallet row, without loading any entity.
+     * Must be called in the same transaction right after {@link #addToBalance(UUID, long)}.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO wallet_transaction (id, created_on, type, amount, old_balance, new_balance, wallet_id) " +
+            "SELECT :transactionId, CURRENT_TIMESTAMP, 'TOP_UP', :amount, w.balance - :amount, w.balance, w.id " +
+            "FROM wallet w WHERE w.id = :id", nativeQuery = true)
+    int insertTransaction(@Param("transactionId") UUID transactionId,
+                          @Param("id") UUID id,
+                          @Param("amount") long amount);
+
+    /**
+     * Offset pages of GET /wallets, with any Sort of the Pageable. Selects the DTO columns only, so no Wallet
+     * entity is hydrated or snapshotted, and the read-only transaction disables the Hibernate flush.
+     * The other GET reads are in {@link WalletReadRepository}.
+     */
+    @Transactional(readOnly = true)
+    @Query(value = "SELECT new com.playtomic.tests.wallet.api.response.WalletDto(w.id, w.balance, w.creditCardNumber) " +
+            "FROM Wallet w",
+            countQuery = "SELECT COUNT(w) FROM Wallet w")
+    Page<WalletDto> findAllDtos(Pageable pageable);
+
+    @Query("SELECT new com.playtomic.tests.wallet.api.response.WalletDto(w.id, w.balance, w.creditCardNumber) " +
+            "FROM Wallet w WHERE w.id = :id")
+    Optional<WalletDto> findDtoById(@Param("id") UUID id);
+
+    @Query("SELECT new com.playtomic.tests.wallet.api.response.WalletDto(w.id, w.balance, w.creditCardNumber) " +
+            "FROM Wallet w WHERE w.id IN :ids")
+    List<WalletDto> findDtosByIdIn(@Param("ids") Collection<UUID> ids);
 }
@@ -0,0 +1,29 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.request.WalletCursor;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Row of the keyset listing of Wallets: the WalletDto columns plus created_on for the cursor,
+ * selected by a constructor projection instead of loading Wallet entities.
+ */
+@Value
+public class WalletRow {
+    UUID id;
+    Instant createdOn;
+    Money balance;
+    String creditCardNumber;
+
+    public WalletDto toDto() {
+        return new WalletDto(id, balance, creditCardNumber);
+    }
+
+    public WalletCursor toCursor() {
+        return new WalletCursor(createdOn, id);
+    }
+}
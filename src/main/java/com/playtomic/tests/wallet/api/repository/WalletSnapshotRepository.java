@@ -0,0 +1,12 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.WalletSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.UUID;
+
+/**
+ * Latest persisted balance per Wallet, written by the BalanceProjection.
+ */
+public interface WalletSnapshotRepository extends JpaRepository<WalletSnapshot, UUID> {
+}
@@ -0,0 +1,13 @@
+package com.playtomic.tests.wallet.api.repository;
+
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.UUID;
+
+/**
+ * Append-only access to the ledger. New rows only need a reference to their Wallet,
+ * so the (lazy) transaction history of the Wallet is never loaded to add an entry.
+ */
+public interface WalletTransactionRepository extends JpaRepository<WalletTransaction, UUID> {
+}
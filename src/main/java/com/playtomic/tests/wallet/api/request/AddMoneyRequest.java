@@ -2,11 +2,14 @@ package com.playtomic.tests.wallet.api.request;
 
 import lombok.Data;
 
+import javax.validation.constraints.Digits;
 import javax.validation.constraints.Positive;
 import java.math.BigDecimal;
 
 @Data
 public class AddMoneyRequest {
+    /** at most 2 decimals (cents) and below 10^13, never rounded: see Money */
     @Positive
+    @Digits(integer = 13, fraction = 2)
     BigDecimal amount;
 }
@@ -0,0 +1,38 @@
+package com.playtomic.tests.wallet.api.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Digits;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.Size;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+public class BulkTopUpRequest {
+
+    public static final int MAX_TOP_UPS = 1000;
+
+    @NotEmpty
+    @Size(max = MAX_TOP_UPS)
+    List<@Valid @NotNull TopUp> topUps;
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Data
+    public static class TopUp {
+        @NotNull
+        UUID walletId;
+
+        @NotNull
+        @Positive
+        @Digits(integer = 13, fraction = 2)
+        BigDecimal amount;
+    }
+}
@@ -0,0 +1,34 @@
+package com.playtomic.tests.wallet.api.request;
+
+import com.playtomic.tests.wallet.api.exceptions.InvalidCursorException;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a listing ordered by (created_on, id): the last row of the previous page.
+ * Sent to clients as an opaque URL-safe string.
+ */
+@Value
+public class WalletCursor {
+    Instant createdOn;
+    UUID id;
+
+    public String encode() {
+        String raw = createdOn + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static WalletCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            return new WalletCursor(Instant.parse(raw.substring(0, separator)), UUID.fromString(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException("Cursor=" + cursor + " is not valid");
+        }
+    }
+}
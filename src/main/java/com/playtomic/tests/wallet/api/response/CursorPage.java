@@ -0,0 +1,18 @@
+package com.playtomic.tests.wallet.api.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Page of a keyset (seek) listing. {@code nextCursor} is null on the last page.
+ */
+@AllArgsConstructor
+@Value
+@Builder
+public class CursorPage<T> {
+    List<T> content;
+    String nextCursor;
+}
@@ -0,0 +1,24 @@
+package com.playtomic.tests.wallet.api.response;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A top-up accepted for asynchronous processing (OUTBOX mode) and its current status.
+ */
+@AllArgsConstructor
+@Value
+@Builder
+public class TopUpDto {
+    UUID id;
+    UUID walletId;
+    Money amount;
+    TopUpStatus status;
+    Instant createdOn;
+}
@@ -0,0 +1,23 @@
+package com.playtomic.tests.wallet.api.response;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.UUID;
+
+/**
+ * Outcome of one top-up of a bulk request. status is the HTTP status the single top-up would have answered with;
+ * balance is set on success, message on failure.
+ */
+@AllArgsConstructor
+@Value
+@Builder
+public class TopUpResultDto {
+    UUID walletId;
+    Money amount;
+    int status;
+    Money balance;
+    String message;
+}
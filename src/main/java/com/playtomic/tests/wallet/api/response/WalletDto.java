@@ -1,9 +1,9 @@
 package com.playtomic.tests.wallet.api.response;
 
 
+import com.playtomic.tests.wallet.api.entity.Money;
 import lombok.*;
 
-import java.math.BigDecimal;
 import java.util.UUID;
 
 @AllArgsConstructor
@@ -11,6 +11,6 @@ import java.util.UUID;
 @Builder
 public class WalletDto {
     UUID id;
-    BigDecimal balance;
+    Money balance;
     String creditCardNumber;
 }
@@ -0,0 +1,19 @@
+package com.playtomic.tests.wallet.api.response;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@AllArgsConstructor
+@Value
+@Builder
+public class WalletTransactionDto {
+    UUID id;
+    Instant createdOn;
+    Money oldBalance;
+    Money newBalance;
+}
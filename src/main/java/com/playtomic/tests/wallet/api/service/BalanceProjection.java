@@ -0,0 +1,261 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.entity.WalletSnapshot;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletSnapshotRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event-sourced balances (LEDGER balance update mode): the typed ledger entries are the source of truth and
+ * the balance of every Wallet written in this mode lives in memory.
+ *
+ * A Wallet joins the projection on its first append: its current Wallet.balance and the last ledger entry at that
+ * moment are persisted as its first WalletSnapshot, so entries written before the switch to LEDGER are never
+ * counted twice. From then on writes are pure appends (Wallet.balance is no longer updated), and the snapshotter
+ * periodically persists the projected balances. At startup the projection is rebuilt from the latest snapshot of
+ * each Wallet plus the entries after it.
+ *
+ * Appends to one Wallet are serialized on its projected balance and applied only after their commit, so a snapshot
+ * never includes an entry that is not committed, nor misses one before its sequence number.
+ * Like WalletCache, the projection is per instance: LEDGER mode assumes one writing instance.
+ *
+ * In JOURNAL mode the balances are those of the JournalEngine, and there are no snapshots.
+ */
+@Slf4j
+@Component
+public class BalanceProjection {
+
+    private static final String REBUILD =
+            "SELECT s.wallet_id, w.credit_card_number, s.balance, s.sequence_number, " +
+            "COALESCE(SUM(CASE t.type WHEN 'SPEND' THEN -t.amount ELSE t.amount END), 0) AS delta, " +
+            "COALESCE(MAX(t.sequence_number), s.sequence_number) AS last_sequence_number " +
+            "FROM wallet_snapshot s JOIN wallet w ON w.id = s.wallet_id " +
+            "LEFT JOIN wallet_transaction t ON t.wallet_id = s.wallet_id AND t.sequence_number > s.sequence_number " +
+            "AND t.type IS NOT NULL " +
+            "GROUP BY s.wallet_id, w.credit_card_number, s.balance, s.sequence_number";
+    private static final String LAST_SEQUENCE_NUMBER =
+            "SELECT COALESCE(MAX(sequence_number), 0) FROM wallet_transaction WHERE wallet_id = ?";
+    private static final String INSERT_ENTRY =
+            "INSERT INTO wallet_transaction (id, created_on, type, amount, old_balance, new_balance, wallet_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SNAPSHOT =
+            "UPDATE wallet_snapshot SET balance = ?, sequence_number = ?, updated_on = ? WHERE wallet_id = ?";
+
+    private final boolean enabled;
+    private final JournalEngine journalEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletRepository walletRepository;
+    private final WalletSnapshotRepository walletSnapshotRepository;
+    private final Map<UUID, ProjectedBalance> balances = new ConcurrentHashMap<>();
+
+    public BalanceProjection(@Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                             PlatformTransactionManager transactionManager,
+                             JdbcTemplate jdbcTemplate,
+                             WalletRepository walletRepository,
+                             WalletSnapshotRepository walletSnapshotRepository,
+                             JournalEngine journalEngine) {
+        this.enabled = balanceUpdateMode == BalanceUpdateMode.LEDGER;
+        this.journalEngine = journalEngine;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.jdbcTemplate = jdbcTemplate;
+        this.walletRepository = walletRepository;
+        this.walletSnapshotRepository = walletSnapshotRepository;
+    }
+
+    public boolean isEnabled() {
+        return enabled || journalEngine.isEnabled();
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        balances.clear();
+        jdbcTemplate.query(REBUILD, rs -> {
+            ProjectedBalance balance = new ProjectedBalance(
+                    rs.getString("credit_card_number"),
+                    Money.add(rs.getLong("balance"), rs.getLong("delta")),
+                    rs.getLong("sequence_number"));
+            balance.sequenceNumber = rs.getLong("last_sequence_number");
+            balances.put(rs.getObject("wallet_id", UUID.class), balance);
+        });
+        log.info("Balance projection rebuilt for {} Wallets", balances.size());
+    }
+
+    /**
+     * Current balance; a Wallet not in the projection has never been appended to, so its row is up to date.
+     */
+    public WalletDto get(@NonNull UUID walletId) {
+        if (journalEngine.isEnabled()) {
+            return journalEngine.get(walletId);
+        }
+        ProjectedBalance balance = balances.get(walletId);
+        if (balance == null) {
+            return walletRepository.findDtoById(walletId).orElseThrow(
+                    () -> new EntityNotFoundException("Entity with id=" + walletId + " is not Found"));
+        }
+        synchronized (balance) {
+            return new WalletDto(walletId, Money.ofMinorUnits(balance.balance), balance.creditCardNumber);
+        }
+    }
+
+    /**
+     * The given WalletDto (read from the Wallet row) with its projected balance.
+     */
+    public WalletDto project(@NonNull WalletDto wallet) {
+        if (journalEngine.isEnabled()) {
+            return journalEngine.project(wallet);
+        }
+        return balances.containsKey(wallet.getId()) ? get(wallet.getId()) : wallet;
+    }
+
+    /**
+     * Appends an entry with nothing else to write; in JOURNAL mode the database is not involved.
+     */
+    public WalletDto append(@NonNull UUID walletId, @NonNull LedgerEntryType type, @NonNull Money amount) {
+        if (journalEngine.isEnabled()) {
+            return journalEngine.append(walletId, type, amount);
+        }
+        return append(walletId, type, amount, () -> { });
+    }
+
+    /**
+     * Appends an entry to the ledger in its own transaction, together with whatever inTransaction writes
+     * (e.g. the TopUp confirmation), and returns the Wallet with its new balance once committed.
+     * In JOURNAL mode the entry is appended to the journal first, then inTransaction commits: a crash in between
+     * leaves the TopUp PENDING (to be reconciled) with its amount applied, never confirmed with its amount lost.
+     */
+    public WalletDto append(@NonNull UUID walletId, @NonNull LedgerEntryType type, @NonNull Money amount,
+                            @NonNull Runnable inTransaction) {
+        if (journalEngine.isEnabled()) {
+            WalletDto wallet = journalEngine.append(walletId, type, amount);
+            try {
+                transactionTemplate.executeWithoutResult(status -> inTransaction.run());
+            } catch (RuntimeException e) {
+                log.error("{} of amount={} is journaled for the Wallet with id={}, but what commits with it failed: " +
+                        "reconcile it", type, amount, walletId, e);
+                throw e;
+            }
+            return wallet;
+        }
+        long minorUnits = amount.getMinorUnits();
+        ProjectedBalance balance = balances.computeIfAbsent(walletId, this::open);
+        synchronized (balance) {
+            long oldBalance = balance.balance;
+            long newBalance = Money.add(oldBalance, type.signed(minorUnits));
+            Long sequenceNumber = transactionTemplate.execute(status -> {
+                inTransaction.run();
+                return insertEntry(walletId, type, minorUnits, oldBalance, newBalance);
+            });
+            balance.balance = newBalance;
+            balance.sequenceNumber = sequenceNumber;
+            return new WalletDto(walletId, Money.ofMinorUnits(newBalance), balance.creditCardNumber);
+        }
+    }
+
+    /**
+     * Persists the balances that changed since their last snapshot; returns how many were written.
+     */
+    @Scheduled(fixedDelayString = "${wallet.ledger.snapshot-interval-in-milliseconds:60000}",
+            initialDelayString = "${wallet.ledger.snapshot-interval-in-milliseconds:60000}")
+    public int snapshot() {
+        List<Object[]> changed = new ArrayList<>();
+        List<ProjectedBalance> snapshotted = new ArrayList<>();
+        List<Long> sequenceNumbers = new ArrayList<>();
+        Timestamp now = Timestamp.from(Instant.now());
+        balances.forEach((walletId, balance) -> {
+            synchronized (balance) {
+                if (balance.sequenceNumber > balance.snapshotSequenceNumber) {
+                    changed.add(new Object[]{balance.balance, balance.sequenceNumber, now, walletId});
+                    snapshotted.add(balance);
+                    sequenceNumbers.add(balance.sequenceNumber);
+                }
+            }
+        });
+        if (changed.isEmpty()) {
+            return 0;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UPDATE_SNAPSHOT, changed));
+        for (int i = 0; i < snapshotted.size(); i++) {
+            ProjectedBalance balance = snapshotted.get(i);
+            synchronized (balance) {
+                balance.snapshotSequenceNumber = Math.max(balance.snapshotSequenceNumber, sequenceNumbers.get(i));
+            }
+        }
+        log.debug("Snapshotted the balance of {} Wallets", changed.size());
+        return changed.size();
+    }
+
+    /**
+     * First append to a Wallet: persist its opening snapshot before anything is appended.
+     */
+    private ProjectedBalance open(UUID walletId) {
+        return transactionTemplate.execute(status -> {
+            WalletDto wallet = walletRepository.findDtoById(walletId).orElseThrow(
+                    () -> new EntityNotFoundException("Entity with id=" + walletId + " is not Found"));
+            Long sequenceNumber = jdbcTemplate.queryForObject(LAST_SEQUENCE_NUMBER, Long.class, walletId);
+            walletSnapshotRepository.save(new WalletSnapshot(walletId, wallet.getBalance(), sequenceNumber));
+            return new ProjectedBalance(wallet.getCreditCardNumber(), wallet.getBalance().getMinorUnits(), sequenceNumber);
+        });
+    }
+
+    private long insertEntry(UUID walletId, LedgerEntryType type, long amount, long oldBalance, long newBalance) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT_ENTRY, new String[]{"sequence_number"});
+            statement.setObject(1, TimeOrderedUuidGenerator.next());
+            statement.setTimestamp(2, Timestamp.from(Instant.now()));
+            statement.setString(3, type.name());
+            statement.setLong(4, amount);
+            statement.setLong(5, oldBalance);
+            statement.setLong(6, newBalance);
+            statement.setObject(7, walletId);
+            return statement;
+        }, keyHolder);
+        return keyHolder.getKey().longValue();
+    }
+
+    private static final class ProjectedBalance {
+        private final String creditCardNumber;
+        /** minor units */
+        private long balance;
+        private long sequenceNumber;
+        private long snapshotSequenceNumber;
+
+        private ProjectedBalance(String creditCardNumber, long balance, long snapshotSequenceNumber) {
+            this.creditCardNumber = creditCardNumber;
+            this.balance = balance;
+            this.sequenceNumber = snapshotSequenceNumber;
+            this.snapshotSequenceNumber = snapshotSequenceNumber;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.playtomic.tests.wallet.api.service;
+
+/**
+ * How a top-up is written into the database.
+ */
+public enum BalanceUpdateMode {
+
+    /**
+     * Single guarded UPDATE (balance = balance + amount) followed by INSERT ... SELECT of the ledger row.
+     * No entity is loaded, and concurrent top-ups can not lose updates.
+     */
+    ATOMIC,
+
+    /**
+     * Original approach: load the Wallet, add the amount in Java and save the whole entity back.
+     * Loses updates under concurrent top-ups to the same Wallet.
+     */
+    LOAD_AND_SAVE,
+
+    /**
+     * Event sourced: a top-up is a pure append of a typed ledger entry, Wallet.balance is not updated and
+     * balances are read from the in-memory {@link BalanceProjection}.
+     */
+    LEDGER,
+
+    /**
+     * Single node, in memory: a top-up is applied by the single-threaded {@link JournalEngine} once it is in the
+     * memory-mapped journal file, balances are read from memory and the database is a projection written
+     * asynchronously (Wallet.balance and the ledger lag behind).
+     */
+    JOURNAL;
+
+    /**
+     * Whether the balances are read from memory (through the {@link BalanceProjection}) instead of Wallet.balance.
+     */
+    public boolean isInMemory() {
+        return this == LEDGER || this == JOURNAL;
+    }
+}
@@ -0,0 +1,19 @@
+package com.playtomic.tests.wallet.api.service;
+
+/**
+ * File format of the bulk import and export of Wallets and their ledger (see WalletBulkFile).
+ */
+public enum BulkFormat {
+
+    /**
+     * UTF-8 text, one record per line: a Wallet line, then the lines of its ledger entries. Amounts are decimals and
+     * timestamps ISO-8601, so it can be read, edited and produced by other tools.
+     */
+    CSV,
+
+    /**
+     * Compact binary records: amounts in minor units, ids and timestamps as numbers. About half the size of CSV
+     * and nothing to parse, for migrations between instances of this service.
+     */
+    BINARY
+}
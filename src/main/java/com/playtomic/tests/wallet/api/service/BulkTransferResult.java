@@ -0,0 +1,23 @@
+package com.playtomic.tests.wallet.api.service;
+
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * What a bulk import or export (so far, for progress reports) has transferred.
+ */
+@Value
+public class BulkTransferResult {
+    long wallets;
+    long entries;
+    Duration elapsed;
+
+    /**
+     * Records (Wallets and ledger entries) per second.
+     */
+    public long getRate() {
+        long millis = Math.max(1, elapsed.toMillis());
+        return (wallets + entries) * 1000 / millis;
+    }
+}
@@ -0,0 +1,214 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.IdempotencyKeyMismatchException;
+import com.playtomic.tests.wallet.api.repository.IdempotentTopUpRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates top-ups sent with the same Idempotency-Key.
+ *
+ * Completed responses are kept in a bounded in-memory map (TTL + oldest-first eviction) in front of the
+ * IdempotentTopUp table, so a replay costs a map lookup and never reaches Stripe or the Wallet row.
+ * Concurrent requests with the same key on this instance wait for the first one instead of charging twice.
+ * Failed top-ups are not stored, so they can be retried. A key is bound to the amount of its request, and is only
+ * ever inserted: when two instances race on a key, the response stored first is the one every retry gets.
+ */
+@Slf4j
+@Component
+public class IdempotencyStore {
+
+    private final long ttl;
+    private final int maxSize;
+    private final IdempotentTopUpRepository repository;
+    private final ShardRouter shardRouter;
+    private final Map<String, Entry> entries;
+    private final Map<String, Running> inFlight = new ConcurrentHashMap<>();
+
+    public IdempotencyStore(@Value("${wallet.idempotency.ttl-in-milliseconds:86400000}") long ttl,
+                            @Value("${wallet.idempotency.max-size:100000}") int maxSize,
+                            IdempotentTopUpRepository repository,
+                            ShardRouter shardRouter) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.repository = repository;
+        this.shardRouter = shardRouter;
+        this.entries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > IdempotencyStore.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the stored response for the key, or runs the top-up and stores its response. A key already used for
+     * another amount is rejected with an IdempotencyKeyMismatchException.
+     */
+    public WalletDto execute(@NonNull String idempotencyKey, @NonNull UUID walletId, @NonNull Money amount,
+                             @NonNull Supplier<WalletDto> topUp) {
+        String key = walletId + ":" + idempotencyKey;
+        Optional<Entry> stored = find(key, walletId);
+        if (stored.isPresent()) {
+            log.info("Replaying top-up with Idempotency-Key={} for the Wallet with id={}", idempotencyKey, walletId);
+            return replay(stored.get(), amount, idempotencyKey);
+        }
+
+        Running mine = new Running(amount);
+        Running running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return replay(await(running.response), running.amount, amount, idempotencyKey);
+        }
+
+        try {
+            // a request with the same key may have finished (and been remembered) between find() and putIfAbsent()
+            Optional<Entry> remembered = findInMemory(key, Instant.now());
+            WalletDto walletDto = remembered.isPresent()
+                    ? replay(remembered.get(), amount, idempotencyKey)
+                    : save(key, walletId, amount, topUp.get());
+            mine.response.complete(walletDto);
+            return walletDto;
+
+        } catch (RuntimeException e) {
+            mine.response.completeExceptionally(e);
+            throw e;
+
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${wallet.idempotency.purge-interval-in-milliseconds:3600000}",
+            initialDelayString = "${wallet.idempotency.purge-interval-in-milliseconds:3600000}")
+    public void purgeExpired() {
+        Instant now = Instant.now();
+        synchronized (entries) {
+            entries.values().removeIf(entry -> entry.expiresAt.isBefore(now));
+        }
+        int deleted = shardRouter.onEachShard(() -> repository.deleteCreatedBefore(now.minusMillis(ttl)))
+                .stream().mapToInt(Integer::intValue).sum();
+        log.info("Purged {} expired idempotency keys", deleted);
+    }
+
+    private Optional<Entry> find(String key, UUID walletId) {
+        Instant now = Instant.now();
+        Optional<Entry> remembered = findInMemory(key, now);
+        if (remembered.isPresent()) {
+            return remembered;
+        }
+
+        Optional<Entry> persisted = findPersisted(key, walletId, now);
+        persisted.ifPresent(entry -> remember(key, entry));
+        return persisted;
+    }
+
+    private Optional<Entry> findInMemory(String key, Instant now) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt.isAfter(now)) {
+                    return Optional.of(entry);
+                }
+                entries.remove(key);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Optional<Entry> findPersisted(String key, UUID walletId, Instant now) {
+        return shardRouter.onShardOf(walletId, () -> repository.findById(key))
+                .filter(i -> i.getCreatedOn() == null || i.getCreatedOn().plusMillis(ttl).isAfter(now))
+                .map(i -> new Entry(new WalletDto(i.getWalletId(), i.getBalance(), i.getCreditCardNumber()),
+                        i.getAmount(), now.plusMillis(ttl)));
+    }
+
+    /**
+     * Inserts the response, or returns the one stored first when another instance ran the same request concurrently.
+     */
+    private WalletDto save(String key, UUID walletId, Money amount, WalletDto walletDto) {
+        Instant now = Instant.now();
+        try {
+            shardRouter.onShardOf(walletId, () -> repository.insert(key, walletId, amount.getMinorUnits(),
+                    walletDto.getBalance().getMinorUnits(), walletDto.getCreditCardNumber()));
+        } catch (DataIntegrityViolationException e) {
+            Optional<Entry> stored = findPersisted(key, walletId, now);
+            if (stored.isPresent()) {
+                log.warn("Idempotency key={} was already stored by another instance, replaying its response", key);
+                remember(key, stored.get());
+                return stored.get().walletDto;
+            }
+            throw e;
+        }
+        remember(key, new Entry(walletDto, amount, now.plusMillis(ttl)));
+        return walletDto;
+    }
+
+    private void remember(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private static WalletDto replay(Entry entry, Money amount, String idempotencyKey) {
+        return replay(entry.walletDto, entry.amount, amount, idempotencyKey);
+    }
+
+    private static WalletDto replay(WalletDto walletDto, Money storedAmount, Money amount, String idempotencyKey) {
+        // a key stored before its amount was can not be checked, it is replayed as it used to be
+        if (storedAmount != null && !storedAmount.equals(amount)) {
+            throw new IdempotencyKeyMismatchException(
+                    "Idempotency-Key " + idempotencyKey + " was already used for a top-up of another amount");
+        }
+        return walletDto;
+    }
+
+    private static WalletDto await(CompletableFuture<WalletDto> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        private final WalletDto walletDto;
+        /** of the request */
+        private final Money amount;
+        private final Instant expiresAt;
+
+        private Entry(WalletDto walletDto, Money amount, Instant expiresAt) {
+            this.walletDto = walletDto;
+            this.amount = amount;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Running {
+        /** of the request */
+        private final Money amount;
+        private final CompletableFuture<WalletDto> response = new CompletableFuture<>();
+
+        private Running(Money amount) {
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Balances of the JOURNAL balance update mode: a single engine thread applies the ledger entries to balances held
+ * in memory, one batch of queued entries at a time. It appends the batch to the memory-mapped journal (JournalFile),
+ * makes it durable with one force (when fsync is on), and only then publishes the new balances and releases the
+ * callers, so an acknowledged top-up is on disk and nothing else waits for a lock or the database.
+ *
+ * A Wallet enters the engine with its first entry: the caller reads its row, and the engine journals its balance
+ * and credit card number before the entry, so replaying the journal alone rebuilds every balance at startup. The
+ * database follows asynchronously (JournalProjection), the journal's id (journal.id in its directory) ties it to
+ * its projection checkpoint.
+ *
+ * Like BalanceProjection, the engine is per instance: JOURNAL mode is for a single writing instance, which owns the
+ * journal directory.
+ */
+@Slf4j
+@Component
+public class JournalEngine implements MeterBinder {
+
+    private static final String JOURNAL_ID = "journal.id";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+    private final int maxBatchSize;
+    private final BlockingQueue<Command> queue;
+    private final JournalProjection journalProjection;
+    private final WalletRepository walletRepository;
+    /** written by the engine thread only, once the entries are durable */
+    private final Map<UUID, Balance> balances = new ConcurrentHashMap<>();
+    private final Thread engine;
+    private JournalFile journal;
+    private volatile boolean running = true;
+    private volatile RuntimeException failure;
+
+    public JournalEngine(@Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                         @Value("${wallet.journal.directory:journal}") String directory,
+                         @Value("${wallet.journal.segment-size-in-megabytes:64}") int segmentSize,
+                         @Value("${wallet.journal.fsync:true}") boolean fsync,
+                         @Value("${wallet.journal.max-batch-size:1024}") int maxBatchSize,
+                         @Value("${wallet.journal.queue-capacity:65536}") int queueCapacity,
+                         JournalProjection journalProjection,
+                         WalletRepository walletRepository) {
+        this.enabled = balanceUpdateMode == BalanceUpdateMode.JOURNAL;
+        this.directory = Paths.get(directory);
+        this.segmentSize = Math.multiplyExact(segmentSize, 1024 * 1024);
+        this.fsync = fsync;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.journalProjection = journalProjection;
+        this.walletRepository = walletRepository;
+        this.engine = new Thread(this::run, "journal-engine");
+        this.engine.setDaemon(true);
+    }
+
+    public static JournalEngine disabled() {
+        return new JournalEngine(BalanceUpdateMode.ATOMIC, "journal", 1, false, 1, 1, null, null);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Rebuilds the balances from the journal, queues the entries its projection is missing and starts the engine.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        journal = new JournalFile(directory, segmentSize);
+        long checkpoint = journalProjection.open(journalId());
+        List<JournalProjection.Entry> unprojected = new ArrayList<>();
+        journal.replay(record -> {
+            Balance balance = balances.get(record.getWalletId());
+            if (record.getType() == null) {
+                balances.put(record.getWalletId(), new Balance(record.getCreditCardNumber(), record.getAmount()));
+                return;
+            }
+            long newBalance = Math.addExact(balance.balance, record.getType().signed(record.getAmount()));
+            balances.put(record.getWalletId(), new Balance(balance.creditCardNumber, newBalance));
+            if (record.getSequenceNumber() > checkpoint) {
+                unprojected.add(new JournalProjection.Entry(record.getSequenceNumber(), record.getCreatedOn(),
+                        record.getWalletId(), record.getType(), record.getAmount(), balance.balance, newBalance));
+            }
+        });
+        journalProjection.add(unprojected);
+        log.info("Journal {} replayed up to record {}: {} Wallets, {} entries to project",
+                directory.toAbsolutePath(), journal.getLastSequenceNumber(), balances.size(), unprojected.size());
+        engine.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        try {
+            engine.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Current balance; a Wallet the engine has not seen yet has never been appended to, so its row is up to date.
+     */
+    public WalletDto get(@NonNull UUID walletId) {
+        Balance balance = balances.get(walletId);
+        if (balance == null) {
+            return walletRepository.findDtoById(walletId).orElseThrow(
+                    () -> new EntityNotFoundException("Entity with id=" + walletId + " is not Found"));
+        }
+        return balance.toDto(walletId);
+    }
+
+    /**
+     * The given WalletDto (read from the Wallet row) with its balance in the engine.
+     */
+    public WalletDto project(@NonNull WalletDto wallet) {
+        Balance balance = balances.get(wallet.getId());
+        return balance == null ? wallet : balance.toDto(wallet.getId());
+    }
+
+    /**
+     * Applies an entry and returns the Wallet with its new balance once the entry is durable in the journal.
+     */
+    public WalletDto append(@NonNull UUID walletId, @NonNull LedgerEntryType type, @NonNull Money amount) {
+        if (failure != null) {
+            throw new IllegalStateException("Journal engine stopped after a failure", failure);
+        }
+        WalletDto opening = balances.containsKey(walletId) ? null : walletRepository.findDtoById(walletId).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + walletId + " is not Found"));
+        Command command = new Command(walletId, type, amount.getMinorUnits(), opening);
+        try {
+            queue.put(command);
+            return command.result.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the journal append to the Wallet with id=" + walletId, e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("wallet.journal.queue", queue, Collection::size)
+                .description("Entries waiting for the journal engine")
+                .register(registry);
+        Gauge.builder("wallet.journal.projection.lag", journalProjection, JournalProjection::getLag)
+                .description("Journal entries not projected into the database yet")
+                .register(registry);
+    }
+
+    private void run() {
+        List<Command> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Command first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                apply(batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+
+            } catch (RuntimeException e) {
+                // the journal may hold entries whose balances are not published: nothing more can be appended
+                log.error("Journal engine stopped, top-ups are rejected until the application is restarted", e);
+                failure = e;
+                running = false;
+
+            } finally {
+                batch.forEach(command -> command.result.completeExceptionally(
+                        new IllegalStateException("Journal engine stopped before the entry was applied")));
+                batch.clear();
+            }
+        }
+        queue.forEach(command -> command.result.completeExceptionally(
+                new IllegalStateException("Journal engine stopped before the entry was applied")));
+    }
+
+    /**
+     * Journals the batch, makes it durable, then publishes it. Commands that can not be applied are failed alone.
+     */
+    private void apply(List<Command> batch) {
+        Instant now = Instant.now();
+        Map<UUID, Balance> changed = new HashMap<>();
+        List<JournalProjection.Entry> entries = new ArrayList<>(batch.size());
+        List<Command> applied = new ArrayList<>(batch.size());
+        for (Command command : batch) {
+            Balance balance = changed.containsKey(command.walletId) ? changed.get(command.walletId) : balances.get(command.walletId);
+            if (balance == null) {
+                WalletDto opening = command.opening;
+                balance = new Balance(opening.getCreditCardNumber(), opening.getBalance().getMinorUnits());
+                journal.open(now, command.walletId, balance.balance, balance.creditCardNumber);
+                changed.put(command.walletId, balance);
+            }
+            long newBalance;
+            try {
+                newBalance = Money.add(balance.balance, command.type.signed(command.amount));
+            } catch (RuntimeException e) {
+                command.result.completeExceptionally(e);
+                continue;
+            }
+            long sequenceNumber = journal.append(now, command.walletId, command.type, command.amount);
+            Balance next = new Balance(balance.creditCardNumber, newBalance);
+            changed.put(command.walletId, next);
+            entries.add(new JournalProjection.Entry(sequenceNumber, now, command.walletId, command.type,
+                    command.amount, balance.balance, newBalance));
+            command.balance = next;
+            applied.add(command);
+        }
+        if (fsync) {
+            journal.force();
+        }
+
+        balances.putAll(changed);
+        journalProjection.add(entries);
+        applied.forEach(command -> command.result.complete(command.balance.toDto(command.walletId)));
+        batch.clear();
+    }
+
+    /**
+     * Id of the journal of the directory, created with it.
+     */
+    private UUID journalId() {
+        Path file = directory.resolve(JOURNAL_ID);
+        try {
+            if (Files.exists(file)) {
+                return UUID.fromString(Files.readString(file, StandardCharsets.UTF_8).trim());
+            }
+            UUID id = UUID.randomUUID();
+            Files.writeString(file, id.toString(), StandardCharsets.UTF_8);
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read the id of the journal in " + directory, e);
+        }
+    }
+
+    private static final class Balance {
+        private final String creditCardNumber;
+        /** minor units */
+        private final long balance;
+
+        private Balance(String creditCardNumber, long balance) {
+            this.creditCardNumber = creditCardNumber;
+            this.balance = balance;
+        }
+
+        private WalletDto toDto(UUID walletId) {
+            return new WalletDto(walletId, Money.ofMinorUnits(balance), creditCardNumber);
+        }
+    }
+
+    private static final class Command {
+        private final UUID walletId;
+        private final LedgerEntryType type;
+        /** minor units */
+        private final long amount;
+        /** row of the Wallet, read by the caller when the engine did not hold its balance */
+        private final WalletDto opening;
+        private final CompletableFuture<WalletDto> result = new CompletableFuture<>();
+        private Balance balance;
+
+        private Command(UUID walletId, LedgerEntryType type, long amount, WalletDto opening) {
+            this.walletId = walletId;
+            this.type = type;
+            this.amount = amount;
+            this.opening = opening;
+        }
+    }
+}
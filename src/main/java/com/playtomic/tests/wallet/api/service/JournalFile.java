@@ -0,0 +1,258 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the JOURNAL balance update mode, in memory-mapped segment files of a fixed size, named
+ * after the sequence number of their first record (00000000000000000001.journal) and preallocated with zeros.
+ *
+ * A record is its payload length (int), the CRC-32C of its payload (int) and its payload: sequence number,
+ * epoch milliseconds, kind (0 opens a Wallet with its balance and credit card number, otherwise the ordinal + 1
+ * of the LedgerEntryType), Wallet id, amount in minor units and credit card number (length-prefixed UTF-8, -1 for
+ * none). A zero length ends the written part of a segment; a record that does not fit in what is left of a
+ * segment starts the next one.
+ *
+ * Appended records are in the page cache at once, so they survive a crash of the process, and on disk once
+ * force() returned. At open, the last segment is cut after its last complete record: a record torn by a crash
+ * (bad length, checksum or sequence number) and what follows it were never acknowledged.
+ *
+ * Not thread-safe: owned by the JournalEngine thread.
+ */
+@Slf4j
+class JournalFile implements Closeable {
+
+    static final String SUFFIX = ".journal";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_CREDIT_CARD_NUMBER_BYTES = 1024;
+    private static final int MAX_PAYLOAD_SIZE = 8 + 8 + 1 + 16 + 8 + 2 + MAX_CREDIT_CARD_NUMBER_BYTES;
+    private static final byte OPEN = 0;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private long lastSequenceNumber;
+    private boolean dirty;
+
+    /**
+     * Opens the journal of the directory (created if missing); call replay before the first append.
+     */
+    JournalFile(@NonNull Path directory, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Journal segments must be at least " + (HEADER_SIZE + MAX_PAYLOAD_SIZE) + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not create the journal directory " + directory, e);
+        }
+    }
+
+    long getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    /**
+     * Reads every record in order and positions the journal after the last one.
+     */
+    void replay(@NonNull Consumer<Record> consumer) {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            map(segmentPath(1));
+            return;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            map(segments.get(i));
+            Record record;
+            while ((record = read()) != null) {
+                lastSequenceNumber = record.getSequenceNumber();
+                consumer.accept(record);
+            }
+            if (!last && segment.position() + HEADER_SIZE <= segmentSize && segment.getInt(segment.position()) != 0) {
+                throw new IllegalStateException("Journal segment " + segmentPath + " is corrupt at offset " + segment.position());
+            }
+        }
+        truncate();
+    }
+
+    /**
+     * Appends a record that opens a Wallet with its current balance; returns its sequence number.
+     */
+    long open(@NonNull Instant createdOn, @NonNull UUID walletId, long balance, String creditCardNumber) {
+        return append(createdOn, OPEN, walletId, balance, creditCardNumber);
+    }
+
+    /**
+     * Appends a ledger entry; returns its sequence number.
+     */
+    long append(@NonNull Instant createdOn, @NonNull UUID walletId, @NonNull LedgerEntryType type, long amount) {
+        return append(createdOn, (byte) (type.ordinal() + 1), walletId, amount, null);
+    }
+
+    /**
+     * Makes the records appended so far durable.
+     */
+    void force() {
+        if (dirty) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (segment != null) {
+            force();
+        }
+    }
+
+    private long append(Instant createdOn, byte kind, UUID walletId, long amount, String creditCardNumber) {
+        long sequenceNumber = lastSequenceNumber + 1;
+        byte[] card = creditCardNumber == null ? null : creditCardNumber.getBytes(StandardCharsets.UTF_8);
+        if (card != null && card.length > MAX_CREDIT_CARD_NUMBER_BYTES) {
+            throw new IllegalArgumentException("Credit card number of the Wallet with id=" + walletId + " is too long");
+        }
+        payload.clear();
+        payload.putLong(sequenceNumber)
+                .putLong(createdOn.toEpochMilli())
+                .put(kind)
+                .putLong(walletId.getMostSignificantBits())
+                .putLong(walletId.getLeastSignificantBits())
+                .putLong(amount)
+                .putShort((short) (card == null ? -1 : card.length));
+        if (card != null) {
+            payload.put(card);
+        }
+        payload.flip();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+
+        if (segment.remaining() < HEADER_SIZE + payload.limit()) {
+            force();
+            map(segmentPath(sequenceNumber));
+        }
+        segment.putInt(payload.limit()).putInt((int) crc.getValue()).put(payload);
+        dirty = true;
+        lastSequenceNumber = sequenceNumber;
+        return sequenceNumber;
+    }
+
+    /**
+     * Next record of the segment, null at its end or at a torn record (the segment is left before it).
+     */
+    private Record read() {
+        int start = segment.position();
+        if (segment.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int length = segment.getInt();
+        int checksum = segment.getInt();
+        if (length <= 0 || length > MAX_PAYLOAD_SIZE || length > segment.remaining()) {
+            segment.position(start);
+            return null;
+        }
+        ByteBuffer record = segment.slice().limit(length);
+        crc.reset();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != checksum || record.getLong(0) != lastSequenceNumber + 1) {
+            segment.position(start);
+            return null;
+        }
+        segment.position(start + HEADER_SIZE + length);
+
+        long sequenceNumber = record.getLong();
+        Instant createdOn = Instant.ofEpochMilli(record.getLong());
+        byte kind = record.get();
+        UUID walletId = new UUID(record.getLong(), record.getLong());
+        long amount = record.getLong();
+        short cardLength = record.getShort();
+        String creditCardNumber = null;
+        if (cardLength >= 0) {
+            byte[] card = new byte[cardLength];
+            record.get(card);
+            creditCardNumber = new String(card, StandardCharsets.UTF_8);
+        }
+        LedgerEntryType type = kind == OPEN ? null : LedgerEntryType.values()[kind - 1];
+        return new Record(sequenceNumber, createdOn, walletId, type, amount, creditCardNumber);
+    }
+
+    /**
+     * Zeroes the last segment after its last complete record, so that no part of a torn record is read again.
+     */
+    private void truncate() {
+        int position = segment.position();
+        if (position + HEADER_SIZE <= segmentSize && segment.getInt(position) != 0) {
+            log.warn("Journal segment {} ends with a torn record at offset {}, dropped", segmentPath, position);
+            while (segment.hasRemaining()) {
+                segment.put((byte) 0);
+            }
+            segment.position(position);
+            dirty = true;
+            force();
+        }
+    }
+
+    private void map(Path path) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segmentPath = path;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not map the journal segment " + path, e);
+        }
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not list the journal directory " + directory, e);
+        }
+    }
+
+    private Path segmentPath(long firstSequenceNumber) {
+        return directory.resolve(String.format("%020d", firstSequenceNumber) + SUFFIX);
+    }
+
+    @lombok.Value
+    static class Record {
+        long sequenceNumber;
+        Instant createdOn;
+        UUID walletId;
+        /** null for the record that opens the Wallet, whose amount is the opening balance */
+        LedgerEntryType type;
+        /** minor units */
+        long amount;
+        /** only in the record that opens the Wallet */
+        String creditCardNumber;
+    }
+}
@@ -0,0 +1,152 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Asynchronous projection of the journal (JOURNAL balance update mode) into the database, for reporting and the
+ * transaction history: every projection-interval, the entries applied by the JournalEngine since the last run are
+ * written with JDBC batches, batch-size entries per transaction: their ledger rows, the latest balance of each of
+ * their Wallets into Wallet.balance and the checkpoint of the journal. As the checkpoint commits with the rows,
+ * every entry is projected exactly once: at startup the engine hands over again the entries after it.
+ *
+ * Entries of a Wallet that no longer exists are skipped.
+ */
+@Slf4j
+@Component
+public class JournalProjection {
+
+    private static final String INSERT_ENTRY =
+            "INSERT INTO wallet_transaction (id, created_on, type, amount, old_balance, new_balance, wallet_id) " +
+            "SELECT ?, ?, ?, ?, ?, ?, id FROM wallet WHERE id = ?";
+    private static final String UPDATE_BALANCE = "UPDATE wallet SET balance = ?, updated_on = ? WHERE id = ?";
+    private static final String SELECT_CHECKPOINT = "SELECT sequence_number FROM journal_checkpoint WHERE journal_id = ?";
+    private static final String INSERT_CHECKPOINT =
+            "INSERT INTO journal_checkpoint (journal_id, sequence_number, updated_on) VALUES (?, 0, ?)";
+    private static final String UPDATE_CHECKPOINT =
+            "UPDATE journal_checkpoint SET sequence_number = ?, updated_on = ? WHERE journal_id = ?";
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    /** entries taken from pending and not committed yet, retried first */
+    private final List<Entry> batch = new ArrayList<>();
+    private volatile UUID journalId;
+
+    public JournalProjection(@Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                             @Value("${wallet.journal.projection-batch-size:1000}") int batchSize,
+                             PlatformTransactionManager transactionManager,
+                             JdbcTemplate jdbcTemplate) {
+        this.enabled = balanceUpdateMode == BalanceUpdateMode.JOURNAL;
+        this.batchSize = batchSize;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Starts the projection of the given journal; returns the sequence number of its last projected record.
+     */
+    public long open(@NonNull UUID journalId) {
+        this.journalId = journalId;
+        List<Long> checkpoint = jdbcTemplate.queryForList(SELECT_CHECKPOINT, Long.class, journalId);
+        if (!checkpoint.isEmpty()) {
+            return checkpoint.get(0);
+        }
+        jdbcTemplate.update(INSERT_CHECKPOINT, journalId, Timestamp.from(Instant.now()));
+        return 0;
+    }
+
+    /**
+     * Queues entries already durable in the journal, in journal order.
+     */
+    public void add(@NonNull Collection<Entry> entries) {
+        pending.addAll(entries);
+    }
+
+    /**
+     * Entries waiting to be projected.
+     */
+    public int getLag() {
+        return pending.size() + batch.size();
+    }
+
+    /**
+     * Projects the queued entries; returns how many were written.
+     */
+    @Scheduled(fixedDelayString = "${wallet.journal.projection-interval-in-milliseconds:100}")
+    public synchronized int project() {
+        if (!enabled || journalId == null) {
+            return 0;
+        }
+        int projected = 0;
+        while (!batch.isEmpty() || pending.drainTo(batch, batchSize) > 0) {
+            transactionTemplate.executeWithoutResult(status -> write(batch));
+            projected += batch.size();
+            batch.clear();
+        }
+        if (projected > 0) {
+            log.debug("Projected {} journal entries", projected);
+        }
+        return projected;
+    }
+
+    private void write(List<Entry> entries) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(INSERT_ENTRY, entries, entries.size(), (ps, entry) -> {
+            ps.setObject(1, TimeOrderedUuidGenerator.next());
+            ps.setTimestamp(2, Timestamp.from(entry.getCreatedOn()));
+            ps.setString(3, entry.getType().name());
+            ps.setLong(4, entry.getAmount());
+            ps.setLong(5, entry.getOldBalance());
+            ps.setLong(6, entry.getNewBalance());
+            ps.setObject(7, entry.getWalletId());
+        });
+
+        Map<UUID, Long> balances = new LinkedHashMap<>();
+        entries.forEach(entry -> balances.put(entry.getWalletId(), entry.getNewBalance()));
+        jdbcTemplate.batchUpdate(UPDATE_BALANCE, new ArrayList<>(balances.entrySet()), balances.size(), (ps, balance) -> {
+            ps.setLong(1, balance.getValue());
+            ps.setTimestamp(2, now);
+            ps.setObject(3, balance.getKey());
+        });
+
+        jdbcTemplate.update(UPDATE_CHECKPOINT, entries.get(entries.size() - 1).getSequenceNumber(), now, journalId);
+    }
+
+    /**
+     * A ledger entry applied by the engine, with the balances (minor units) before and after it.
+     */
+    @lombok.Value
+    public static class Entry {
+        long sequenceNumber;
+        Instant createdOn;
+        UUID walletId;
+        LedgerEntryType type;
+        long amount;
+        long oldBalance;
+        long newBalance;
+    }
+}
@@ -0,0 +1,384 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Group commit of the settle step of two-phase top-ups (ATOMIC balance update).
+ *
+ * Concurrent callers enqueue their confirmed charge and block; a single writer thread collects requests for up to
+ * max-wait (or max-batch-size requests) and applies all of them in ONE transaction with JDBC batches:
+ * TopUp PENDING -> CONFIRMED, wallet balance += amount, ledger row insert. Callers are released only after the
+ * commit, so an acknowledged top-up is durable. If the batch fails, its requests are retried one by one,
+ * so a single bad request can not fail the others. Sharded, a batch is committed as one transaction per shard.
+ * A caller waits at most settle-timeout; once stopped, new requests are rejected and the queued ones are failed.
+ */
+@Slf4j
+@Component
+public class LedgerGroupCommitter implements MeterBinder {
+
+    private static final String CONFIRM_TOP_UP =
+            "UPDATE top_up SET status = ?, updated_on = ? WHERE id = ? AND status = ?";
+    private static final String ADD_TO_BALANCE =
+            "UPDATE wallet SET balance = balance + ?, updated_on = ? WHERE id = ?";
+    private static final String SELECT_WALLETS =
+            "SELECT id, balance, credit_card_number FROM wallet WHERE id IN (:ids)";
+    private static final String INSERT_TRANSACTION =
+            "INSERT INTO wallet_transaction (id, created_on, type, amount, old_balance, new_balance, wallet_id) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final Consumer<List<TopUp>> NONE = topUps -> {
+    };
+
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final long settleTimeout;
+    private final BlockingQueue<Request> queue;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ShardRouter shardRouter;
+    private final Thread writer;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder settled = new LongAdder();
+    private volatile boolean running;
+
+    public LedgerGroupCommitter(@Value("${wallet.group-commit.enabled:false}") boolean enabled,
+                                @Value("${wallet.group-commit.max-batch-size:256}") int maxBatchSize,
+                                @Value("${wallet.group-commit.max-wait-in-microseconds:2000}") long maxWait,
+                                @Value("${wallet.group-commit.queue-capacity:10000}") int queueCapacity,
+                                @Value("${wallet.group-commit.settle-timeout-in-milliseconds:5000}") long settleTimeout,
+                                JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                ShardRouter shardRouter) {
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWait);
+        this.settleTimeout = settleTimeout;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.shardRouter = shardRouter;
+        this.writer = new Thread(this::run, "ledger-group-commit");
+        this.writer.setDaemon(true);
+        this.running = enabled;
+        if (enabled) {
+            writer.start();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Confirms the PENDING TopUp and applies it to the Wallet; returns once the batch holding it is committed.
+     * Gives up after settle-timeout: a TopUp not taken by the writer yet is left PENDING, one already taken may
+     * still be committed.
+     */
+    public WalletDto settle(@NonNull TopUp topUp) {
+        Request request = new Request(topUp);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settleTimeout);
+        try {
+            if (!running) {
+                throw stopped(topUp);
+            }
+            if (!queue.offer(request, settleTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Group commit queue full, TopUp with id=" + topUp.getId() +
+                        " left PENDING");
+            }
+            // stopped while being enqueued: not drained by stop(), fail it here
+            if (!running && queue.remove(request)) {
+                throw stopped(topUp);
+            }
+            return request.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.remove(request);
+            throw new IllegalStateException("Interrupted waiting for the group commit of TopUp with id=" + topUp.getId(), e);
+
+        } catch (TimeoutException e) {
+            String outcome = queue.remove(request) ? "left PENDING" : "it may still be";
+            throw new IllegalStateException("TopUp with id=" + topUp.getId() + " not settled by the group commit " +
+                    "within " + settleTimeout + "ms, " + outcome);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Settles already collected TopUps on the calling thread, max-batch-size per transaction, without the queue
+     * (works whether group commit is enabled or not). Returns one result per TopUp, in order: the Wallet with its
+     * new balance, or the exception that prevented the TopUp from being applied.
+     */
+    public List<CompletableFuture<WalletDto>> settleAll(@NonNull List<TopUp> topUps) {
+        return settleAll(topUps, NONE);
+    }
+
+    /**
+     * Like {@link #settleAll(List)}, and runs inTransaction with the TopUps confirmed by a transaction, inside it:
+     * what it writes is committed with their confirmation, or rolled back with it.
+     */
+    public List<CompletableFuture<WalletDto>> settleAll(@NonNull List<TopUp> topUps,
+                                                        @NonNull Consumer<List<TopUp>> inTransaction) {
+        List<Request> requests = new ArrayList<>(topUps.size());
+        topUps.forEach(topUp -> requests.add(new Request(topUp)));
+        for (int from = 0; from < requests.size(); from += maxBatchSize) {
+            commitOnShards(requests.subList(from, Math.min(from + maxBatchSize, requests.size())), inTransaction);
+        }
+
+        List<CompletableFuture<WalletDto>> results = new ArrayList<>(requests.size());
+        requests.forEach(r -> results.add(r.result));
+        return results;
+    }
+
+    /**
+     * Batches taken from the queue by the writer thread; settled / batches is the average batch size.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getSettled() {
+        return settled.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.group-commit.batches", this, LedgerGroupCommitter::getBatches)
+                .description("Batches of queued settles committed by the group commit writer").register(registry);
+        FunctionCounter.builder("wallet.group-commit.settled", this, LedgerGroupCommitter::getSettled)
+                .description("Queued settles committed in those batches").register(registry);
+    }
+
+    /**
+     * Rejects new requests and fails the queued ones; a batch being committed completes (or fails) as usual.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        writer.interrupt();
+        failQueued();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                try {
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    commitOnShards(batch, NONE);
+                    batches.increment();
+                    settled.add(batch.size());
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+
+                } catch (RuntimeException e) {
+                    // commit() already fails the requests it can not apply, this is outside of it: keep the writer
+                    log.error("Group commit of {} TopUps failed", batch.size(), e);
+
+                } finally {
+                    // no-op for the requests already completed by the commit
+                    batch.forEach(r -> r.result.completeExceptionally(
+                            new IllegalStateException("Group commit stopped before TopUp was settled")));
+                    batch.clear();
+                }
+            }
+
+        } catch (Error e) {
+            log.error("Group commit writer died, rejecting all further settles", e);
+            running = false;
+            throw e;
+
+        } finally {
+            failQueued();
+        }
+    }
+
+    private void failQueued() {
+        List<Request> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        queued.forEach(r -> r.result.completeExceptionally(stopped(r.topUp)));
+    }
+
+    private static IllegalStateException stopped(TopUp topUp) {
+        return new IllegalStateException("Group commit stopped, TopUp with id=" + topUp.getId() + " left PENDING");
+    }
+
+    private void commitOnShards(List<Request> batch, Consumer<List<TopUp>> inTransaction) {
+        if (!shardRouter.isSharded()) {
+            commit(batch, inTransaction);
+            return;
+        }
+        shardRouter.partition(batch, r -> r.topUp.getWalletId())
+                .forEach((shard, requests) -> shardRouter.onShard(shard, () -> commit(requests, inTransaction)));
+    }
+
+    private void commit(List<Request> batch, Consumer<List<TopUp>> inTransaction) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> apply(batch, inTransaction));
+            batch.forEach(Request::complete);
+
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            log.warn("Group commit of {} TopUps failed, settling them one by one", batch.size(), e);
+            for (Request request : batch) {
+                commit(Collections.singletonList(request), inTransaction);
+            }
+        }
+    }
+
+    /**
+     * Runs inside the batch transaction. Requests that can not be applied are failed and left out.
+     */
+    private void apply(List<Request> batch, Consumer<List<TopUp>> inTransaction) {
+        Timestamp now = Timestamp.from(Instant.now());
+        batch.forEach(r -> r.failure = null);
+
+        List<Request> confirmed = new ArrayList<>(batch.size());
+        int[] counts = jdbcTemplate.batchUpdate(CONFIRM_TOP_UP, batch, batch.size(), (ps, r) -> {
+            ps.setString(1, TopUpStatus.CONFIRMED.name());
+            ps.setTimestamp(2, now);
+            ps.setObject(3, r.topUp.getId());
+            ps.setString(4, TopUpStatus.PENDING.name());
+        })[0];
+        for (int i = 0; i < batch.size(); i++) {
+            Request request = batch.get(i);
+            if (applied(counts[i])) {
+                confirmed.add(request);
+            } else {
+                log.error("TopUp with id={} is no longer PENDING, charged amount={} is NOT applied to the Wallet with id={}",
+                        request.topUp.getId(), request.topUp.getAmount(), request.topUp.getWalletId());
+                request.failure = new StripeServiceException();
+            }
+        }
+        if (confirmed.isEmpty()) {
+            return;
+        }
+
+        counts = jdbcTemplate.batchUpdate(ADD_TO_BALANCE, confirmed, confirmed.size(), (ps, r) -> {
+            ps.setLong(1, r.amount);
+            ps.setTimestamp(2, now);
+            ps.setObject(3, r.topUp.getWalletId());
+        })[0];
+        for (int i = 0; i < confirmed.size(); i++) {
+            if (!applied(counts[i])) {
+                // the whole batch is rolled back and retried one by one
+                throw new EntityNotFoundException("Entity with id=" + confirmed.get(i).topUp.getWalletId() + " is not Found");
+            }
+        }
+
+        // balances after the whole batch; walk back to the balance each request saw (row locks are held)
+        Map<UUID, long[]> balances = new HashMap<>();
+        Map<UUID, String> creditCardNumbers = new HashMap<>();
+        Set<UUID> ids = new HashSet<>();
+        confirmed.forEach(r -> ids.add(r.topUp.getWalletId()));
+        namedJdbcTemplate.query(SELECT_WALLETS, new MapSqlParameterSource("ids", ids), rs -> {
+            UUID id = rs.getObject("id", UUID.class);
+            balances.put(id, new long[]{rs.getLong("balance")});
+            creditCardNumbers.put(id, rs.getString("credit_card_number"));
+        });
+
+        confirmed.forEach(r -> balances.get(r.topUp.getWalletId())[0] -= r.amount);
+        for (Request request : confirmed) {
+            UUID walletId = request.topUp.getWalletId();
+            long[] balance = balances.get(walletId);
+            request.oldBalance = balance[0];
+            request.newBalance = Money.add(balance[0], request.amount);
+            balance[0] = request.newBalance;
+            request.creditCardNumber = creditCardNumbers.get(walletId);
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_TRANSACTION, confirmed, confirmed.size(), (ps, r) -> {
+            ps.setObject(1, TimeOrderedUuidGenerator.next());
+            ps.setTimestamp(2, now);
+            ps.setString(3, LedgerEntryType.TOP_UP.name());
+            ps.setLong(4, r.amount);
+            ps.setLong(5, r.oldBalance);
+            ps.setLong(6, r.newBalance);
+            ps.setObject(7, r.topUp.getWalletId());
+        });
+
+        List<TopUp> topUps = new ArrayList<>(confirmed.size());
+        confirmed.forEach(r -> topUps.add(r.topUp));
+        inTransaction.accept(topUps);
+    }
+
+    private static boolean applied(int count) {
+        return count > 0 || count == Statement.SUCCESS_NO_INFO;
+    }
+
+    private static class Request {
+        private final TopUp topUp;
+        /** minor units, like the balances */
+        private final long amount;
+        private final CompletableFuture<WalletDto> result = new CompletableFuture<>();
+        private RuntimeException failure;
+        private long oldBalance;
+        private long newBalance;
+        private String creditCardNumber;
+
+        private Request(TopUp topUp) {
+            this.topUp = topUp;
+            this.amount = topUp.getAmount().getMinorUnits();
+        }
+
+        private void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(new WalletDto(topUp.getWalletId(), Money.ofMinorUnits(newBalance), creditCardNumber));
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Recovers TopUps left in PENDING (e.g. the instance died between the payment call and the settlement).
+ * The card may have been charged, and the simulator offers no way to look a charge up, so stuck TopUps are marked
+ * as UNKNOWN, not FAILED, and logged to be reconciled with the payment provider. TopUps queued in the outbox are the outbox's business.
+ */
+@Slf4j
+@Component
+public class PendingTopUpSweeper {
+
+    private final long pendingTimeout;
+    private final TopUpRepository topUpRepository;
+    private final ShardRouter shardRouter;
+
+    public PendingTopUpSweeper(@Value("${wallet.pending-top-up.timeout-in-milliseconds:30000}") long pendingTimeout,
+                               TopUpRepository topUpRepository,
+                               ShardRouter shardRouter) {
+        this.pendingTimeout = pendingTimeout;
+        this.topUpRepository = topUpRepository;
+        this.shardRouter = shardRouter;
+    }
+
+    @Scheduled(fixedDelayString = "${wallet.pending-top-up.sweep-interval-in-milliseconds:60000}",
+            initialDelayString = "${wallet.pending-top-up.sweep-interval-in-milliseconds:60000}")
+    public int sweep() {
+        Instant before = Instant.now().minusMillis(pendingTimeout);
+        return shardRouter.onEachShard(() -> sweep(before)).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private int sweep(Instant before) {
+        int swept = 0;
+
+        List<TopUp> stuck;
+        do {
+            stuck = topUpRepository.findStuck(TopUpStatus.PENDING, before, PageRequest.of(0, 100));
+            for (TopUp topUp : stuck) {
+                if (topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, TopUpStatus.UNKNOWN) == 1) {
+                    log.warn("TopUp with id={} (Wallet id={}, amount={}) was PENDING since {}, marked as UNKNOWN: reconcile it " +
+                            "with the payment provider",
+                            topUp.getId(), topUp.getWalletId(), topUp.getAmount(), topUp.getCreatedOn());
+                    swept++;
+                }
+            }
+        } while (stuck.size() == 100);
+
+        return swept;
+    }
+}
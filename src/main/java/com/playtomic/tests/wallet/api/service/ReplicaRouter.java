@@ -0,0 +1,81 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Read-your-writes on top of the replica routing (ReplicaRoutingDataSource): for read-your-writes-window after a
+ * top-up of a Wallet on this instance, the reads of that Wallet go to the primary, so the client that topped it
+ * up does not get the balance from before its top-up from a replica that is lagging behind. Reads routed by other
+ * instances are not covered, nor are listings of many Wallets.
+ */
+@Component
+public class ReplicaRouter {
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final Cache<UUID, Boolean> recentWrites;
+
+    public ReplicaRouter(@Value("${wallet.replica.enabled:false}") boolean enabled,
+                         @Value("${wallet.replica.read-your-writes-window-in-milliseconds:1000}") long window,
+                         @Value("${wallet.replica.read-your-writes-max-size:100000}") long maximumSize) {
+        this.enabled = enabled && window > 0;
+        this.recentWrites = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(window))
+                .build();
+    }
+
+    public static ReplicaRouter disabled() {
+        return new ReplicaRouter(false, 0, 0);
+    }
+
+    /**
+     * Whether reads on this thread must go to the primary.
+     */
+    public static boolean isPrimaryForced() {
+        return PRIMARY.get() != null;
+    }
+
+    /**
+     * Must be called once the Wallet was written (committed or not).
+     */
+    public void wrote(@NonNull UUID walletId) {
+        if (enabled) {
+            recentWrites.put(walletId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Runs a read of the Wallet, on the primary if the Wallet was written within the window.
+     */
+    public <T> T read(@NonNull UUID walletId, @NonNull Supplier<T> read) {
+        if (!enabled || recentWrites.getIfPresent(walletId) == null) {
+            return read.get();
+        }
+        return onPrimary(read);
+    }
+
+    /**
+     * Runs the read on the primary, whether the replica routing is enabled or not.
+     */
+    public static <T> T onPrimary(@NonNull Supplier<T> read) {
+        if (isPrimaryForced()) {
+            return read.get();
+        }
+        PRIMARY.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            PRIMARY.remove();
+        }
+    }
+}
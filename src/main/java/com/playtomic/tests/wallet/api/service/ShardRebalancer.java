@@ -0,0 +1,129 @@
+package com.playtomic.tests.wallet.api.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Moves the Wallets stored on a shard that no longer owns them (after a shard was added to wallet.sharding.shards)
+ * to their shard, with all of their rows. Each shard is scanned by Wallet id; a Wallet is copied to its new shard in
+ * one transaction, then deleted from the old one in another, so a run that stops half-way can simply be run again
+ * (a copy left on the new shard by an interrupted run is replaced).
+ *
+ * Wallets that have not been moved yet are not found on their new shard, so this runs before the instances serve
+ * traffic with the new shard list, see RebalanceShards.
+ */
+@Slf4j
+@Component
+public class ShardRebalancer {
+
+    private static final int SCAN_SIZE = 500;
+
+    private static final String SELECT_FIRST_IDS = "SELECT id FROM wallet ORDER BY id LIMIT ?";
+    private static final String SELECT_IDS_AFTER = "SELECT id FROM wallet WHERE id > ? ORDER BY id LIMIT ?";
+    /** rows of a Wallet, copied in this order (and deleted in the reverse one) */
+    private static final List<String> CHILD_TABLES = List.of("wallet_transaction", "top_up", "idempotent_top_up");
+    /** only written in the LEDGER and OUTBOX modes, which are not sharded; dropped with the Wallet */
+    private static final List<String> UNSHARDED_TABLES = List.of("wallet_snapshot", "charge_command");
+    /** generated again by the new shard, in the order the rows are inserted */
+    private static final String SEQUENCE_NUMBER = "sequence_number";
+
+    private final ShardRouter shardRouter;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public ShardRebalancer(ShardRouter shardRouter, JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.shardRouter = shardRouter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Returns how many Wallets were moved.
+     */
+    public int rebalance() {
+        int moved = 0;
+        for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+            moved += rebalance(shard);
+        }
+        return moved;
+    }
+
+    private int rebalance(int source) {
+        int moved = 0;
+        UUID after = null;
+        List<UUID> ids;
+        do {
+            UUID from = after;
+            ids = shardRouter.onShard(source, () -> from == null
+                    ? jdbcTemplate.queryForList(SELECT_FIRST_IDS, UUID.class, SCAN_SIZE)
+                    : jdbcTemplate.queryForList(SELECT_IDS_AFTER, UUID.class, from, SCAN_SIZE));
+            for (UUID id : ids) {
+                int target = shardRouter.shardOf(id);
+                if (target != source) {
+                    move(id, source, target);
+                    moved++;
+                }
+            }
+            if (!ids.isEmpty()) {
+                after = ids.get(ids.size() - 1);
+            }
+        } while (ids.size() == SCAN_SIZE);
+
+        log.info("Moved {} Wallets off shard {}", moved, shardRouter.getName(source));
+        return moved;
+    }
+
+    private void move(UUID walletId, int source, int target) {
+        Map<String, List<Map<String, Object>>> rows = shardRouter.onShard(source, () -> transactionTemplate.execute(status -> {
+            Map<String, List<Map<String, Object>>> byTable = new LinkedHashMap<>();
+            byTable.put("wallet", jdbcTemplate.queryForList("SELECT * FROM wallet WHERE id = ?", walletId));
+            byTable.put("wallet_transaction", jdbcTemplate.queryForList(
+                    "SELECT * FROM wallet_transaction WHERE wallet_id = ? ORDER BY sequence_number", walletId));
+            byTable.put("top_up", jdbcTemplate.queryForList("SELECT * FROM top_up WHERE wallet_id = ?", walletId));
+            byTable.put("idempotent_top_up", jdbcTemplate.queryForList(
+                    "SELECT * FROM idempotent_top_up WHERE wallet_id = ?", walletId));
+            return byTable;
+        }));
+
+        shardRouter.onShard(target, () -> transactionTemplate.executeWithoutResult(status -> {
+            delete(walletId, CHILD_TABLES);
+            rows.forEach(this::insert);
+        }));
+        shardRouter.onShard(source, () -> transactionTemplate.executeWithoutResult(status -> {
+            List<String> tables = new ArrayList<>(CHILD_TABLES);
+            tables.addAll(UNSHARDED_TABLES);
+            delete(walletId, tables);
+        }));
+        log.debug("Moved the Wallet with id={} from shard {} to shard {}",
+                walletId, shardRouter.getName(source), shardRouter.getName(target));
+    }
+
+    private void delete(UUID walletId, List<String> childTables) {
+        for (int i = childTables.size() - 1; i >= 0; i--) {
+            jdbcTemplate.update("DELETE FROM " + childTables.get(i) + " WHERE wallet_id = ?", walletId);
+        }
+        jdbcTemplate.update("DELETE FROM wallet WHERE id = ?", walletId);
+    }
+
+    private void insert(String table, List<Map<String, Object>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<String> columns = rows.get(0).keySet().stream()
+                .filter(column -> !column.equalsIgnoreCase(SEQUENCE_NUMBER))
+                .collect(Collectors.toList());
+        String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        jdbcTemplate.batchUpdate(sql, rows.stream()
+                .map(row -> columns.stream().map(row::get).toArray())
+                .collect(Collectors.toList()));
+    }
+}
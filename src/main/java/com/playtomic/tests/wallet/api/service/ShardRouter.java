@@ -0,0 +1,184 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.config.ShardingProperties;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Maps Wallet ids to shards (wallet.sharding.shards) with consistent hashing: every shard owns virtual-nodes points
+ * of a 64-bit ring, keyed by its name, and a Wallet belongs to the owner of the first point at or after the hash of
+ * its id. Adding a shard only moves the Wallets it takes over (about 1/N of them, see ShardRebalancer).
+ *
+ * The shard is selected per thread: onShardOf(walletId, work) runs work with the Wallet's shard as current shard,
+ * which is what the routing DataSource (ShardRoutingDataSource) hands out connections of. It must be selected
+ * before a transaction starts, as a transaction keeps the connection of the shard it began on. Every row of a
+ * Wallet (TopUps, ledger, idempotency keys) is stored on the Wallet's shard.
+ *
+ * With a single shard (sharding disabled) nothing is selected and the work just runs.
+ */
+@Component
+public class ShardRouter {
+
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final List<String> names;
+    /** ring points, sorted, and the shard owning each of them */
+    private final long[] points;
+    private final int[] owners;
+
+    @Autowired
+    public ShardRouter(ShardingProperties properties,
+                       @Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                       @Value("${wallet.top-up-mode:TWO_PHASE}") TopUpMode topUpMode) {
+        this(properties.isEnabled() ? properties.getShardNames() : List.of("default"), properties.getVirtualNodes());
+        if (names.size() > 1 && (balanceUpdateMode.isInMemory() || topUpMode == TopUpMode.OUTBOX)) {
+            // the in-memory projection and the outbox workers read all Wallets of one database
+            throw new IllegalStateException("Sharding does not support balance-update-mode=" + balanceUpdateMode +
+                    " and top-up-mode=" + topUpMode + ", only ATOMIC or LOAD_AND_SAVE with TWO_PHASE or SINGLE_TRANSACTION");
+        }
+    }
+
+    public ShardRouter(@NonNull List<String> names, int virtualNodes) {
+        if (names.isEmpty() || new HashSet<>(names).size() != names.size()) {
+            throw new IllegalArgumentException("Shard names must be unique and there must be at least one: " + names);
+        }
+        this.names = List.copyOf(names);
+
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < names.size(); shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.putIfAbsent(hash(names.get(shard) + "#" + node), shard);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+    }
+
+    public static ShardRouter single() {
+        return new ShardRouter(List.of("default"), 1);
+    }
+
+    /**
+     * Shard selected on this thread, null when none is.
+     */
+    public static Integer currentShard() {
+        return CURRENT.get();
+    }
+
+    public int getShardCount() {
+        return names.size();
+    }
+
+    public boolean isSharded() {
+        return names.size() > 1;
+    }
+
+    public String getName(int shard) {
+        return names.get(shard);
+    }
+
+    public int shardOf(@NonNull UUID walletId) {
+        if (!isSharded()) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(points, hash(walletId));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public <T> T onShardOf(@NonNull UUID walletId, @NonNull Supplier<T> work) {
+        return onShard(shardOf(walletId), work);
+    }
+
+    public void onShardOf(@NonNull UUID walletId, @NonNull Runnable work) {
+        onShardOf(walletId, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public <T> T onShard(int shard, @NonNull Supplier<T> work) {
+        if (!isSharded()) {
+            return work.get();
+        }
+        Integer previous = CURRENT.get();
+        if (previous != null && previous != shard && TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Can not switch to shard " + names.get(shard) +
+                    " inside a transaction of shard " + names.get(previous));
+        }
+        CURRENT.set(shard);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public void onShard(int shard, @NonNull Runnable work) {
+        onShard(shard, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs work on every shard in turn; returns the result of each shard, by shard.
+     */
+    public <T> List<T> onEachShard(@NonNull Supplier<T> work) {
+        List<T> results = new ArrayList<>(names.size());
+        for (int shard = 0; shard < names.size(); shard++) {
+            results.add(onShard(shard, work));
+        }
+        return results;
+    }
+
+    /**
+     * Splits items by the shard of their Wallet, keeping their order within a shard.
+     */
+    public <T> Map<Integer, List<T>> partition(@NonNull Collection<T> items, @NonNull Function<T, UUID> walletId) {
+        Map<Integer, List<T>> byShard = new TreeMap<>();
+        for (T item : items) {
+            byShard.computeIfAbsent(shardOf(walletId.apply(item)), shard -> new ArrayList<>()).add(item);
+        }
+        return byShard;
+    }
+
+    private static long hash(UUID id) {
+        return mix(mix(id.getMostSignificantBits()) ^ id.getLeastSignificantBits());
+    }
+
+    private static long hash(String point) {
+        // FNV-1a, then mixed
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : point.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /** SplitMix64 finalizer */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
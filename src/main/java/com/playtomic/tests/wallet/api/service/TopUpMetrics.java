@@ -0,0 +1,120 @@
+package com.playtomic.tests.wallet.api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timers of the top-up hot path, to see where its latency goes:
+ * wallet.top-up (whole top-up, tagged api and outcome) and wallet.top-up.phase (tagged api and phase).
+ * Percentile histograms are enabled for both in application.yml (management.metrics.distribution).
+ */
+@Component
+public class TopUpMetrics {
+
+    public enum Phase {
+        /** reads of the Wallet (row or DTO) */
+        WALLET_LOAD("wallet-load"),
+        /** PENDING TopUp insert and its CONFIRMED/FAILED transition */
+        TOP_UP_WRITE("top-up-write"),
+        /** payment provider call, including the wait for a free slot */
+        STRIPE_CALL("stripe-call"),
+        /** balance UPDATE (ATOMIC) or entity save (LOAD_AND_SAVE, flushed at commit) */
+        BALANCE_UPDATE("balance-update"),
+        LEDGER_INSERT("ledger-insert"),
+        /** from the end of the transaction's work to the return of the commit */
+        COMMIT("commit"),
+        /** settlement done as one unit elsewhere: group commit batch or LEDGER append */
+        SETTLE("settle");
+
+        private final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, Map<Phase, Timer>> phases = new ConcurrentHashMap<>();
+
+    public TopUpMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Times a whole top-up; the outcome tag is "success" or the simple name of the exception thrown.
+     */
+    public <T> T record(@NonNull String api, @NonNull Supplier<T> topUp) {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            return topUp.get();
+        } catch (RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder("wallet.top-up")
+                    .description("Top-ups, from the service call to the response")
+                    .tag("api", api)
+                    .tag("outcome", outcome)
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public <T> T time(@NonNull String api, @NonNull Phase phase, @NonNull Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            timer(api, phase).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void time(@NonNull String api, @NonNull Phase phase, @NonNull Runnable work) {
+        time(api, phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs work in a transaction of the given template and times its commit.
+     */
+    public <T> T inTransaction(@NonNull String api, @NonNull TransactionTemplate transactionTemplate,
+                               @NonNull Supplier<T> work) {
+        long[] workDone = new long[1];
+        T result = transactionTemplate.execute(status -> {
+            T value = work.get();
+            workDone[0] = System.nanoTime();
+            return value;
+        });
+        timer(api, Phase.COMMIT).record(System.nanoTime() - workDone[0], TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * Publishes queue depth, active threads and task timings of the executor as executor.* metrics.
+     */
+    public ExecutorService monitor(@NonNull ExecutorService executorService, @NonNull String name) {
+        return ExecutorServiceMetrics.monitor(registry, executorService, name);
+    }
+
+    private Timer timer(String api, Phase phase) {
+        return phases.computeIfAbsent(api, a -> new ConcurrentHashMap<>())
+                .computeIfAbsent(phase, p -> Timer.builder("wallet.top-up.phase")
+                        .description("Phases of the top-ups")
+                        .tag("api", api)
+                        .tag("phase", p.tag)
+                        .register(registry));
+    }
+}
@@ -0,0 +1,26 @@
+package com.playtomic.tests.wallet.api.service;
+
+/**
+ * How the database transaction is laid out around the call to the payment provider.
+ */
+public enum TopUpMode {
+
+    /**
+     * Balance update and payment call in one transaction, rolled back when the payment fails.
+     * The DB connection and the Wallet row lock are held while waiting for the payment provider.
+     */
+    SINGLE_TRANSACTION,
+
+    /**
+     * A short transaction records a PENDING TopUp, the payment provider is called with no connection held,
+     * and a second short transaction applies the balance (CONFIRMED) or marks the TopUp as FAILED.
+     */
+    TWO_PHASE,
+
+    /**
+     * V2 API: one short transaction records the PENDING TopUp and its ChargeCommand (outbox) and the request is
+     * answered 202 right away; a worker pool charges the card and settles the TopUp later (see TopUpOutbox).
+     * V1 and V3 keep working in TWO_PHASE mode.
+     */
+    OUTBOX
+}
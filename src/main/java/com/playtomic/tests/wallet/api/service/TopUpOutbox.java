@@ -0,0 +1,504 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.ChargeCommand;
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.exceptions.TopUpQueueFullException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import com.playtomic.tests.wallet.service.StripeServiceOverloadedException;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transactional outbox of the OUTBOX top-up mode: payment latency becomes queue depth instead of request latency.
+ *
+ * {@link #submit} writes the PENDING TopUp and its ChargeCommand in one short transaction and returns. The command
+ * is then handed to one of the worker lanes (wallet id -> lane, so the top-ups of a Wallet are charged and settled
+ * in the order they were accepted). Each lane drains up to batch-size commands at a time: claims them with one
+ * batched UPDATE, charges the cards through StripeServiceV2 and settles the batch in one transaction (group commit
+ * of the confirmed TopUps, FAILED for the declined ones), deleting each command in the transaction that settles its
+ * TopUp. A card charged whose TopUp can not be settled is parked: its TopUp is marked as UNKNOWN (to reconcile with
+ * the payment provider) and its command deleted in one transaction; until that commits, the command stays in the table.
+ *
+ * The lanes hold at most buffer-capacity commands in memory. When they are full, commands stay only in the table
+ * and everything new goes there too, until the poller has read them back in order (also done at startup, for the
+ * commands left by a previous run). Past max-depth commands not yet settled, submissions are rejected with
+ * TopUpQueueFullException (503). When the gateway is overloaded, a lane keeps its commands and retries them after
+ * retry-backoff. A command read back with attempts > 0 was being charged or settled when the instance stopped (or
+ * its batch failed): as for the PendingTopUpSweeper, the card may have been charged, so the TopUp is marked as
+ * UNKNOWN and logged, not FAILED.
+ */
+@Slf4j
+@Component
+public class TopUpOutbox implements MeterBinder {
+
+    private static final String INSERT_COMMAND =
+            "INSERT INTO charge_command (top_up_id, created_on, wallet_id, amount, credit_card_number, attempts) " +
+            "VALUES (?, ?, ?, ?, ?, 0)";
+    private static final String SELECT_COMMANDS =
+            "SELECT top_up_id, sequence_number, created_on, wallet_id, amount, credit_card_number, attempts " +
+            "FROM charge_command WHERE sequence_number > ? ORDER BY sequence_number LIMIT ?";
+    private static final String COUNT_COMMANDS = "SELECT COUNT(*) FROM charge_command";
+    private static final String CLAIM_COMMAND = "UPDATE charge_command SET attempts = attempts + 1 WHERE top_up_id = ?";
+    private static final String UNCLAIM_COMMAND = "UPDATE charge_command SET attempts = attempts - 1 WHERE top_up_id = ?";
+    private static final String DELETE_COMMAND = "DELETE FROM charge_command WHERE top_up_id = ?";
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxDepth;
+    private final long retryBackoff;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletRepository walletRepository;
+    private final TopUpRepository topUpRepository;
+    private final LedgerGroupCommitter ledgerGroupCommitter;
+    private final BalanceProjection balanceProjection;
+    private final WalletCache walletCache;
+    private final StripeServiceV2 stripeService;
+    private final Lane[] lanes;
+
+    // commands in a lane or being processed, so a command read back is not dispatched twice
+    private final Set<UUID> dispatched = ConcurrentHashMap.newKeySet();
+    // commands accepted and not settled yet, in memory or not
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder readBack = new LongAdder();
+    private final LongAdder settled = new LongAdder();
+    // guarded by this: commands are only in the table until the poller has caught up (the table may hold some at startup)
+    private boolean overflowed = true;
+    private volatile boolean running = true;
+
+    public TopUpOutbox(@Value("${wallet.top-up-mode:TWO_PHASE}") TopUpMode topUpMode,
+                       @Value("${wallet.outbox.workers:8}") int workers,
+                       @Value("${wallet.outbox.batch-size:32}") int batchSize,
+                       @Value("${wallet.outbox.buffer-capacity:1024}") int bufferCapacity,
+                       @Value("${wallet.outbox.max-depth:10000}") int maxDepth,
+                       @Value("${wallet.outbox.retry-backoff-in-milliseconds:100}") long retryBackoff,
+                       PlatformTransactionManager transactionManager,
+                       JdbcTemplate jdbcTemplate,
+                       WalletRepository walletRepository,
+                       TopUpRepository topUpRepository,
+                       LedgerGroupCommitter ledgerGroupCommitter,
+                       BalanceProjection balanceProjection,
+                       WalletCache walletCache,
+                       // lazy: as a MeterBinder this is created with the MeterRegistry, which the bulkhead metrics need
+                       @Lazy StripeServiceV2 stripeService) {
+        this.enabled = topUpMode == TopUpMode.OUTBOX;
+        this.batchSize = batchSize;
+        this.maxDepth = maxDepth;
+        this.retryBackoff = retryBackoff;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.jdbcTemplate = jdbcTemplate;
+        this.walletRepository = walletRepository;
+        this.topUpRepository = topUpRepository;
+        this.ledgerGroupCommitter = ledgerGroupCommitter;
+        this.balanceProjection = balanceProjection;
+        this.walletCache = walletCache;
+        this.stripeService = stripeService;
+        this.lanes = new Lane[workers];
+        for (int i = 0; i < workers; i++) {
+            lanes[i] = new Lane(i, Math.max(1, bufferCapacity / workers));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        depth.set(jdbcTemplate.queryForObject(COUNT_COMMANDS, Integer.class));
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    /**
+     * Records the PENDING TopUp and its charge; the card is charged and the balance applied asynchronously.
+     */
+    public TopUp submit(@NonNull UUID walletId, @NonNull Money amount) {
+        long minorUnits = amount.getMinorUnits();
+        if (depth.incrementAndGet() > maxDepth) {
+            depth.decrementAndGet();
+            rejected.increment();
+            throw new TopUpQueueFullException("Too many top-ups waiting to be charged, try again later");
+        }
+
+        Accepted accepted;
+        try {
+            accepted = transactionTemplate.execute(status -> {
+                WalletDto wallet = walletRepository.findDtoById(walletId).orElseThrow(
+                        () -> new EntityNotFoundException("Entity with id=" + walletId + " is not Found"));
+                TopUp topUp = topUpRepository.save(new TopUp(walletId, amount));
+                ChargeCommand command = new ChargeCommand(topUp, wallet.getCreditCardNumber());
+                command.setCreatedOn(Instant.now());
+                jdbcTemplate.update(INSERT_COMMAND, command.getTopUpId(), Timestamp.from(command.getCreatedOn()),
+                        walletId, minorUnits, command.getCreditCardNumber());
+                return new Accepted(topUp, command);
+            });
+        } catch (RuntimeException e) {
+            depth.decrementAndGet();
+            throw e;
+        }
+
+        synchronized (this) {
+            if (!overflowed && dispatch(accepted.command)) {
+                return accepted.topUp;
+            }
+            overflowed = true;
+        }
+        return accepted.topUp;
+    }
+
+    /**
+     * Reads back the commands that are only in the table, oldest first. Returns true once the lanes hold all of them
+     * again and new commands go straight to the lanes.
+     */
+    @Scheduled(fixedDelayString = "${wallet.outbox.poll-interval-in-milliseconds:1000}")
+    public boolean poll() {
+        if (!enabled) {
+            return false;
+        }
+        if (!isOverflowed()) {
+            return true;
+        }
+        if (!readBackAll()) {
+            return false;
+        }
+        synchronized (this) {
+            // submitters choose between lane and table under this lock: all they committed so far is visible now
+            if (readBackAll()) {
+                overflowed = false;
+                log.info("Outbox caught up, {} top-ups waiting to be charged", depth.get());
+            }
+            return !overflowed;
+        }
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public int getBuffered() {
+        int sum = 0;
+        for (Lane lane : lanes) {
+            sum += lane.queue.size();
+        }
+        return sum;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("wallet.outbox.depth", this, TopUpOutbox::getDepth)
+                .description("Top-ups accepted and not settled yet").register(registry);
+        Gauge.builder("wallet.outbox.buffered", this, TopUpOutbox::getBuffered)
+                .description("Top-ups waiting in the in-memory lanes").register(registry);
+        FunctionCounter.builder("wallet.outbox.rejected", this, TopUpOutbox::getRejected)
+                .description("Top-ups rejected because max-depth was reached").register(registry);
+        FunctionCounter.builder("wallet.outbox.read-back", this, o -> o.readBack.sum())
+                .description("Commands read back from the table into the lanes").register(registry);
+        FunctionCounter.builder("wallet.outbox.settled", this, o -> o.settled.sum())
+                .description("Top-ups settled (CONFIRMED or FAILED) by the workers").register(registry);
+    }
+
+    private synchronized boolean isOverflowed() {
+        return overflowed;
+    }
+
+    private boolean readBackAll() {
+        long after = 0;
+        List<ChargeCommand> page;
+        do {
+            page = jdbcTemplate.query(SELECT_COMMANDS, TopUpOutbox::mapCommand, after, batchSize);
+            for (ChargeCommand command : page) {
+                after = command.getSequenceNumber();
+                if (dispatched.contains(command.getTopUpId())) {
+                    continue;
+                }
+                if (!dispatch(command)) {
+                    // its lane is full: the next poll starts over, so no later command of the Wallet overtakes it
+                    return false;
+                }
+                readBack.increment();
+            }
+        } while (page.size() == batchSize);
+        return true;
+    }
+
+    private boolean dispatch(ChargeCommand command) {
+        if (!dispatched.add(command.getTopUpId())) {
+            return true;
+        }
+        if (lane(command.getWalletId()).queue.offer(command)) {
+            return true;
+        }
+        dispatched.remove(command.getTopUpId());
+        return false;
+    }
+
+    private Lane lane(UUID walletId) {
+        int hash = walletId.hashCode();
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    /**
+     * Charges a batch of one lane, in order. Commands after an overloaded charge are put in retry, not charged.
+     */
+    private void process(List<ChargeCommand> batch, Deque<ChargeCommand> retry) {
+        int[] claimed = transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(CLAIM_COMMAND, batch, batch.size(),
+                (ps, command) -> ps.setObject(1, command.getTopUpId())))[0];
+
+        List<ChargeCommand> charged = new ArrayList<>(batch.size());
+        List<ChargeCommand> declined = new ArrayList<>();
+        List<ChargeCommand> unknown = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            ChargeCommand command = batch.get(i);
+            if (!applied(claimed[i])) {
+                // read back while it was being settled: nothing left to do
+                dispatched.remove(command.getTopUpId());
+            } else if (command.getAttempts() > 0) {
+                unknown.add(command);
+            } else if (!retry.isEmpty()) {
+                retry.add(command);
+            } else {
+                try {
+                    stripeService.charge(command.getCreditCardNumber(), command.getAmount());
+                    charged.add(command);
+                } catch (StripeServiceOverloadedException | BulkheadFullException e) {
+                    retry.add(command);
+                } catch (RuntimeException e) {
+                    log.warn("Charge of TopUp with id={} (Wallet id={}, amount={}) failed",
+                            command.getTopUpId(), command.getWalletId(), command.getAmount(), e);
+                    declined.add(command);
+                }
+            }
+        }
+
+        if (!retry.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UNCLAIM_COMMAND, retry, retry.size(),
+                    (ps, command) -> ps.setObject(1, command.getTopUpId())));
+        }
+        settle(charged);
+        fail(declined, unknown);
+    }
+
+    private void settle(List<ChargeCommand> charged) {
+        if (charged.isEmpty()) {
+            return;
+        }
+
+        if (balanceProjection.isEnabled()) {
+            // appends to one Wallet are serialized by the projection, and the lane keeps their order
+            for (ChargeCommand command : charged) {
+                try {
+                    balanceProjection.append(command.getWalletId(), LedgerEntryType.TOP_UP, command.getAmount(), () -> {
+                        confirm(command.toTopUp());
+                        delete(Collections.singletonList(command));
+                    });
+                } catch (StripeServiceException | EntityNotFoundException e) {
+                    // the TopUp is no longer PENDING or the Wallet is gone
+                    park(command, e);
+                }
+            }
+        } else {
+            List<TopUp> topUps = new ArrayList<>(charged.size());
+            charged.forEach(command -> topUps.add(command.toTopUp()));
+            List<CompletableFuture<WalletDto>> results = ledgerGroupCommitter.settleAll(topUps,
+                    confirmed -> jdbcTemplate.batchUpdate(DELETE_COMMAND, confirmed, confirmed.size(),
+                            (ps, topUp) -> ps.setObject(1, topUp.getId())));
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).join();
+                } catch (CompletionException e) {
+                    park(charged.get(i), e.getCause());
+                }
+            }
+        }
+
+        charged.forEach(command -> walletCache.invalidate(command.getWalletId()));
+        done(charged);
+    }
+
+    /**
+     * Charged, but not settled: marks the TopUp as UNKNOWN and deletes its command in one transaction, so that the
+     * charge stays recorded until it is reconciled. If that fails too, the command is read back later.
+     */
+    private void park(ChargeCommand command, Throwable cause) {
+        transactionTemplate.executeWithoutResult(status -> {
+            int parked = topUpRepository.transition(command.getTopUpId(), TopUpStatus.PENDING, TopUpStatus.UNKNOWN);
+            log.error("TopUp with id={} is charged but could not be settled, amount={} is NOT applied to the Wallet " +
+                            "with id={}; {}", command.getTopUpId(), command.getAmount(), command.getWalletId(),
+                    parked == 1 ? "marked as UNKNOWN to be reconciled" : "it is no longer PENDING", cause);
+            delete(Collections.singletonList(command));
+        });
+    }
+
+    private void fail(List<ChargeCommand> declined, List<ChargeCommand> unknown) {
+        if (declined.isEmpty() && unknown.isEmpty()) {
+            return;
+        }
+        List<UUID> ids = new ArrayList<>(declined.size());
+        declined.forEach(command -> ids.add(command.getTopUpId()));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!ids.isEmpty()) {
+                topUpRepository.transitionAll(ids, TopUpStatus.PENDING, TopUpStatus.FAILED);
+            }
+            for (ChargeCommand command : unknown) {
+                if (topUpRepository.transition(command.getTopUpId(), TopUpStatus.PENDING, TopUpStatus.UNKNOWN) == 1) {
+                    log.warn("TopUp with id={} (Wallet id={}, amount={}) was being charged when the outbox stopped, " +
+                                    "marked as UNKNOWN: reconcile it with the payment provider",
+                            command.getTopUpId(), command.getWalletId(), command.getAmount());
+                }
+            }
+            delete(declined);
+            delete(unknown);
+        });
+
+        done(declined);
+        done(unknown);
+    }
+
+    private void confirm(TopUp topUp) {
+        if (topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, TopUpStatus.CONFIRMED) == 0) {
+            log.error("TopUp with id={} is no longer PENDING, charged amount={} is NOT applied to the Wallet with id={}",
+                    topUp.getId(), topUp.getAmount(), topUp.getWalletId());
+            throw new StripeServiceException();
+        }
+    }
+
+    private void delete(List<ChargeCommand> commands) {
+        if (!commands.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_COMMAND, commands, commands.size(),
+                    (ps, command) -> ps.setObject(1, command.getTopUpId()));
+        }
+    }
+
+    private void done(List<ChargeCommand> commands) {
+        commands.forEach(command -> dispatched.remove(command.getTopUpId()));
+        depth.addAndGet(-commands.size());
+        settled.add(commands.size());
+    }
+
+    private static boolean applied(int count) {
+        return count > 0 || count == Statement.SUCCESS_NO_INFO;
+    }
+
+    private static ChargeCommand mapCommand(ResultSet rs, int rowNum) throws SQLException {
+        ChargeCommand command = new ChargeCommand();
+        command.setTopUpId(rs.getObject("top_up_id", UUID.class));
+        command.setSequenceNumber(rs.getLong("sequence_number"));
+        command.setCreatedOn(rs.getTimestamp("created_on").toInstant());
+        command.setWalletId(rs.getObject("wallet_id", UUID.class));
+        command.setAmount(Money.ofMinorUnits(rs.getLong("amount")));
+        command.setCreditCardNumber(rs.getString("credit_card_number"));
+        command.setAttempts(rs.getInt("attempts"));
+        return command;
+    }
+
+    private final class Lane implements Runnable {
+        private final BlockingQueue<ChargeCommand> queue;
+        // claimed but not charged because the gateway was overloaded; processed again before the queue
+        private final Deque<ChargeCommand> retry = new ArrayDeque<>();
+        private final Thread thread;
+
+        private Lane(int index, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "top-up-outbox-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<ChargeCommand> batch = new ArrayList<>(batchSize);
+            while (running) {
+                try {
+                    if (retry.isEmpty()) {
+                        batch.add(queue.take());
+                    } else {
+                        Thread.sleep(retryBackoff);
+                        batch.addAll(retry);
+                        retry.clear();
+                    }
+                    queue.drainTo(batch, batchSize - batch.size());
+                    process(batch, retry);
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+
+                } catch (RuntimeException e) {
+                    // left in the table: read back by the poller
+                    log.error("Outbox batch of {} top-ups failed, reading them back from the outbox", batch.size(), e);
+                    batch.forEach(command -> dispatched.remove(command.getTopUpId()));
+                    retry.forEach(command -> dispatched.remove(command.getTopUpId()));
+                    retry.clear();
+                    synchronized (TopUpOutbox.this) {
+                        overflowed = true;
+                    }
+
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    @lombok.Value
+    private static class Accepted {
+        TopUp topUp;
+        ChargeCommand command;
+    }
+}
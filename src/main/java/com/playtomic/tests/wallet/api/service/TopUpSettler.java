@@ -0,0 +1,136 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics.Phase;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+/**
+ * Applies a top-up to the Wallet in the configured balance update mode, for every API version: the settle step of a
+ * charged two-phase top-up, and the balance update of a single-transaction one. The api tags the phase timings.
+ */
+@Slf4j
+@Component
+public class TopUpSettler {
+
+    private final BalanceUpdateMode balanceUpdateMode;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletLockStripes walletLockStripes;
+    private final LedgerGroupCommitter ledgerGroupCommitter;
+    private final BalanceProjection balanceProjection;
+    private final TopUpMetrics metrics;
+    private final WalletRepository walletRepository;
+    private final WalletTransactionRepository walletTransactionRepository;
+    private final TopUpRepository topUpRepository;
+
+    public TopUpSettler(@Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                        PlatformTransactionManager transactionManager,
+                        WalletLockStripes walletLockStripes,
+                        LedgerGroupCommitter ledgerGroupCommitter,
+                        BalanceProjection balanceProjection,
+                        TopUpMetrics topUpMetrics,
+                        WalletRepository walletRepository,
+                        WalletTransactionRepository walletTransactionRepository,
+                        TopUpRepository topUpRepository) {
+        this.balanceUpdateMode = balanceUpdateMode;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.walletLockStripes = walletLockStripes;
+        this.ledgerGroupCommitter = ledgerGroupCommitter;
+        this.balanceProjection = balanceProjection;
+        this.metrics = topUpMetrics;
+        this.walletRepository = walletRepository;
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.topUpRepository = topUpRepository;
+    }
+
+    /**
+     * Settle step of a charged two-phase top-up: confirms the PENDING TopUp and applies its amount, in a transaction
+     * of its own (or the batch of the group commit).
+     */
+    public WalletDto settle(@NonNull String api, @NonNull TopUp topUp) {
+        UUID id = topUp.getWalletId();
+        if (balanceUpdateMode.isInMemory()) {
+            return metrics.time(api, Phase.SETTLE, () -> walletLockStripes.withLock(id,
+                    () -> balanceProjection.append(id, LedgerEntryType.TOP_UP, topUp.getAmount(), () -> confirm(topUp))));
+        }
+
+        // NOT under the stripe lock: the writer thread applies the batch in order, holding the stripe while waiting
+        // for it would make every other write to that stripe wait for a whole batch
+        if (ledgerGroupCommitter.isEnabled() && balanceUpdateMode == BalanceUpdateMode.ATOMIC) {
+            return metrics.time(api, Phase.SETTLE, () -> ledgerGroupCommitter.settle(topUp));
+        }
+        return walletLockStripes.withLock(id, () -> metrics.inTransaction(api, transactionTemplate, () -> {
+            metrics.time(api, Phase.TOP_UP_WRITE, () -> confirm(topUp));
+            return add(api, id, topUp.getAmount());
+        }));
+    }
+
+    /**
+     * Adds the amount to the Wallet's balance and records it in the ledger, in the caller's transaction
+     * (not for the in-memory balance update modes). The result carries the Wallet's credit card number.
+     */
+    public WalletDto add(@NonNull String api, @NonNull UUID id, @NonNull Money amount) {
+        return balanceUpdateMode == BalanceUpdateMode.ATOMIC
+                ? addAtomically(api, id, amount)
+                : add(api, metrics.time(api, Phase.WALLET_LOAD, () -> getWalletById(id)), amount);
+    }
+
+    public void confirm(@NonNull TopUp topUp) {
+        if (topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, TopUpStatus.CONFIRMED) == 0) {
+            log.error("TopUp with id={} is no longer PENDING, charged amount={} is NOT applied to the Wallet with id={}",
+                    topUp.getId(), topUp.getAmount(), topUp.getWalletId());
+            throw new StripeServiceException();
+        }
+    }
+
+    private WalletDto addAtomically(String api, UUID id, Money amount) {
+        long minorUnits = amount.getMinorUnits();
+        if (metrics.time(api, Phase.BALANCE_UPDATE, () -> walletRepository.addToBalance(id, minorUnits)) == 0) {
+            throw new EntityNotFoundException("Entity with id=" + id + " is not Found");
+        }
+        metrics.time(api, Phase.LEDGER_INSERT, () -> walletRepository.insertTransaction(TimeOrderedUuidGenerator.next(), id, minorUnits));
+
+        return metrics.time(api, Phase.WALLET_LOAD, () -> walletRepository.findDtoById(id)).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+    }
+
+    private WalletDto add(String api, Wallet wallet, Money amount) {
+        Money oldBalance = wallet.getBalance();
+        Money newBalance = oldBalance.plus(amount);
+
+        WalletTransaction transaction = new WalletTransaction(LedgerEntryType.TOP_UP, amount, oldBalance, newBalance);
+        transaction.setWallet(wallet);
+
+        wallet.setBalance(newBalance);
+
+        Wallet savedWallet = metrics.time(api, Phase.BALANCE_UPDATE, () -> walletRepository.save(wallet));
+        metrics.time(api, Phase.LEDGER_INSERT, () -> walletTransactionRepository.save(transaction));
+        // the card charged is the one of the Wallet as loaded
+        return new WalletDto(savedWallet.getId(), savedWallet.getBalance(), wallet.getCreditCardNumber());
+    }
+
+    private Wallet getWalletById(UUID id) {
+        return walletRepository.findById(id).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+    }
+}
@@ -0,0 +1,142 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.request.WalletCursor;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.WalletTransactionDto;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Read side of the ledger: the WalletTransactions of one Wallet, ordered by (created_on, id) and served by
+ * idx_wallet_transaction_wallet_created_on. Plain JDBC, so no entity is ever attached to a persistence context.
+ */
+@Slf4j
+@Service
+public class TransactionHistoryService {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String SELECT_COLUMNS = "SELECT id, created_on, old_balance, new_balance FROM wallet_transaction ";
+    private static final String SELECT_FIRST_PAGE = SELECT_COLUMNS +
+            "WHERE wallet_id = ? ORDER BY created_on, id LIMIT ?";
+    private static final String SELECT_PAGE_AFTER = SELECT_COLUMNS +
+            "WHERE wallet_id = ? AND (created_on > ? OR (created_on = ? AND id > ?)) ORDER BY created_on, id LIMIT ?";
+    private static final String SELECT_ALL = SELECT_COLUMNS +
+            "WHERE wallet_id = ? ORDER BY created_on, id";
+
+    private static final RowMapper<WalletTransactionDto> ROW_MAPPER = (rs, rowNum) -> new WalletTransactionDto(
+            rs.getObject("id", UUID.class),
+            rs.getTimestamp("created_on").toInstant(),
+            Money.ofMinorUnits(rs.getLong("old_balance")),
+            Money.ofMinorUnits(rs.getLong("new_balance")));
+
+    private final int fetchSize;
+    private final WalletRepository walletRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ShardRouter shardRouter;
+
+    public TransactionHistoryService(@Value("${wallet.history.fetch-size:500}") int fetchSize,
+                                     WalletRepository walletRepository,
+                                     JdbcTemplate jdbcTemplate,
+                                     ObjectMapper objectMapper,
+                                     PlatformTransactionManager transactionManager,
+                                     ShardRouter shardRouter) {
+        this.fetchSize = fetchSize;
+        this.walletRepository = walletRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * Keyset page of the history; pass the nextCursor of a page to get the following one.
+     */
+    public CursorPage<WalletTransactionDto> getPage(@NonNull UUID walletId, String cursor, int size) {
+        return shardRouter.onShardOf(walletId, () -> getPageOnShard(walletId, cursor, size));
+    }
+
+    private CursorPage<WalletTransactionDto> getPageOnShard(UUID walletId, String cursor, int size) {
+        assertWalletExists(walletId);
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+        // one extra row tells whether there is a next page, without a count query
+        List<WalletTransactionDto> transactions;
+        if (cursor == null || cursor.isEmpty()) {
+            transactions = jdbcTemplate.query(SELECT_FIRST_PAGE, ROW_MAPPER, walletId, limit + 1);
+        } else {
+            WalletCursor after = WalletCursor.decode(cursor);
+            Timestamp createdOn = Timestamp.from(after.getCreatedOn());
+            transactions = jdbcTemplate.query(SELECT_PAGE_AFTER, ROW_MAPPER, walletId, createdOn, createdOn, after.getId(), limit + 1);
+        }
+
+        boolean hasNext = transactions.size() > limit;
+        List<WalletTransactionDto> content = hasNext ? transactions.subList(0, limit) : transactions;
+        String nextCursor = null;
+        if (hasNext) {
+            WalletTransactionDto last = content.get(content.size() - 1);
+            nextCursor = new WalletCursor(last.getCreatedOn(), last.getId()).encode();
+        }
+        return new CursorPage<>(content, nextCursor);
+    }
+
+    /**
+     * Export of the whole history as NDJSON (one WalletTransactionDto per line). The Wallet is checked now, the rows
+     * are read when the returned writer runs: from a forward-only, read-only cursor fetched fetch-size rows at a
+     * time and written as they are read, so memory does not grow with the size of the history.
+     */
+    public Consumer<OutputStream> export(@NonNull UUID walletId) {
+        shardRouter.onShardOf(walletId, () -> assertWalletExists(walletId));
+        // written later, on the thread of the response
+        return out -> shardRouter.onShardOf(walletId, () -> {
+            // some drivers (PostgreSQL) only honour the fetch size outside auto-commit
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(SELECT_ALL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setObject(1, walletId);
+                return statement;
+            }, rs -> {
+                writeLine(out, ROW_MAPPER.mapRow(rs, rs.getRow()));
+            }));
+        });
+    }
+
+    private void writeLine(OutputStream out, WalletTransactionDto transaction) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(transaction));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void assertWalletExists(UUID walletId) {
+        if (!walletRepository.existsById(walletId)) {
+            throw new EntityNotFoundException("Entity with id=" + walletId + " is not Found");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.service.WalletBulkFile.EntryRecord;
+import com.playtomic.tests.wallet.api.service.WalletBulkFile.WalletRecord;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Bulk export of all Wallets and their ledger into a WalletBulkFile, which WalletBulkLoader imports again.
+ *
+ * Each shard is read in one read-only, repeatable read transaction (from the replica when there is one), with two
+ * forward-only cursors fetched fetch-size rows at a time: the Wallets by id and the ledger entries by Wallet id and
+ * sequence number, merged as they are read. Both are index scans, nothing is sorted and memory does not grow with
+ * the number of rows. The file is written through a FileChannel and forced at the end; progress is logged every
+ * progress-interval records.
+ */
+@Slf4j
+@Component
+public class WalletBulkExporter {
+
+    private static final String SELECT_WALLETS =
+            "SELECT id, created_on, updated_on, currency, balance, credit_card_number FROM wallet ORDER BY id";
+    private static final String SELECT_ENTRIES =
+            "SELECT id, wallet_id, created_on, type, amount, old_balance, new_balance FROM wallet_transaction " +
+            "ORDER BY wallet_id, sequence_number";
+
+    private final int fetchSize;
+    private final int bufferSize;
+    private final long progressInterval;
+    private final ShardRouter shardRouter;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate snapshotTransaction;
+
+    public WalletBulkExporter(@Value("${wallet.bulk.fetch-size:1000}") int fetchSize,
+                              @Value("${wallet.bulk.buffer-size-in-kilobytes:1024}") int bufferSize,
+                              @Value("${wallet.bulk.progress-interval:100000}") long progressInterval,
+                              ShardRouter shardRouter,
+                              JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager) {
+        this.fetchSize = fetchSize;
+        this.bufferSize = Math.multiplyExact(bufferSize, 1024);
+        this.progressInterval = progressInterval;
+        this.shardRouter = shardRouter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        // the two cursors see the same rows: no entry without the balance that includes it
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Writes every Wallet and ledger entry to the file, replacing it.
+     */
+    public BulkTransferResult export(@NonNull Path file, @NonNull BulkFormat format) {
+        log.info("Exporting Wallets to {} ({})", file.toAbsolutePath(), format);
+        Export export = new Export(file.toString());
+        try (WalletBulkFile.Writer writer = WalletBulkFile.writer(file, format, bufferSize)) {
+            for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+                shardRouter.onShard(shard, () -> snapshotTransaction.executeWithoutResult(status ->
+                        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                            export(connection, writer, export);
+                            return null;
+                        })));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not write " + file, e);
+        }
+
+        BulkTransferResult result = export.result();
+        log.info("Exported {} Wallets and {} ledger entries to {} in {} ({} records/s)",
+                result.getWallets(), result.getEntries(), file, result.getElapsed(), result.getRate());
+        return result;
+    }
+
+    private void export(Connection connection, WalletBulkFile.Writer writer, Export export) throws SQLException {
+        try (PreparedStatement walletStatement = cursor(connection, SELECT_WALLETS);
+             PreparedStatement entryStatement = cursor(connection, SELECT_ENTRIES);
+             ResultSet wallets = walletStatement.executeQuery();
+             ResultSet entries = entryStatement.executeQuery()) {
+            // both are ordered by Wallet id, so the entries of a Wallet are next in their cursor when it is read
+            boolean hasEntry = entries.next();
+            while (wallets.next()) {
+                UUID walletId = wallets.getObject("id", UUID.class);
+                export.write(writer, new WalletRecord(walletId,
+                        wallets.getTimestamp("created_on").toInstant(),
+                        instant(wallets.getTimestamp("updated_on")),
+                        wallets.getString("currency"),
+                        wallets.getLong("balance"),
+                        wallets.getString("credit_card_number")));
+                while (hasEntry && Objects.equals(walletId, entries.getObject("wallet_id", UUID.class))) {
+                    String type = entries.getString("type");
+                    long amount = entries.getLong("amount");
+                    boolean typed = type != null && !entries.wasNull();
+                    export.write(writer, new EntryRecord(entries.getObject("id", UUID.class), walletId,
+                            entries.getTimestamp("created_on").toInstant(),
+                            typed ? LedgerEntryType.valueOf(type) : null,
+                            typed ? amount : null,
+                            entries.getLong("old_balance"),
+                            entries.getLong("new_balance")));
+                    hasEntry = entries.next();
+                }
+            }
+        }
+    }
+
+    private PreparedStatement cursor(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statement.setFetchSize(fetchSize);
+        return statement;
+    }
+
+    private static Instant instant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+    /**
+     * Records written so far.
+     */
+    private final class Export {
+
+        private final String target;
+        private final long start = System.nanoTime();
+        private long wallets;
+        private long entries;
+
+        private Export(String target) {
+            this.target = target;
+        }
+
+        private void write(WalletBulkFile.Writer writer, WalletBulkFile.Record record) {
+            try {
+                writer.write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can not write " + target, e);
+            }
+            if (record instanceof WalletRecord) {
+                wallets++;
+            } else {
+                entries++;
+            }
+            if (progressInterval > 0 && (wallets + entries) % progressInterval == 0) {
+                BulkTransferResult result = result();
+                log.info("Exported {} Wallets and {} ledger entries to {} so far ({} records/s)",
+                        result.getWallets(), result.getEntries(), target, result.getRate());
+            }
+        }
+
+        private BulkTransferResult result() {
+            return new BulkTransferResult(wallets, entries, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
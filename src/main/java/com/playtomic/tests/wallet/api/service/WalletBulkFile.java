@@ -0,0 +1,484 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import lombok.NonNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Files of the bulk import and export of Wallets (WalletBulkLoader, WalletBulkExporter): the record of a Wallet,
+ * followed by the records of its ledger entries in ledger order. Read and written through a FileChannel and a
+ * buffer of buffer-size bytes.
+ *
+ * CSV: one record per line, UTF-8, lines starting with # are comments (the writer starts with the columns):
+ *
+ *   W,id,created_on,updated_on,currency,balance,credit_card_number
+ *   T,id,wallet_id,created_on,type,amount,old_balance,new_balance
+ *
+ * Timestamps are ISO-8601 and amounts decimals; an empty field is null (updated_on, credit_card_number, and type
+ * and amount of the entries written before the ledger was typed). A field with a comma or a quote is quoted, with
+ * its quotes doubled.
+ *
+ * BINARY: the magic number WLT1, then records starting with their kind ('W' or 'T'), with the same fields: ids as
+ * two longs, timestamps as epoch seconds (long, Long.MIN_VALUE for null) and nanoseconds (int), the currency as 3
+ * ASCII bytes, amounts as longs of minor units, the type as its ordinal + 1 (0 for none) and the credit card number
+ * as a short length (-1 for null) and its UTF-8 bytes.
+ */
+final class WalletBulkFile {
+
+    static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x574c5431;
+    private static final byte WALLET = 'W';
+    private static final byte ENTRY = 'T';
+    private static final int MAX_CREDIT_CARD_NUMBER_BYTES = 1024;
+    private static final int TIMESTAMP_SIZE = 8 + 4;
+    private static final int WALLET_SIZE = 16 + 2 * TIMESTAMP_SIZE + 3 + 8 + 2;
+    private static final int ENTRY_SIZE = 2 * 16 + TIMESTAMP_SIZE + 1 + 3 * 8;
+    private static final String CSV_HEADER =
+            "# W,id,created_on,updated_on,currency,balance,credit_card_number\n" +
+            "# T,id,wallet_id,created_on,type,amount,old_balance,new_balance\n";
+
+    private WalletBulkFile() {
+    }
+
+    static Reader reader(@NonNull Path file, @NonNull BulkFormat format, int bufferSize) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return format == BulkFormat.CSV ? new CsvReader(channel, bufferSize) : new BinaryReader(channel, bufferSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the file, or empties it.
+     */
+    static Writer writer(@NonNull Path file, @NonNull BulkFormat format, int bufferSize) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            return format == BulkFormat.CSV ? new CsvWriter(channel, bufferSize) : new BinaryWriter(channel, bufferSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    interface Record {
+    }
+
+    @lombok.Value
+    static class WalletRecord implements Record {
+        UUID id;
+        Instant createdOn;
+        Instant updatedOn;
+        String currency;
+        /** minor units */
+        long balance;
+        String creditCardNumber;
+    }
+
+    @lombok.Value
+    static class EntryRecord implements Record {
+        UUID id;
+        UUID walletId;
+        Instant createdOn;
+        /** null, like amount, for the entries written before the ledger was typed */
+        LedgerEntryType type;
+        /** minor units */
+        Long amount;
+        long oldBalance;
+        long newBalance;
+    }
+
+    interface Reader extends Closeable {
+
+        /**
+         * Next record, null at the end of the file; a malformed one is an IllegalArgumentException.
+         */
+        Record next() throws IOException;
+    }
+
+    interface Writer extends Closeable {
+
+        void write(Record record) throws IOException;
+    }
+
+    private static final class CsvReader implements Reader {
+
+        private final BufferedReader in;
+        private long line;
+
+        private CsvReader(FileChannel channel, int bufferSize) {
+            this.in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8), bufferSize);
+        }
+
+        @Override
+        public Record next() throws IOException {
+            String text;
+            do {
+                text = in.readLine();
+                if (text == null) {
+                    return null;
+                }
+                line++;
+            } while (text.isEmpty() || text.startsWith("#"));
+
+            try {
+                List<String> fields = split(text);
+                switch (fields.get(0)) {
+                    case "W":
+                        expectFields(fields, 7);
+                        return new WalletRecord(UUID.fromString(fields.get(1)), instant(fields.get(2)),
+                                instant(fields.get(3)), fields.get(4), minorUnits(fields.get(5)), nullable(fields.get(6)));
+                    case "T":
+                        expectFields(fields, 8);
+                        String amount = fields.get(5);
+                        return new EntryRecord(UUID.fromString(fields.get(1)), UUID.fromString(fields.get(2)),
+                                instant(fields.get(3)), fields.get(4).isEmpty() ? null : LedgerEntryType.valueOf(fields.get(4)),
+                                amount.isEmpty() ? null : minorUnits(amount), minorUnits(fields.get(6)), minorUnits(fields.get(7)));
+                    default:
+                        throw new IllegalArgumentException("unknown record kind " + fields.get(0));
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed line " + line + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static List<String> split(String line) {
+            List<String> fields = new ArrayList<>(8);
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) {
+                throw new IllegalArgumentException("unterminated quote");
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+
+        private static void expectFields(List<String> fields, int count) {
+            if (fields.size() != count) {
+                throw new IllegalArgumentException(count + " fields expected, found " + fields.size());
+            }
+        }
+
+        private static Instant instant(String field) {
+            return field.isEmpty() ? null : Instant.parse(field);
+        }
+
+        private static long minorUnits(String field) {
+            return Money.toMinorUnits(new BigDecimal(field));
+        }
+
+        private static String nullable(String field) {
+            return field.isEmpty() ? null : field;
+        }
+    }
+
+    private static final class BinaryReader implements Reader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long record;
+
+        private BinaryReader(FileChannel channel, int bufferSize) throws IOException {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+            this.buffer.flip();
+            if (!fill(4) || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary Wallet file");
+            }
+        }
+
+        @Override
+        public Record next() throws IOException {
+            if (!fill(1)) {
+                return null;
+            }
+            record++;
+            byte kind = buffer.get();
+            if (kind == WALLET) {
+                require(WALLET_SIZE);
+                UUID id = uuid();
+                Instant createdOn = instant();
+                Instant updatedOn = instant();
+                byte[] currency = new byte[3];
+                buffer.get(currency);
+                long balance = buffer.getLong();
+                short cardLength = buffer.getShort();
+                String creditCardNumber = null;
+                if (cardLength >= 0) {
+                    require(cardLength);
+                    byte[] card = new byte[cardLength];
+                    buffer.get(card);
+                    creditCardNumber = new String(card, StandardCharsets.UTF_8);
+                }
+                return new WalletRecord(id, createdOn, updatedOn, new String(currency, StandardCharsets.US_ASCII),
+                        balance, creditCardNumber);
+            }
+            if (kind == ENTRY) {
+                require(ENTRY_SIZE);
+                UUID id = uuid();
+                UUID walletId = uuid();
+                Instant createdOn = instant();
+                byte type = buffer.get();
+                long amount = buffer.getLong();
+                long oldBalance = buffer.getLong();
+                long newBalance = buffer.getLong();
+                if (type < 0 || type > LedgerEntryType.values().length) {
+                    throw new IllegalArgumentException("Malformed record " + record + ": unknown entry type " + type);
+                }
+                return type == 0
+                        ? new EntryRecord(id, walletId, createdOn, null, null, oldBalance, newBalance)
+                        : new EntryRecord(id, walletId, createdOn, LedgerEntryType.values()[type - 1], amount, oldBalance, newBalance);
+            }
+            throw new IllegalArgumentException("Malformed record " + record + ": unknown record kind " + kind);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void require(int size) throws IOException {
+            if (!fill(size)) {
+                throw new IllegalArgumentException("Malformed record " + record + ": the file ends in the middle of it");
+            }
+        }
+
+        /**
+         * Reads until size bytes are buffered; false at the end of the file.
+         */
+        private boolean fill(int size) throws IOException {
+            if (buffer.remaining() >= size) {
+                return true;
+            }
+            buffer.compact();
+            try {
+                while (buffer.position() < size) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+            }
+        }
+
+        private UUID uuid() {
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+
+        private Instant instant() {
+            long seconds = buffer.getLong();
+            int nanos = buffer.getInt();
+            return seconds == Long.MIN_VALUE ? null : Instant.ofEpochSecond(seconds, nanos);
+        }
+    }
+
+    /**
+     * Output of the writers: a buffer written to the channel when full, then forced at close.
+     */
+    private abstract static class ChannelWriter implements Writer {
+
+        private final FileChannel channel;
+        final ByteBuffer buffer;
+
+        private ChannelWriter(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+        }
+
+        /**
+         * Makes room for size bytes in the buffer.
+         */
+        void reserve(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        static byte[] creditCardNumber(UUID walletId, String creditCardNumber) {
+            if (creditCardNumber == null) {
+                return null;
+            }
+            byte[] card = creditCardNumber.getBytes(StandardCharsets.UTF_8);
+            if (card.length > MAX_CREDIT_CARD_NUMBER_BYTES) {
+                throw new IllegalArgumentException("Credit card number of the Wallet with id=" + walletId + " is too long");
+            }
+            return card;
+        }
+    }
+
+    private static final class CsvWriter extends ChannelWriter {
+
+        private final StringBuilder line = new StringBuilder(256);
+
+        private CsvWriter(FileChannel channel, int bufferSize) throws IOException {
+            super(channel, bufferSize);
+            put(CSV_HEADER);
+        }
+
+        @Override
+        public void write(Record record) throws IOException {
+            line.setLength(0);
+            if (record instanceof WalletRecord) {
+                WalletRecord wallet = (WalletRecord) record;
+                creditCardNumber(wallet.getId(), wallet.getCreditCardNumber());
+                line.append("W,").append(wallet.getId())
+                        .append(',').append(wallet.getCreatedOn())
+                        .append(',').append(nullable(wallet.getUpdatedOn()))
+                        .append(',').append(wallet.getCurrency())
+                        .append(',').append(Money.toDecimal(wallet.getBalance()).toPlainString())
+                        .append(',').append(quote(wallet.getId(), wallet.getCreditCardNumber()));
+            } else {
+                EntryRecord entry = (EntryRecord) record;
+                line.append("T,").append(entry.getId())
+                        .append(',').append(entry.getWalletId())
+                        .append(',').append(entry.getCreatedOn())
+                        .append(',').append(nullable(entry.getType()))
+                        .append(',').append(entry.getAmount() == null ? "" : Money.toDecimal(entry.getAmount()).toPlainString())
+                        .append(',').append(Money.toDecimal(entry.getOldBalance()).toPlainString())
+                        .append(',').append(Money.toDecimal(entry.getNewBalance()).toPlainString());
+            }
+            put(line.append('\n').toString());
+        }
+
+        private void put(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private static String nullable(Object value) {
+            return value == null ? "" : value.toString();
+        }
+
+        private static String quote(UUID walletId, String field) {
+            if (field == null) {
+                return "";
+            }
+            if (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("Credit card number of the Wallet with id=" + walletId + " has a line break");
+            }
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0) {
+                return '"' + field.replace("\"", "\"\"") + '"';
+            }
+            return field;
+        }
+    }
+
+    private static final class BinaryWriter extends ChannelWriter {
+
+        private BinaryWriter(FileChannel channel, int bufferSize) {
+            super(channel, bufferSize);
+            buffer.putInt(MAGIC);
+        }
+
+        @Override
+        public void write(Record record) throws IOException {
+            if (record instanceof WalletRecord) {
+                WalletRecord wallet = (WalletRecord) record;
+                byte[] card = creditCardNumber(wallet.getId(), wallet.getCreditCardNumber());
+                byte[] currency = wallet.getCurrency().getBytes(StandardCharsets.US_ASCII);
+                if (currency.length != 3) {
+                    throw new IllegalArgumentException("Currency of the Wallet with id=" + wallet.getId() + " is not an ISO 4217 code");
+                }
+                reserve(1 + WALLET_SIZE + (card == null ? 0 : card.length));
+                buffer.put(WALLET);
+                putUuid(wallet.getId());
+                putInstant(wallet.getCreatedOn());
+                putInstant(wallet.getUpdatedOn());
+                buffer.put(currency)
+                        .putLong(wallet.getBalance())
+                        .putShort((short) (card == null ? -1 : card.length));
+                if (card != null) {
+                    buffer.put(card);
+                }
+            } else {
+                EntryRecord entry = (EntryRecord) record;
+                reserve(1 + ENTRY_SIZE);
+                buffer.put(ENTRY);
+                putUuid(entry.getId());
+                putUuid(entry.getWalletId());
+                putInstant(entry.getCreatedOn());
+                buffer.put((byte) (entry.getType() == null ? 0 : entry.getType().ordinal() + 1))
+                        .putLong(entry.getAmount() == null ? 0 : entry.getAmount())
+                        .putLong(entry.getOldBalance())
+                        .putLong(entry.getNewBalance());
+            }
+        }
+
+        private void putUuid(UUID id) {
+            buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+        }
+
+        private void putInstant(Instant instant) {
+            if (instant == null) {
+                buffer.putLong(Long.MIN_VALUE).putInt(0);
+            } else {
+                buffer.putLong(instant.getEpochSecond()).putInt(instant.getNano());
+            }
+        }
+    }
+}
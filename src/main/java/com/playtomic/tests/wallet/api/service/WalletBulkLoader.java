@@ -0,0 +1,380 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.service.WalletBulkFile.EntryRecord;
+import com.playtomic.tests.wallet.api.service.WalletBulkFile.Record;
+import com.playtomic.tests.wallet.api.service.WalletBulkFile.WalletRecord;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk import of Wallets and their ledger (WalletBulkFile), for migrations of millions of Wallets and to seed
+ * large synthetic datasets. Nothing goes through JPA:
+ *
+ * - the file is read through a FileChannel, in chunks of chunk-size records;
+ * - each chunk is validated on a fork-join pool of parallelism threads, while the next ones are read (at most
+ *   two chunks per thread are in flight);
+ * - validated chunks are written in file order, with multi-row INSERTs of rows-per-statement rows sent as JDBC
+ *   batches, and committed every commit-interval records (with sharding, in one transaction per shard);
+ * - progress is logged every progress-interval records.
+ *
+ * The rows are inserted as they are in the file: balances are not recomputed, ledger entries get their
+ * sequence_number in file order, and a Wallet must come before its entries. The first invalid or malformed record
+ * stops the import; the records committed before it stay, and the log tells how many they are.
+ *
+ * Caches and in-memory balances (LEDGER, JOURNAL) do not see imported Wallets until they are loaded: import before
+ * the instances serve traffic, see BulkTransfer.
+ */
+@Slf4j
+@Component
+public class WalletBulkLoader {
+
+    private static final String INSERT_WALLETS =
+            "INSERT INTO wallet (id, created_on, updated_on, currency, balance, credit_card_number) VALUES ";
+    private static final String WALLET_ROW = "(?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ENTRIES =
+            "INSERT INTO wallet_transaction (id, wallet_id, created_on, type, amount, old_balance, new_balance) VALUES ";
+    private static final String ENTRY_ROW = "(?, ?, ?, ?, ?, ?, ?)";
+    private static final int MAX_CREDIT_CARD_NUMBER_LENGTH = 255;
+
+    private final int chunkSize;
+    private final int rowsPerStatement;
+    private final int commitInterval;
+    private final int parallelism;
+    private final int bufferSize;
+    private final long progressInterval;
+    private final ShardRouter shardRouter;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String insertWallets;
+    private final String insertEntries;
+
+    public WalletBulkLoader(@Value("${wallet.bulk.chunk-size:1000}") int chunkSize,
+                            @Value("${wallet.bulk.rows-per-statement:100}") int rowsPerStatement,
+                            @Value("${wallet.bulk.commit-interval:10000}") int commitInterval,
+                            @Value("${wallet.bulk.parallelism:0}") int parallelism,
+                            @Value("${wallet.bulk.buffer-size-in-kilobytes:1024}") int bufferSize,
+                            @Value("${wallet.bulk.progress-interval:100000}") long progressInterval,
+                            ShardRouter shardRouter,
+                            JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager) {
+        this.chunkSize = chunkSize;
+        this.rowsPerStatement = rowsPerStatement;
+        this.commitInterval = commitInterval;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.bufferSize = Math.multiplyExact(bufferSize, 1024);
+        this.progressInterval = progressInterval;
+        this.shardRouter = shardRouter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.insertWallets = multiRowInsert(INSERT_WALLETS, WALLET_ROW, rowsPerStatement);
+        this.insertEntries = multiRowInsert(INSERT_ENTRIES, ENTRY_ROW, rowsPerStatement);
+    }
+
+    /**
+     * Imports the Wallets and ledger entries of the file.
+     */
+    public BulkTransferResult load(@NonNull Path file, @NonNull BulkFormat format) {
+        log.info("Importing Wallets from {} ({})", file.toAbsolutePath(), format);
+        try (WalletBulkFile.Reader reader = WalletBulkFile.reader(file, format, bufferSize)) {
+            return load(reader, file.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read " + file, e);
+        }
+    }
+
+    /**
+     * Imports generated Wallets, each with an opening balance of 100.00 and entriesPerWallet top-ups of 10.00.
+     */
+    public BulkTransferResult loadSynthetic(int wallets, int entriesPerWallet) {
+        log.info("Importing {} synthetic Wallets with {} ledger entries each", wallets, entriesPerWallet);
+        try {
+            return load(new SyntheticReader(wallets, entriesPerWallet), "synthetic data");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BulkTransferResult load(WalletBulkFile.Reader reader, String source) throws IOException {
+        Import progress = new Import(source);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Deque<CompletableFuture<List<Record>>> validating = new ArrayDeque<>();
+        try {
+            long read = 0;
+            List<Record> chunk = new ArrayList<>(chunkSize);
+            Record record;
+            while ((record = reader.next()) != null) {
+                chunk.add(record);
+                if (chunk.size() == chunkSize) {
+                    validating.add(validate(chunk, read + 1, pool));
+                    read += chunk.size();
+                    chunk = new ArrayList<>(chunkSize);
+                    if (validating.size() >= 2 * parallelism) {
+                        progress.add(join(validating.poll()));
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                validating.add(validate(chunk, read + 1, pool));
+            }
+            while (!validating.isEmpty()) {
+                progress.add(join(validating.poll()));
+            }
+            progress.commit();
+
+        } catch (RuntimeException e) {
+            log.error("Import of {} stopped, {} Wallets and {} ledger entries were committed before: {}",
+                    source, progress.wallets, progress.entries, e.getMessage());
+            throw e;
+
+        } finally {
+            pool.shutdownNow();
+        }
+
+        BulkTransferResult result = progress.result();
+        log.info("Imported {} Wallets and {} ledger entries from {} in {} ({} records/s)",
+                result.getWallets(), result.getEntries(), source, result.getElapsed(), result.getRate());
+        return result;
+    }
+
+    private static CompletableFuture<List<Record>> validate(List<Record> chunk, long firstRecord, ForkJoinPool pool) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                try {
+                    validate(chunk.get(i));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid record " + (firstRecord + i) + ": " + e.getMessage(), e);
+                }
+            }
+            return chunk;
+        }, pool);
+    }
+
+    private static void validate(Record record) {
+        if (record instanceof WalletRecord) {
+            WalletRecord wallet = (WalletRecord) record;
+            check(wallet.getId() != null && wallet.getCreatedOn() != null, "a Wallet needs an id and created_on");
+            check(Money.CURRENCY.getCurrencyCode().equals(wallet.getCurrency()),
+                    "the currency of a Wallet must be " + Money.CURRENCY.getCurrencyCode());
+            check(wallet.getCreditCardNumber() == null || wallet.getCreditCardNumber().length() <= MAX_CREDIT_CARD_NUMBER_LENGTH,
+                    "the credit card number is longer than " + MAX_CREDIT_CARD_NUMBER_LENGTH + " characters");
+            return;
+        }
+        EntryRecord entry = (EntryRecord) record;
+        check(entry.getId() != null && entry.getWalletId() != null && entry.getCreatedOn() != null,
+                "a ledger entry needs an id, a wallet_id and created_on");
+        LedgerEntryType type = entry.getType();
+        if (type == null) {
+            check(entry.getAmount() == null, "a ledger entry with an amount needs a type");
+            return;
+        }
+        check(entry.getAmount() != null && entry.getAmount() > 0, "the amount of a ledger entry must be positive");
+        boolean balanced;
+        try {
+            balanced = Math.addExact(entry.getOldBalance(), type.signed(entry.getAmount())) == entry.getNewBalance();
+        } catch (ArithmeticException e) {
+            balanced = false;
+        }
+        check(balanced, "new_balance is not old_balance with the " + type + " of the amount applied");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static List<Record> join(CompletableFuture<List<Record>> chunk) {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the records in one transaction per shard.
+     */
+    private void write(List<Record> records) {
+        List<WalletRecord> wallets = new ArrayList<>();
+        List<EntryRecord> entries = new ArrayList<>();
+        for (Record record : records) {
+            if (record instanceof WalletRecord) {
+                wallets.add((WalletRecord) record);
+            } else {
+                entries.add((EntryRecord) record);
+            }
+        }
+        Map<Integer, List<WalletRecord>> walletsByShard = shardRouter.partition(wallets, WalletRecord::getId);
+        Map<Integer, List<EntryRecord>> entriesByShard = shardRouter.partition(entries, EntryRecord::getWalletId);
+        Set<Integer> shards = new TreeSet<>(walletsByShard.keySet());
+        shards.addAll(entriesByShard.keySet());
+        for (int shard : shards) {
+            shardRouter.onShard(shard, () -> transactionTemplate.executeWithoutResult(status -> {
+                insert(insertWallets, INSERT_WALLETS, WALLET_ROW, walletsByShard.getOrDefault(shard, List.of()), wallet -> new Object[]{
+                        wallet.getId(), Timestamp.from(wallet.getCreatedOn()), timestamp(wallet.getUpdatedOn()),
+                        wallet.getCurrency(), wallet.getBalance(), wallet.getCreditCardNumber()});
+                insert(insertEntries, INSERT_ENTRIES, ENTRY_ROW, entriesByShard.getOrDefault(shard, List.of()), entry -> new Object[]{
+                        entry.getId(), entry.getWalletId(), Timestamp.from(entry.getCreatedOn()),
+                        entry.getType() == null ? null : entry.getType().name(), entry.getAmount(),
+                        entry.getOldBalance(), entry.getNewBalance()});
+            }));
+        }
+    }
+
+    /**
+     * Inserts the rows with statements of rows-per-statement rows, in one JDBC batch, and one statement for the rest.
+     */
+    private <T> void insert(String fullStatement, String insert, String row, List<T> rows, Function<T, Object[]> columns) {
+        int full = rows.size() / rowsPerStatement;
+        if (full > 0) {
+            List<Object[]> batch = new ArrayList<>(full);
+            for (int i = 0; i < full; i++) {
+                batch.add(parameters(rows.subList(i * rowsPerStatement, (i + 1) * rowsPerStatement), columns));
+            }
+            jdbcTemplate.batchUpdate(fullStatement, batch);
+        }
+        int rest = rows.size() % rowsPerStatement;
+        if (rest > 0) {
+            jdbcTemplate.update(multiRowInsert(insert, row, rest), parameters(rows.subList(rows.size() - rest, rows.size()), columns));
+        }
+    }
+
+    private static <T> Object[] parameters(List<T> rows, Function<T, Object[]> columns) {
+        List<Object> parameters = new ArrayList<>();
+        rows.forEach(row -> parameters.addAll(Arrays.asList(columns.apply(row))));
+        return parameters.toArray();
+    }
+
+    private static String multiRowInsert(String insert, String row, int rows) {
+        return insert + Collections.nCopies(rows, row).stream().collect(Collectors.joining(", "));
+    }
+
+    private static Timestamp timestamp(Instant instant) {
+        return instant == null ? null : Timestamp.from(instant);
+    }
+
+    /**
+     * Records of an import waiting for their commit, and what was committed.
+     */
+    private final class Import {
+
+        private final String source;
+        private final long start = System.nanoTime();
+        private final List<Record> pending = new ArrayList<>();
+        private long wallets;
+        private long entries;
+        private long reported;
+
+        private Import(String source) {
+            this.source = source;
+        }
+
+        private void add(List<Record> chunk) {
+            pending.addAll(chunk);
+            if (pending.size() >= commitInterval) {
+                commit();
+            }
+        }
+
+        private void commit() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            write(pending);
+            for (Record record : pending) {
+                if (record instanceof WalletRecord) {
+                    wallets++;
+                } else {
+                    entries++;
+                }
+            }
+            pending.clear();
+
+            long records = wallets + entries;
+            if (progressInterval > 0 && records / progressInterval > reported) {
+                reported = records / progressInterval;
+                BulkTransferResult result = result();
+                log.info("Imported {} Wallets and {} ledger entries from {} so far ({} records/s)",
+                        result.getWallets(), result.getEntries(), source, result.getRate());
+            }
+        }
+
+        private BulkTransferResult result() {
+            return new BulkTransferResult(wallets, entries, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Generated records: the Wallets get time-ordered ids and credit card numbers made of their index.
+     */
+    private static final class SyntheticReader implements WalletBulkFile.Reader {
+
+        private static final long OPENING_BALANCE = 100_00;
+        private static final long TOP_UP = 10_00;
+
+        private final int wallets;
+        private final int entriesPerWallet;
+        private final Instant createdOn = Instant.now();
+        private int wallet;
+        private int entry;
+        private UUID walletId;
+        private long balance;
+
+        private SyntheticReader(int wallets, int entriesPerWallet) {
+            this.wallets = wallets;
+            this.entriesPerWallet = entriesPerWallet;
+        }
+
+        @Override
+        public Record next() {
+            if (walletId != null && entry < entriesPerWallet) {
+                entry++;
+                long oldBalance = balance;
+                balance += TOP_UP;
+                return new EntryRecord(TimeOrderedUuidGenerator.next(), walletId, createdOn, LedgerEntryType.TOP_UP, TOP_UP,
+                        oldBalance, balance);
+            }
+            if (wallet == wallets) {
+                return null;
+            }
+            wallet++;
+            entry = 0;
+            walletId = TimeOrderedUuidGenerator.next();
+            balance = OPENING_BALANCE;
+            String creditCardNumber = String.format("4000 %04d %04d %04d",
+                    wallet / 100_000_000 % 10_000, wallet / 10_000 % 10_000, wallet % 10_000);
+            return new WalletRecord(walletId, createdOn, null, Money.CURRENCY.getCurrencyCode(),
+                    OPENING_BALANCE + entriesPerWallet * TOP_UP, creditCardNumber);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
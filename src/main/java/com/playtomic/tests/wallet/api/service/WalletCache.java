@@ -0,0 +1,72 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of WalletDtos (size and TTL bounded).
+ *
+ * Writers invalidate the entry AFTER their transaction committed. An invalidation waits for a load of the same
+ * key that is in progress and drops its result, so a value read before the commit can not outlive it:
+ * the writer (and everybody else on this instance) never reads a balance older than the last commit.
+ * Loads always read from the primary: a lagging replica would put a balance older than the last commit in the
+ * cache, served for the whole TTL. Other instances may serve an older balance for at most the TTL.
+ */
+@Component
+public class WalletCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final Cache<UUID, WalletDto> cache;
+
+    public WalletCache(@Value("${wallet.cache.enabled:false}") boolean enabled,
+                       @Value("${wallet.cache.maximum-size:100000}") long maximumSize,
+                       @Value("${wallet.cache.ttl-in-milliseconds:5000}") long ttl) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(ttl))
+                .recordStats()
+                .build();
+    }
+
+    public static WalletCache disabled() {
+        return new WalletCache(false, 0, 0);
+    }
+
+    public WalletDto get(@NonNull UUID id, @NonNull Supplier<WalletDto> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return cache.get(id, key -> ReplicaRouter.onPrimary(loader));
+    }
+
+    /**
+     * Must be called after the transaction that changed the Wallet committed.
+     */
+    public void invalidate(@NonNull UUID id) {
+        if (enabled) {
+            cache.invalidate(id);
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "wallets");
+    }
+}
@@ -0,0 +1,146 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.exceptions.WalletBusyException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes writes to the same Wallet inside this instance through a fixed table of locks (wallet id -> stripe),
+ * so hot Wallets queue up here instead of on DB row locks. Writes to Wallets on different stripes run in parallel.
+ *
+ * Each stripe accepts at most max-waiting queued writers; further writes are rejected with WalletBusyException,
+ * as are writes that can not get the lock within the acquire timeout.
+ */
+@Component
+public class WalletLockStripes implements MeterBinder {
+
+    private final boolean enabled;
+    private final long acquireTimeout;
+    private final int maxWaiting;
+    private final ReentrantLock[] locks;
+    private final AtomicInteger[] waiting;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public WalletLockStripes(@Value("${wallet.write-serialization.enabled:false}") boolean enabled,
+                             @Value("${wallet.write-serialization.stripes:1024}") int stripes,
+                             @Value("${wallet.write-serialization.max-waiting:64}") int maxWaiting,
+                             @Value("${wallet.write-serialization.acquire-timeout-in-milliseconds:1000}") long acquireTimeout) {
+        this.enabled = enabled;
+        this.acquireTimeout = acquireTimeout;
+        this.maxWaiting = maxWaiting;
+        this.locks = new ReentrantLock[stripes];
+        this.waiting = new AtomicInteger[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock(true);
+            waiting[i] = new AtomicInteger();
+        }
+    }
+
+    public static WalletLockStripes disabled() {
+        return new WalletLockStripes(false, 1, 0, 0);
+    }
+
+    public <T> T withLock(@NonNull UUID walletId, @NonNull Supplier<T> write) {
+        if (!enabled) {
+            return write.get();
+        }
+
+        int stripe = stripe(walletId);
+        ReentrantLock lock = locks[stripe];
+        acquire(walletId, stripe, lock);
+        try {
+            return write.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(UUID walletId, int stripe, ReentrantLock lock) {
+        if (lock.tryLock()) {
+            acquired.increment();
+            return;
+        }
+
+        contended.increment();
+        if (waiting[stripe].incrementAndGet() > maxWaiting) {
+            waiting[stripe].decrementAndGet();
+            rejected.increment();
+            throw new WalletBusyException("Too many concurrent writes to the Wallet with id=" + walletId);
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!lock.tryLock(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new WalletBusyException("Timed out waiting to write to the Wallet with id=" + walletId);
+            }
+            acquired.increment();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new WalletBusyException("Interrupted waiting to write to the Wallet with id=" + walletId);
+
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+            waiting[stripe].decrementAndGet();
+        }
+    }
+
+    private int stripe(UUID walletId) {
+        int hash = walletId.hashCode();
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, locks.length);
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getContended() {
+        return contended.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getWaiting() {
+        int sum = 0;
+        for (AtomicInteger w : waiting) {
+            sum += w.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wallet.write.lock.acquired", this, WalletLockStripes::getAcquired)
+                .description("Wallet write locks acquired").register(registry);
+        FunctionCounter.builder("wallet.write.lock.contended", this, WalletLockStripes::getContended)
+                .description("Wallet write lock acquisitions that had to wait").register(registry);
+        FunctionCounter.builder("wallet.write.lock.rejected", this, WalletLockStripes::getRejected)
+                .description("Wallet writes rejected because the stripe queue was full or the wait timed out").register(registry);
+        FunctionCounter.builder("wallet.write.lock.wait", this, s -> s.waitNanos.sum() / 1_000_000_000.0)
+                .baseUnit("seconds")
+                .description("Total time spent waiting for Wallet write locks").register(registry);
+        Gauge.builder("wallet.write.lock.waiting", this, WalletLockStripes::getWaiting)
+                .description("Writers currently queued on Wallet write locks").register(registry);
+    }
+}
@@ -1,26 +1,46 @@
 package com.playtomic.tests.wallet.api.service;
 
-import com.playtomic.tests.wallet.api.entity.Wallet;
-import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
 import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.exceptions.WalletBusyException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRow;
+import com.playtomic.tests.wallet.api.request.BulkTopUpRequest;
+import com.playtomic.tests.wallet.api.request.WalletCursor;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.TopUpResultDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
 import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
 import com.playtomic.tests.wallet.service.StripeService;
 import com.playtomic.tests.wallet.service.StripeServiceException;
+import com.playtomic.tests.wallet.service.StripeServiceOverloadedException;
+import com.playtomic.tests.wallet.service.StripeServiceTimeoutException;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics.Phase;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.math.BigDecimal;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * This is not the most fortunate approach: to use ExecutorService with Future to control Timeouts and Bulkhead
@@ -31,79 +51,371 @@ import java.util.concurrent.*;
 @Service
 public class WalletService {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String API = "v1";
+    /** keyset order of getPage; ids as unsigned (PostgreSQL) UUIDs */
+    private static final Comparator<WalletRow> CREATED_ON_AND_ID =
+            Comparator.comparing(WalletRow::getCreatedOn).thenComparing(row -> row.getId().toString());
+
     private final int stripServiceTimeout;
+    private final int numberOfThreads;
+    private final BalanceUpdateMode balanceUpdateMode;
+    private final TopUpMode topUpMode;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletLockStripes walletLockStripes;
+    private final LedgerGroupCommitter ledgerGroupCommitter;
+    private final WalletCache walletCache;
+    private final BalanceProjection balanceProjection;
+    private final TopUpSettler topUpSettler;
+    private final TopUpMetrics metrics;
+    private final ShardRouter shardRouter;
+    private final ReplicaRouter replicaRouter;
     private final WalletRepository walletRepository;
+    private final WalletReadRepository walletReadRepository;
+    private final TopUpRepository topUpRepository;
     private final StripeService stripeService;
+    private final StripeConcurrencyLimiter stripeConcurrencyLimiter;
     private final ExecutorService executorService;
 
     public WalletService(@Value("${stripe.simulator.timeout-in-milliseconds}") int stripServiceTimeout,
                          @Value("${stripe.simulator.number-of-threads}") int numberOfThreads,
+                         @Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                         @Value("${wallet.top-up-mode:TWO_PHASE}") TopUpMode topUpMode,
+                         PlatformTransactionManager transactionManager,
+                         WalletLockStripes walletLockStripes,
+                         LedgerGroupCommitter ledgerGroupCommitter,
+                         WalletCache walletCache,
+                         BalanceProjection balanceProjection,
+                         TopUpSettler topUpSettler,
+                         TopUpMetrics topUpMetrics,
+                         ShardRouter shardRouter,
+                         ReplicaRouter replicaRouter,
                          WalletRepository walletRepository,
-                         StripeService stripeService) {
+                         WalletReadRepository walletReadRepository,
+                         TopUpRepository topUpRepository,
+                         StripeService stripeService,
+                         StripeConcurrencyLimiter stripeConcurrencyLimiter) {
         this.stripServiceTimeout = stripServiceTimeout;
-        this.executorService = Executors.newFixedThreadPool(numberOfThreads);
+        // with the adaptive limit, the limit (not the pool) decides how many charges run at once
+        this.numberOfThreads = stripeConcurrencyLimiter.threadsFor(numberOfThreads);
+        this.balanceUpdateMode = balanceUpdateMode;
+        this.topUpMode = topUpMode;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.walletLockStripes = walletLockStripes;
+        this.ledgerGroupCommitter = ledgerGroupCommitter;
+        this.walletCache = walletCache;
+        this.balanceProjection = balanceProjection;
+        this.topUpSettler = topUpSettler;
+        this.metrics = topUpMetrics;
+        this.shardRouter = shardRouter;
+        this.replicaRouter = replicaRouter;
+        this.executorService = topUpMetrics.monitor(Executors.newFixedThreadPool(this.numberOfThreads), "stripe-charges");
         this.walletRepository = walletRepository;
+        this.walletReadRepository = walletReadRepository;
+        this.topUpRepository = topUpRepository;
         this.stripeService = stripeService;
+        this.stripeConcurrencyLimiter = stripeConcurrencyLimiter;
     }
 
 
+    /**
+     * Sharded: every shard returns its first (page + 1) * size Wallets in the requested order, the page is cut out of
+     * their merge, so deep pages get expensive; getPage does not have that problem.
+     */
     public Page<WalletDto> getAll(Pageable pageable) {
-        Page<Wallet> wallets = walletRepository.findAll(pageable);
-        return wallets.map(this::map);
+        if (!shardRouter.isSharded()) {
+            return walletRepository.findAllDtos(pageable).map(this::project);
+        }
+
+        Pageable firstRows = pageable.isUnpaged() ? pageable
+                : PageRequest.of(0, Math.toIntExact(pageable.getOffset() + pageable.getPageSize()), pageable.getSort());
+        List<Page<WalletDto>> byShard = shardRouter.onEachShard(() -> walletRepository.findAllDtos(firstRows));
+
+        long total = byShard.stream().mapToLong(Page::getTotalElements).sum();
+        List<WalletDto> merged = byShard.stream().flatMap(page -> page.getContent().stream()).collect(Collectors.toList());
+        if (pageable.getSort().isSorted()) {
+            merged.sort(comparator(pageable.getSort()));
+        }
+        if (pageable.isPaged()) {
+            int from = (int) Math.min(pageable.getOffset(), merged.size());
+            merged = merged.subList(from, Math.min(from + pageable.getPageSize(), merged.size()));
+        }
+        return new PageImpl<>(merged, pageable, total).map(this::project);
+    }
+
+    /**
+     * Keyset listing ordered by (createdOn, id); pass the nextCursor of a page to get the following one.
+     */
+    public CursorPage<WalletDto> getPage(String cursor, int size) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        // one extra row tells whether there is a next page, without a count query
+        List<WalletRow> wallets;
+        if (cursor == null || cursor.isEmpty()) {
+            wallets = readPage(() -> walletReadRepository.findFirstPage(limit + 1), limit + 1);
+        } else {
+            WalletCursor after = WalletCursor.decode(cursor);
+            wallets = readPage(() -> walletReadRepository.findPageAfter(after.getCreatedOn(), after.getId(), limit + 1), limit + 1);
+        }
+
+        boolean hasNext = wallets.size() > limit;
+        List<WalletRow> content = hasNext ? wallets.subList(0, limit) : wallets;
+        String nextCursor = hasNext ? content.get(content.size() - 1).toCursor().encode() : null;
+        return new CursorPage<>(content.stream().map(row -> project(row.toDto())).collect(Collectors.toList()), nextCursor);
     }
 
     public WalletDto getById(@NonNull UUID id) {
-        Wallet wallet = getWalletById(id);
-        return map(wallet);
+        if (balanceUpdateMode.isInMemory()) {
+            return balanceProjection.get(id);
+        }
+        return walletCache.get(id, () -> replicaRouter.read(id,
+                () -> shardRouter.onShardOf(id, () -> walletReadRepository.findDtoById(id))).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found")));
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public WalletDto addToWallet(@NonNull UUID id, @NonNull BigDecimal amount) {
+    public WalletDto addToWallet(@NonNull UUID id, @NonNull Money amount) {
+        try {
+            return metrics.record(API, () -> shardRouter.onShardOf(id, () -> {
+                if (topUpMode != TopUpMode.SINGLE_TRANSACTION) {
+                    return addInTwoPhases(id, amount);
+                }
+                if (balanceUpdateMode.isInMemory()) {
+                    return addToLedger(id, amount);
+                }
+                return walletLockStripes.withLock(id,
+                        () -> metrics.inTransaction(API, transactionTemplate, () -> addInSingleTransaction(id, amount)));
+            }));
+        } finally {
+            // after commit (or rollback): the next read of this Wallet goes to the database, the primary one
+            walletCache.invalidate(id);
+            replicaRouter.wrote(id);
+        }
+    }
 
-        Wallet wallet = getWalletById(id);
-        WalletDto walletDto = add(wallet, amount);
+    /**
+     * Bulk top-up, every item gets its own result (nothing is thrown for a single item):
+     * the Wallets are loaded with one IN query, the PENDING TopUps are saved in JDBC batches, the charges run in
+     * parallel on the (bounded) Stripe executor and the successful ones are settled in JDBC batches.
+     * Sharded, each of the database steps runs once per shard with the items of its Wallets.
+     */
+    public List<TopUpResultDto> addToWallets(@NonNull List<BulkTopUpRequest.TopUp> topUps) {
+        Set<UUID> ids = topUps.stream().map(BulkTopUpRequest.TopUp::getWalletId).collect(Collectors.toSet());
+        Map<UUID, WalletDto> wallets = new HashMap<>();
+        shardRouter.partition(ids, Function.identity()).forEach((shard, idsOfShard) ->
+                shardRouter.onShard(shard, () -> walletRepository.findDtosByIdIn(new HashSet<>(idsOfShard)))
+                        .forEach(wallet -> wallets.put(wallet.getId(), wallet)));
 
-        Future<?> future = executorService.submit(() -> stripeService.charge(wallet.getCreditCardNumber(), amount));
+        TopUpResultDto[] results = new TopUpResultDto[topUps.size()];
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < topUps.size(); i++) {
+            UUID id = topUps.get(i).getWalletId();
+            if (wallets.containsKey(id)) {
+                found.add(i);
+            } else {
+                results[i] = failed(topUps.get(i), new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+            }
+        }
 
         try {
-            future.get(stripServiceTimeout, TimeUnit.MILLISECONDS);
+            List<TopUp> pending = found.stream()
+                    .map(i -> new TopUp(topUps.get(i).getWalletId(), Money.of(topUps.get(i).getAmount())))
+                    .collect(Collectors.toList());
+            // saved in place: the ids are assigned to the instances of pending
+            shardRouter.partition(pending, TopUp::getWalletId).forEach((shard, pendingOfShard) -> shardRouter.onShard(shard,
+                    () -> transactionTemplate.execute(status -> topUpRepository.saveAll(pendingOfShard))));
 
-        } catch (Exception e) {
+            List<Future<?>> charges = new ArrayList<>(pending.size());
+            for (TopUp topUp : pending) {
+                String creditCardNumber = wallets.get(topUp.getWalletId()).getCreditCardNumber();
+                charges.add(executorService.submit(() -> stripeService.charge(creditCardNumber, topUp.getAmount())));
+            }
 
-            if ("com.playtomic.tests.wallet.service.StripeAmountTooSmallException".equals(e.getMessage())) {
-                throw new StripeAmountTooSmallException();
+            // the executor (or the adaptive limit, when lower) runs that many charges at a time, so the last ones
+            // start that many "waves" later
+            int concurrency = stripeConcurrencyLimiter.isEnabled()
+                    ? Math.max(1, Math.min(numberOfThreads, stripeConcurrencyLimiter.getLimit()))
+                    : numberOfThreads;
+            long waves = (pending.size() + concurrency - 1) / concurrency;
+            long deadline = System.currentTimeMillis() + waves * stripServiceTimeout;
+            List<TopUp> charged = new ArrayList<>();
+            List<Integer> chargedIndexes = new ArrayList<>();
+            Map<TopUpStatus, List<TopUp>> failedTopUps = new EnumMap<>(TopUpStatus.class);
+            for (int k = 0; k < pending.size(); k++) {
+                try {
+                    await(charges.get(k), Math.max(0, deadline - System.currentTimeMillis()));
+                    charged.add(pending.get(k));
+                    chargedIndexes.add(found.get(k));
+                } catch (StripeServiceException e) {
+                    failedTopUps.computeIfAbsent(statusAfter(e), status -> new ArrayList<>()).add(pending.get(k));
+                    results[found.get(k)] = failed(topUps.get(found.get(k)), e);
+                }
             }
-            throw new StripeServiceException();
+            failedTopUps.forEach((status, failedOfStatus) -> shardRouter.partition(failedOfStatus, TopUp::getWalletId)
+                    .forEach((shard, failedOfShard) -> shardRouter.onShard(shard, () -> topUpRepository.transitionAll(
+                            failedOfShard.stream().map(TopUp::getId).collect(Collectors.toList()),
+                            TopUpStatus.PENDING, status))));
+
+            List<CompletableFuture<WalletDto>> settled = settleAll(charged);
+            for (int k = 0; k < charged.size(); k++) {
+                int i = chargedIndexes.get(k);
+                try {
+                    WalletDto wallet = settled.get(k).join();
+                    results[i] = new TopUpResultDto(wallet.getId(), charged.get(k).getAmount(), 200, wallet.getBalance(), null);
+                } catch (CompletionException e) {
+                    results[i] = failed(topUps.get(i), e.getCause());
+                }
+            }
+            return Arrays.asList(results);
+
+        } finally {
+            ids.forEach(walletCache::invalidate);
+            ids.forEach(replicaRouter::wrote);
         }
+    }
+
+    /**
+     * A ledger entry is final once appended, so the card is charged first.
+     */
+    private WalletDto addToLedger(UUID id, Money amount) {
+        String creditCardNumber = metrics.time(API, Phase.WALLET_LOAD, () -> balanceProjection.get(id).getCreditCardNumber());
+        metrics.time(API, Phase.STRIPE_CALL, () -> charge(creditCardNumber, amount));
+        return metrics.time(API, Phase.SETTLE, () -> walletLockStripes.withLock(id,
+                () -> balanceProjection.append(id, LedgerEntryType.TOP_UP, amount)));
+    }
+
+    private WalletDto addInSingleTransaction(UUID id, Money amount) {
+        WalletDto walletDto = topUpSettler.add(API, id, amount);
+
+        metrics.time(API, Phase.STRIPE_CALL, () -> charge(walletDto.getCreditCardNumber(), amount));
 
         return walletDto;
     }
 
-    private WalletDto add(Wallet wallet, BigDecimal amount) {
-        BigDecimal oldBalance = wallet.getBalance();
-        BigDecimal newBalance = wallet.getBalance().add(amount);
+    /**
+     * No DB connection is held while waiting for Stripe: the PENDING TopUp and the settlement
+     * are each written in their own short transaction.
+     */
+    private WalletDto addInTwoPhases(UUID id, Money amount) {
+        WalletDto wallet = metrics.time(API, Phase.WALLET_LOAD, () -> walletRepository.findDtoById(id)).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+        TopUp topUp = metrics.time(API, Phase.TOP_UP_WRITE, () -> topUpRepository.save(new TopUp(id, amount)));
 
-        WalletTransaction transaction = new WalletTransaction(oldBalance, newBalance);
+        try {
+            metrics.time(API, Phase.STRIPE_CALL, () -> charge(wallet.getCreditCardNumber(), amount));
+        } catch (StripeServiceException e) {
+            metrics.time(API, Phase.TOP_UP_WRITE,
+                    () -> topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, statusAfter(e)));
+            throw e;
+        }
 
-        wallet.setBalance(newBalance);
-        wallet.addTransaction(transaction);
+        return topUpSettler.settle(API, topUp);
+    }
 
-        Wallet savedWallet = walletRepository.save(wallet);
-        return map(savedWallet);
+    /**
+     * Runs the query on every shard; merges the rows in keyset order and keeps the first limit of them.
+     */
+    private List<WalletRow> readPage(Supplier<List<WalletRow>> query, int limit) {
+        List<List<WalletRow>> byShard = shardRouter.onEachShard(query);
+        if (byShard.size() == 1) {
+            return byShard.get(0);
+        }
+        return byShard.stream().flatMap(List::stream).sorted(CREATED_ON_AND_ID).limit(limit).collect(Collectors.toList());
     }
 
-    private Wallet getWalletById(UUID id) {
-        Optional<Wallet> optional = walletRepository.findById(id);
-        return optional.orElseThrow(
-                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+    /**
+     * Order of the merged pages of getAll, on the properties of WalletDto; ids are compared as unsigned (PostgreSQL)
+     * UUIDs and nulls come first, as in the shards' ORDER BY.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<WalletDto> comparator(Sort sort) {
+        Comparator<WalletDto> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Function<WalletDto, Comparable> property = walletDto -> {
+                Object value = new BeanWrapperImpl(walletDto).getPropertyValue(order.getProperty());
+                return value instanceof UUID ? value.toString() : (Comparable) value;
+            };
+            Comparator<WalletDto> byProperty = Comparator.comparing(property, Comparator.nullsFirst(Comparator.naturalOrder()));
+            comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+        }
+        return comparator;
+    }
+
+    private List<CompletableFuture<WalletDto>> settleAll(List<TopUp> charged) {
+        if (!balanceUpdateMode.isInMemory()) {
+            // same JDBC batches as the group commit (ATOMIC update, whatever the balance update mode)
+            return ledgerGroupCommitter.settleAll(charged);
+        }
+
+        List<CompletableFuture<WalletDto>> settled = new ArrayList<>(charged.size());
+        for (TopUp topUp : charged) {
+            CompletableFuture<WalletDto> result = new CompletableFuture<>();
+            try {
+                result.complete(walletLockStripes.withLock(topUp.getWalletId(), () -> balanceProjection.append(
+                        topUp.getWalletId(), LedgerEntryType.TOP_UP, topUp.getAmount(), () -> topUpSettler.confirm(topUp))));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            settled.add(result);
+        }
+        return settled;
+    }
+
+    private static TopUpResultDto failed(BulkTopUpRequest.TopUp topUp, Throwable e) {
+        int status = 500;
+        String message = "Payment failed";
+        if (e instanceof EntityNotFoundException) {
+            status = 404;
+            message = e.getMessage();
+        } else if (e instanceof StripeAmountTooSmallException) {
+            status = 400;
+            message = "Amount is less then minimal";
+        } else if (e instanceof WalletBusyException) {
+            status = 429;
+            message = e.getMessage();
+        } else if (e instanceof StripeServiceOverloadedException) {
+            status = 503;
+            message = "Too many concurrent payments, try again later";
+        }
+        return new TopUpResultDto(topUp.getWalletId(), Money.of(topUp.getAmount()), status, null, message);
+    }
+
+    /**
+     * FAILED only when the charge was definitely not made; on a timeout it may have been, so the TopUp is left to be
+     * reconciled with the payment provider.
+     */
+    static TopUpStatus statusAfter(Throwable e) {
+        return e instanceof StripeServiceTimeoutException ? TopUpStatus.UNKNOWN : TopUpStatus.FAILED;
+    }
+
+    private void charge(String creditCardNumber, Money amount) {
+        await(executorService.submit(() -> stripeService.charge(creditCardNumber, amount)), stripServiceTimeout);
+    }
+
+    private void await(Future<?> future, long timeout) {
+        try {
+            future.get(timeout, TimeUnit.MILLISECONDS);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StripeServiceException) {
+                throw (StripeServiceException) e.getCause();
+            }
+            throw new StripeServiceException();
+
+        } catch (TimeoutException e) {
+            // not interrupted: a charge already sent is left to finish, one still queued behind busy threads is not
+            // made at all; either way the outcome is not known here
+            future.cancel(false);
+            throw new StripeServiceTimeoutException();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new StripeServiceTimeoutException();
+        }
     }
 
-    private WalletDto map(Wallet wallet) {
-        return new WalletDto(
-                wallet.getId(),
-                wallet.getBalance(),
-                wallet.getCreditCardNumber()
-        );
+    private WalletDto project(WalletDto walletDto) {
+        return balanceUpdateMode.isInMemory() ? balanceProjection.project(walletDto) : walletDto;
     }
 
 
@@ -1,67 +1,148 @@
 package com.playtomic.tests.wallet.api.service;
 
-import com.playtomic.tests.wallet.api.entity.Wallet;
-import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
 import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.TopUpDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
 import com.playtomic.tests.wallet.service.StripeServiceV2;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics.Phase;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.math.BigDecimal;
-import java.util.Optional;
 import java.util.UUID;
 
-@RequiredArgsConstructor
-@Slf4j
 @Service
 public class WalletServiceV2 {
 
+    private static final String API = "v2";
+
+    private final BalanceUpdateMode balanceUpdateMode;
+    private final TopUpMode topUpMode;
+    private final TransactionTemplate transactionTemplate;
+    private final WalletLockStripes walletLockStripes;
+    private final WalletCache walletCache;
+    private final BalanceProjection balanceProjection;
+    private final TopUpSettler topUpSettler;
+    private final TopUpMetrics metrics;
+    private final TopUpOutbox topUpOutbox;
+    private final ShardRouter shardRouter;
+    private final ReplicaRouter replicaRouter;
     private final WalletRepository walletRepository;
+    private final TopUpRepository topUpRepository;
     private final StripeServiceV2 stripeService;
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public WalletDto addToWallet(@NonNull UUID id, @NonNull BigDecimal amount) {
+    public WalletServiceV2(@Value("${wallet.balance-update-mode:ATOMIC}") BalanceUpdateMode balanceUpdateMode,
+                           @Value("${wallet.top-up-mode:TWO_PHASE}") TopUpMode topUpMode,
+                           PlatformTransactionManager transactionManager,
+                           WalletLockStripes walletLockStripes,
+                           WalletCache walletCache,
+                           BalanceProjection balanceProjection,
+                           TopUpSettler topUpSettler,
+                           TopUpMetrics topUpMetrics,
+                           TopUpOutbox topUpOutbox,
+                           ShardRouter shardRouter,
+                           ReplicaRouter replicaRouter,
+                           WalletRepository walletRepository,
+                           TopUpRepository topUpRepository,
+                           StripeServiceV2 stripeService) {
+        this.balanceUpdateMode = balanceUpdateMode;
+        this.topUpMode = topUpMode;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.walletLockStripes = walletLockStripes;
+        this.walletCache = walletCache;
+        this.balanceProjection = balanceProjection;
+        this.topUpSettler = topUpSettler;
+        this.metrics = topUpMetrics;
+        this.topUpOutbox = topUpOutbox;
+        this.shardRouter = shardRouter;
+        this.replicaRouter = replicaRouter;
+        this.walletRepository = walletRepository;
+        this.topUpRepository = topUpRepository;
+        this.stripeService = stripeService;
+    }
+
+    public WalletDto addToWallet(@NonNull UUID id, @NonNull Money amount) {
+        try {
+            return metrics.record(API, () -> shardRouter.onShardOf(id, () -> {
+                if (topUpMode != TopUpMode.SINGLE_TRANSACTION) {
+                    return addInTwoPhases(id, amount);
+                }
+                if (balanceUpdateMode.isInMemory()) {
+                    return addToLedger(id, amount);
+                }
+                return walletLockStripes.withLock(id,
+                        () -> metrics.inTransaction(API, transactionTemplate, () -> addInSingleTransaction(id, amount)));
+            }));
+        } finally {
+            // after commit (or rollback): the next read of this Wallet goes to the database, the primary one
+            walletCache.invalidate(id);
+            replicaRouter.wrote(id);
+        }
+    }
 
-        Wallet wallet = getWalletById(id);
-        WalletDto walletDto = add(wallet, amount);
+    /**
+     * OUTBOX mode: top-ups are accepted with {@link #enqueueTopUp} and settled asynchronously.
+     */
+    public boolean isQueued() {
+        return topUpOutbox.isEnabled();
+    }
 
-        stripeService.charge(wallet.getCreditCardNumber(), amount);
+    public TopUpDto enqueueTopUp(@NonNull UUID id, @NonNull Money amount) {
+        return map(topUpOutbox.submit(id, amount));
+    }
 
-        return walletDto;
+    public TopUpDto getTopUp(@NonNull UUID walletId, @NonNull UUID topUpId) {
+        return shardRouter.onShardOf(walletId, () -> topUpRepository.findById(topUpId))
+                .filter(topUp -> topUp.getWalletId().equals(walletId))
+                .map(this::map)
+                .orElseThrow(() -> new EntityNotFoundException("Entity with id=" + topUpId + " is not Found"));
     }
 
-    private WalletDto add(Wallet wallet, BigDecimal amount) {
-        BigDecimal oldBalance = wallet.getBalance();
-        BigDecimal newBalance = wallet.getBalance().add(amount);
+    /**
+     * A ledger entry is final once appended, so the card is charged first.
+     */
+    private WalletDto addToLedger(UUID id, Money amount) {
+        String creditCardNumber = metrics.time(API, Phase.WALLET_LOAD, () -> balanceProjection.get(id).getCreditCardNumber());
+        metrics.time(API, Phase.STRIPE_CALL, () -> stripeService.charge(creditCardNumber, amount));
+        return metrics.time(API, Phase.SETTLE, () -> walletLockStripes.withLock(id,
+                () -> balanceProjection.append(id, LedgerEntryType.TOP_UP, amount)));
+    }
 
-        WalletTransaction transaction = new WalletTransaction(oldBalance, newBalance);
+    private WalletDto addInSingleTransaction(UUID id, Money amount) {
+        WalletDto walletDto = topUpSettler.add(API, id, amount);
 
-        wallet.setBalance(newBalance);
-        wallet.addTransaction(transaction);
+        metrics.time(API, Phase.STRIPE_CALL, () -> stripeService.charge(walletDto.getCreditCardNumber(), amount));
 
-        Wallet savedWallet = walletRepository.save(wallet);
-        return map(savedWallet);
+        return walletDto;
     }
 
-    private Wallet getWalletById(UUID id) {
-        Optional<Wallet> optional = walletRepository.findById(id);
-        return optional.orElseThrow(
+    private WalletDto addInTwoPhases(UUID id, Money amount) {
+        WalletDto wallet = metrics.time(API, Phase.WALLET_LOAD, () -> walletRepository.findDtoById(id)).orElseThrow(
                 () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
-    }
+        TopUp topUp = metrics.time(API, Phase.TOP_UP_WRITE, () -> topUpRepository.save(new TopUp(id, amount)));
 
-    private WalletDto map(Wallet wallet) {
-        return new WalletDto(
-                wallet.getId(),
-                wallet.getBalance(),
-                wallet.getCreditCardNumber()
-        );
-    }
+        try {
+            metrics.time(API, Phase.STRIPE_CALL, () -> stripeService.charge(wallet.getCreditCardNumber(), amount));
+        } catch (RuntimeException e) {
+            metrics.time(API, Phase.TOP_UP_WRITE,
+                    () -> topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, WalletService.statusAfter(e)));
+            throw e;
+        }
 
+        return topUpSettler.settle(API, topUp);
+    }
 
+    private TopUpDto map(TopUp topUp) {
+        return new TopUpDto(topUp.getId(), topUp.getWalletId(), topUp.getAmount(), topUp.getStatus(), topUp.getCreatedOn());
+    }
 }
@@ -0,0 +1,118 @@
+package com.playtomic.tests.wallet.api.service;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import lombok.NonNull;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.UUID;
+
+/**
+ * Non-blocking version of the two-phase top-up:
+ * JDBC work runs on the bounded elastic scheduler, the Stripe call on the WebClient event loop,
+ * so no thread is parked while waiting for the payment provider. The JDBC work selects the Wallet's shard on the
+ * thread it runs on. The settle step is the one of V1 and V2, in the configured balance update mode.
+ */
+@Service
+public class WalletServiceV3 {
+
+    private static final String API = "v3";
+
+    private final Scheduler jdbcScheduler = Schedulers.boundedElastic();
+    private final WalletCache walletCache;
+    private final BalanceProjection balanceProjection;
+    private final TopUpSettler topUpSettler;
+    private final ShardRouter shardRouter;
+    private final ReplicaRouter replicaRouter;
+    private final WalletRepository walletRepository;
+    private final WalletReadRepository walletReadRepository;
+    private final TopUpRepository topUpRepository;
+    private final StripeServiceV2 stripeService;
+
+    public WalletServiceV3(WalletCache walletCache,
+                           BalanceProjection balanceProjection,
+                           TopUpSettler topUpSettler,
+                           ShardRouter shardRouter,
+                           ReplicaRouter replicaRouter,
+                           WalletRepository walletRepository,
+                           WalletReadRepository walletReadRepository,
+                           TopUpRepository topUpRepository,
+                           StripeServiceV2 stripeService) {
+        this.walletCache = walletCache;
+        this.balanceProjection = balanceProjection;
+        this.topUpSettler = topUpSettler;
+        this.shardRouter = shardRouter;
+        this.replicaRouter = replicaRouter;
+        this.walletRepository = walletRepository;
+        this.walletReadRepository = walletReadRepository;
+        this.topUpRepository = topUpRepository;
+        this.stripeService = stripeService;
+    }
+
+    /**
+     * Same read path as V1: cache, then replica (or the primary right after a write), then the Wallet's shard.
+     */
+    public Mono<WalletDto> getById(@NonNull UUID id) {
+        if (balanceProjection.isEnabled()) {
+            return Mono.fromCallable(() -> balanceProjection.get(id))
+                    .subscribeOn(jdbcScheduler);
+        }
+        return Mono.fromCallable(() -> walletCache.get(id, () -> replicaRouter.read(id,
+                        () -> shardRouter.onShardOf(id, () -> walletReadRepository.findDtoById(id))).orElseThrow(
+                        () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"))))
+                .subscribeOn(jdbcScheduler);
+    }
+
+    public Mono<WalletDto> addToWallet(@NonNull UUID id, @NonNull Money amount) {
+        return Mono.fromCallable(() -> shardRouter.onShardOf(id, () -> begin(id, amount)))
+                .subscribeOn(jdbcScheduler)
+                .flatMap(topUp -> stripeService.chargeReactive(topUp.getCreditCardNumber(), amount)
+                        .onErrorResume(e -> fail(topUp.getTopUp(), e).then(Mono.error(e)))
+                        .then(Mono.fromCallable(() -> shardRouter.onShardOf(id, () -> settleAndInvalidate(topUp.getTopUp())))
+                                .subscribeOn(jdbcScheduler)));
+    }
+
+    private WalletDto settleAndInvalidate(TopUp topUp) {
+        try {
+            return topUpSettler.settle(API, topUp);
+        } finally {
+            // before the result is emitted, so the caller can not read the old balance afterwards
+            walletCache.invalidate(topUp.getWalletId());
+            replicaRouter.wrote(topUp.getWalletId());
+        }
+    }
+
+    private PendingTopUp begin(UUID id, Money amount) {
+        WalletDto wallet = getWalletDtoById(id);
+        TopUp topUp = topUpRepository.save(new TopUp(id, amount));
+        return new PendingTopUp(topUp, wallet.getCreditCardNumber());
+    }
+
+    private Mono<Void> fail(TopUp topUp, Throwable e) {
+        return Mono.fromRunnable(() -> shardRouter.onShardOf(topUp.getWalletId(),
+                        () -> topUpRepository.transition(topUp.getId(), TopUpStatus.PENDING, WalletService.statusAfter(e))))
+                .subscribeOn(jdbcScheduler)
+                .then();
+    }
+
+    private WalletDto getWalletDtoById(UUID id) {
+        return walletRepository.findDtoById(id).orElseThrow(
+                () -> new EntityNotFoundException("Entity with id=" + id + " is not Found"));
+    }
+
+    @lombok.Value
+    private static class PendingTopUp {
+        TopUp topUp;
+        String creditCardNumber;
+    }
+}
@@ -0,0 +1,62 @@
+package com.playtomic.tests.wallet.config;
+
+import com.playtomic.tests.wallet.api.service.BulkFormat;
+import com.playtomic.tests.wallet.api.service.WalletBulkExporter;
+import com.playtomic.tests.wallet.api.service.WalletBulkLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+
+/**
+ * Imports wallet.bulk.import-file and/or exports every Wallet to wallet.bulk.export-file, then exits; run it while
+ * no instance serves traffic:
+ *
+ *   java -jar exercise-wallet.jar --spring.profiles.active=bulk,... --spring.main.web-application-type=none
+ *       --wallet.bulk.import-file=wallets.csv --wallet.bulk.format=CSV
+ */
+@Profile("bulk")
+@Slf4j
+@Component
+public class BulkTransfer implements CommandLineRunner {
+
+    private final String importFile;
+    private final String exportFile;
+    private final BulkFormat format;
+    private final WalletBulkLoader walletBulkLoader;
+    private final WalletBulkExporter walletBulkExporter;
+    private final ConfigurableApplicationContext context;
+
+    public BulkTransfer(@Value("${wallet.bulk.import-file:}") String importFile,
+                        @Value("${wallet.bulk.export-file:}") String exportFile,
+                        @Value("${wallet.bulk.format:CSV}") BulkFormat format,
+                        WalletBulkLoader walletBulkLoader,
+                        WalletBulkExporter walletBulkExporter,
+                        ConfigurableApplicationContext context) {
+        this.importFile = importFile;
+        this.exportFile = exportFile;
+        this.format = format;
+        this.walletBulkLoader = walletBulkLoader;
+        this.walletBulkExporter = walletBulkExporter;
+        this.context = context;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (importFile.isEmpty() && exportFile.isEmpty()) {
+            log.warn("Nothing to do: set wallet.bulk.import-file and/or wallet.bulk.export-file");
+        }
+        if (!importFile.isEmpty()) {
+            walletBulkLoader.load(Paths.get(importFile), format);
+        }
+        if (!exportFile.isEmpty()) {
+            walletBulkExporter.export(Paths.get(exportFile), format);
+        }
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
@@ -0,0 +1,35 @@
+package com.playtomic.tests.wallet.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The connection pools behind the routing DataSources (shards, primary and replica), by pool name, for their
+ * hikaricp.* metrics and health indicators (see ConnectionPoolsConfig).
+ */
+public class ConnectionPools {
+
+    private final Map<String, HikariDataSource> pools = new LinkedHashMap<>();
+
+    public HikariDataSource create(String name, String url, String username, String password, int maximumPoolSize) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl(url);
+        pool.setUsername(username);
+        pool.setPassword(password);
+        pool.setMaximumPoolSize(maximumPoolSize);
+        return add(name, pool);
+    }
+
+    public HikariDataSource add(String name, HikariDataSource pool) {
+        pool.setPoolName(name);
+        pools.put(name, pool);
+        return pool;
+    }
+
+    public Map<String, HikariDataSource> getPools() {
+        return Collections.unmodifiableMap(pools);
+    }
+}
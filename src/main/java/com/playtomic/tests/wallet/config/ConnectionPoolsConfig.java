@@ -0,0 +1,48 @@
+package com.playtomic.tests.wallet.config;
+
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.actuate.health.CompositeHealthContributor;
+import org.springframework.boot.actuate.health.HealthContributor;
+import org.springframework.boot.actuate.jdbc.DataSourceHealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sharding or replicas: the DataSource routes over several pools, which Spring Boot does not see, so their
+ * hikaricp.* metrics (tagged pool=<name>) and health are published here, one per pool.
+ */
+@Configuration
+public class ConnectionPoolsConfig {
+
+    private static final String ROUTED = "${wallet.sharding.enabled:false} or ${wallet.replica.enabled:false}";
+
+    @Bean
+    @ConditionalOnExpression(ROUTED)
+    public ConnectionPools connectionPools() {
+        return new ConnectionPools();
+    }
+
+    @Bean
+    @ConditionalOnExpression(ROUTED)
+    public MeterBinder connectionPoolMetrics(ConnectionPools connectionPools) {
+        return registry -> connectionPools.getPools().values().stream()
+                .filter(pool -> pool.getMetricsTrackerFactory() == null)
+                .forEach(pool -> pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+    }
+
+    /**
+     * Replaces the "db" health indicator, which would only check the connection it is routed to.
+     */
+    @Bean
+    @ConditionalOnExpression(ROUTED)
+    public HealthContributor dbHealthContributor(ConnectionPools connectionPools) {
+        Map<String, HealthContributor> pools = new LinkedHashMap<>();
+        connectionPools.getPools().forEach((name, pool) -> pools.put(name, new DataSourceHealthIndicator(pool)));
+        return CompositeHealthContributor.fromMap(pools);
+    }
+}
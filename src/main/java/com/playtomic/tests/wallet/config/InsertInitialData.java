@@ -1,14 +1,17 @@
 package com.playtomic.tests.wallet.config;
 
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
 import com.playtomic.tests.wallet.api.entity.Wallet;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
-import lombok.AllArgsConstructor;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.WalletBulkLoader;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -16,24 +19,46 @@ import java.util.stream.Stream;
 
 @Profile("develop")
 @Slf4j
-@AllArgsConstructor
 @Component
 public class InsertInitialData implements CommandLineRunner {
 
     private final WalletRepository walletRepository;
+    private final ShardRouter shardRouter;
+    private final WalletBulkLoader walletBulkLoader;
+    private final int syntheticWallets;
+    private final int syntheticEntriesPerWallet;
+
+    public InsertInitialData(WalletRepository walletRepository,
+                             ShardRouter shardRouter,
+                             WalletBulkLoader walletBulkLoader,
+                             @Value("${wallet.bulk.synthetic-wallets:0}") int syntheticWallets,
+                             @Value("${wallet.bulk.synthetic-entries-per-wallet:10}") int syntheticEntriesPerWallet) {
+        this.walletRepository = walletRepository;
+        this.shardRouter = shardRouter;
+        this.walletBulkLoader = walletBulkLoader;
+        this.syntheticWallets = syntheticWallets;
+        this.syntheticEntriesPerWallet = syntheticEntriesPerWallet;
+    }
 
     @Override
     public void run(String... args) throws Exception {
         log.info("Inserting initial Wallets into Database...");
 
+        // ids assigned up front: they decide the shard each Wallet is stored on
         List<Wallet> wallets = Stream.of(
-                        new Wallet(null, null, null,
-                                new BigDecimal(100), "1111 2222 3333 4444", new ArrayList<>()),
-                        new Wallet(null, null, null,
-                                new BigDecimal(500), "5555 6666 7777 8888", new ArrayList<>()))
+                        new Wallet(TimeOrderedUuidGenerator.next(), null, null,
+                                Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>()),
+                        new Wallet(TimeOrderedUuidGenerator.next(), null, null,
+                                Money.of("500.00"), "5555 6666 7777 8888", new ArrayList<>()))
                 .collect(Collectors.toList());
 
-        walletRepository.saveAll(wallets);
+        shardRouter.partition(wallets, Wallet::getId).forEach((shard, walletsOfShard) ->
+                shardRouter.onShard(shard, () -> walletRepository.saveAll(walletsOfShard)));
         log.info("Wallets successfully inserted");
+
+        // a large dataset goes through the bulk loader, saveAll would insert it entity by entity
+        if (syntheticWallets > 0) {
+            walletBulkLoader.loadSynthetic(syntheticWallets, syntheticEntriesPerWallet);
+        }
     }
 }
@@ -0,0 +1,34 @@
+package com.playtomic.tests.wallet.config;
+
+import com.playtomic.tests.wallet.api.service.ShardRebalancer;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the Wallets to their shards and exits, after wallet.sharding.shards was changed; run with the new shard list
+ * before the instances are restarted with it:
+ *
+ *   java -jar exercise-wallet.jar --spring.profiles.active=rebalance,... --spring.main.web-application-type=none
+ */
+@Profile("rebalance")
+@Slf4j
+@AllArgsConstructor
+@Component
+public class RebalanceShards implements CommandLineRunner {
+
+    private final ShardRebalancer shardRebalancer;
+    private final ConfigurableApplicationContext context;
+
+    @Override
+    public void run(String... args) {
+        log.info("Rebalancing the Wallets over the shards...");
+        int moved = shardRebalancer.rebalance();
+        log.info("Rebalancing done, {} Wallets moved", moved);
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
@@ -0,0 +1,50 @@
+package com.playtomic.tests.wallet.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+/**
+ * wallet.replica.enabled: read-only transactions use a pool of the replica, the rest a pool of the primary
+ * (spring.datasource), see ReplicaRoutingDataSource. With sharding, ShardingConfig does the same per shard.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class ReplicaConfig {
+
+    @Bean
+    @Primary
+    @ConditionalOnExpression("${wallet.replica.enabled:false} and !${wallet.sharding.enabled:false}")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties dataSourceProperties,
+                                                             ReplicaProperties replicaProperties,
+                                                             ConnectionPools connectionPools,
+                                                             Environment environment) {
+        HikariDataSource primary = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        connectionPools.add("primary", primary);
+        HikariDataSource replica = connectionPools.create("replica", replicaProperties.getUrl(),
+                replicaProperties.getUsername(), replicaProperties.getPassword(), replicaProperties.getMaximumPoolSize());
+        log.info("Read-only transactions use the replica {}", replicaProperties.getUrl());
+        return new ReplicaRoutingDataSource(primary, replica);
+    }
+
+    @Bean
+    @ConditionalOnProperty("wallet.replica.enabled")
+    public ReplicaTransactionManager transactionManager(ObjectProvider<TransactionManagerCustomizers> customizers) {
+        ReplicaTransactionManager transactionManager = new ReplicaTransactionManager();
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
+    }
+}
@@ -0,0 +1,19 @@
+package com.playtomic.tests.wallet.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * wallet.replica.*: the read replica of the database (spring.datasource) that read-only transactions are sent to,
+ * see ReplicaRoutingDataSource. With sharding, the replica of each shard is its replica-url instead.
+ */
+@Data
+@ConfigurationProperties("wallet.replica")
+public class ReplicaProperties {
+
+    private boolean enabled;
+    private String url;
+    private String username;
+    private String password;
+    private int maximumPoolSize = 10;
+}
@@ -0,0 +1,49 @@
+package com.playtomic.tests.wallet.config;
+
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Hands out connections of the replica to read-only transactions (@Transactional(readOnly = true), including
+ * SUPPORTS ones run without a transaction) and of the primary to everything else. Reads are sent to the primary
+ * anyway while ReplicaRouter forces it (a Wallet written moments ago, see read-your-writes).
+ *
+ * JPA takes the connection of a transaction while it begins, before the transaction is marked as read-only for
+ * the rest of the application, so ReplicaTransactionManager tells this class about it while it begins.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private static final ThreadLocal<Boolean> BEGINNING_READ_ONLY = new ThreadLocal<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Runs the beginning of a transaction, whose connection goes to the replica if it is read-only.
+     */
+    static void beginning(boolean readOnly, Runnable begin) {
+        BEGINNING_READ_ONLY.set(readOnly);
+        try {
+            begin.run();
+        } finally {
+            BEGINNING_READ_ONLY.remove();
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Boolean beginning = BEGINNING_READ_ONLY.get();
+        boolean readOnly = beginning != null ? beginning : TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        return readOnly && !ReplicaRouter.isPrimaryForced() ? REPLICA : PRIMARY;
+    }
+}
@@ -0,0 +1,15 @@
+package com.playtomic.tests.wallet.config;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * JpaTransactionManager that lets ReplicaRoutingDataSource route the connection taken when a transaction begins.
+ */
+public class ReplicaTransactionManager extends JpaTransactionManager {
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        ReplicaRoutingDataSource.beginning(definition.isReadOnly(), () -> super.doBegin(transaction, definition));
+    }
+}
@@ -0,0 +1,35 @@
+package com.playtomic.tests.wallet.config;
+
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * Hands out connections of the shard selected on the calling thread (ShardRouter.onShard / onShardOf).
+ *
+ * Until the application is ready, a connection taken without a selected shard comes from the first shard
+ * (Hibernate bootstrap, schema); after that it is an error, so a Wallet row can never be read from or written
+ * to a shard that does not own it because some code path forgot to select one.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private volatile boolean strict;
+
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardRouter.currentShard();
+    }
+
+    @Override
+    protected DataSource determineTargetDataSource() {
+        if (strict && ShardRouter.currentShard() == null) {
+            throw new IllegalStateException("No shard selected for this connection, see ShardRouter");
+        }
+        return super.determineTargetDataSource();
+    }
+}
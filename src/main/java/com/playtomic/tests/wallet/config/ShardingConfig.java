@@ -0,0 +1,97 @@
+package com.playtomic.tests.wallet.config;
+
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * wallet.sharding.enabled: one connection pool per shard (and one per replica of a shard, with wallet.replica.enabled)
+ * behind a routing DataSource (ShardRoutingDataSource), used by JPA, the JdbcTemplate and the transaction manager
+ * alike, and the schema (ddl-auto) applied to every shard, not only to the first one Hibernate boots against.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty("wallet.sharding.enabled")
+    public ShardRoutingDataSource shardRoutingDataSource(ShardingProperties properties,
+                                                         ReplicaProperties replicaProperties,
+                                                         ConnectionPools connectionPools) {
+        Map<Object, Object> shards = new HashMap<>();
+        List<ShardingProperties.Shard> configured = properties.getShards();
+        for (int i = 0; i < configured.size(); i++) {
+            ShardingProperties.Shard shard = configured.get(i);
+            DataSource primary = connectionPools.create("shard-" + shard.getName(), shard.getUrl(),
+                    shard.getUsername(), shard.getPassword(), shard.getMaximumPoolSize());
+            if (replicaProperties.isEnabled() && shard.getReplicaUrl() != null) {
+                DataSource replica = connectionPools.create("shard-" + shard.getName() + "-replica", shard.getReplicaUrl(),
+                        shard.getUsername(), shard.getPassword(), shard.getMaximumPoolSize());
+                primary = new ReplicaRoutingDataSource(primary, replica);
+            }
+            shards.put(i, primary);
+        }
+
+        ShardRoutingDataSource dataSource = new ShardRoutingDataSource();
+        dataSource.setTargetDataSources(shards);
+        dataSource.setDefaultTargetDataSource(shards.get(0));
+        dataSource.afterPropertiesSet();
+        log.info("Wallets are sharded over {}", properties.getShardNames());
+        return dataSource;
+    }
+
+    @Bean
+    @ConditionalOnProperty("wallet.sharding.enabled")
+    public ApplicationListener<ApplicationReadyEvent> strictShardRouting(ShardRoutingDataSource dataSource) {
+        return event -> dataSource.setStrict(true);
+    }
+
+    /**
+     * Hibernate creates / updates the schema (spring.jpa.hibernate.ddl-auto) on the shard it boots against;
+     * this runs the same schema management on the other shards.
+     */
+    @Bean
+    @ConditionalOnProperty("wallet.sharding.enabled")
+    public HibernatePropertiesCustomizer shardSchemaCustomizer(ShardRouter shardRouter) {
+        Integrator integrator = new Integrator() {
+            @Override
+            public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                                  SessionFactoryServiceRegistry serviceRegistry) {
+                Map<?, ?> settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+                for (int shard = 1; shard < shardRouter.getShardCount(); shard++) {
+                    shardRouter.onShard(shard, () -> {
+                        // drops on shutdown (create-drop) are left to the databases
+                        SchemaManagementToolCoordinator.process(metadata, serviceRegistry, settings, action -> { });
+                        return null;
+                    });
+                }
+            }
+
+            @Override
+            public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+            }
+        };
+        return properties -> properties.put("hibernate.integrator_provider", (IntegratorProvider) () -> List.of(integrator));
+    }
+}
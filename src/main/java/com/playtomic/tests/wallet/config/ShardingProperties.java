@@ -0,0 +1,37 @@
+package com.playtomic.tests.wallet.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * wallet.sharding.*: the databases the Wallets are spread over (see ShardRouter). The order of the shards does not
+ * matter, their names do: a Wallet's shard is derived from the names, so a shard must never be renamed.
+ */
+@Data
+@ConfigurationProperties("wallet.sharding")
+public class ShardingProperties {
+
+    private boolean enabled;
+    /** points of each shard on the hash ring; more points spread the Wallets more evenly */
+    private int virtualNodes = 256;
+    private List<Shard> shards = new ArrayList<>();
+
+    public List<String> getShardNames() {
+        return shards.stream().map(Shard::getName).collect(Collectors.toList());
+    }
+
+    @Data
+    public static class Shard {
+        private String name;
+        private String url;
+        /** read-only transactions go there with wallet.replica.enabled (same username and password) */
+        private String replicaUrl;
+        private String username;
+        private String password;
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,193 @@
+package com.playtomic.tests.wallet.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive (AIMD) limit of the concurrent calls to the payment provider, shared by StripeService and StripeServiceV2.
+ *
+ * Every call that answers within latency-threshold raises the limit by one, as long as the limit is actually used
+ * (at least half of it in flight). A timeout, a connection error, a 5xx or a call slower than latency-threshold
+ * multiplies it by backoff-ratio. The limit therefore follows the capacity of the gateway: it grows while calls stay
+ * fast and shrinks as soon as they queue up on the other side. Business errors (amount too small) say nothing about
+ * the load and leave it unchanged.
+ *
+ * Blocking callers over the limit wait up to max-wait (at most max-waiting of them), reactive callers do not wait;
+ * both are rejected with {@link StripeServiceOverloadedException}.
+ */
+@Component
+public class StripeConcurrencyLimiter implements MeterBinder {
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final long maxWaitNanos;
+    private final int maxWaiting;
+
+    private final LongAdder rejected = new LongAdder();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    public StripeConcurrencyLimiter(@Value("${stripe.simulator.adaptive-limit.enabled:true}") boolean enabled,
+                                    @Value("${stripe.simulator.adaptive-limit.initial-limit:10}") int initialLimit,
+                                    @Value("${stripe.simulator.adaptive-limit.min-limit:2}") int minLimit,
+                                    @Value("${stripe.simulator.adaptive-limit.max-limit:50}") int maxLimit,
+                                    @Value("${stripe.simulator.adaptive-limit.backoff-ratio:0.9}") double backoffRatio,
+                                    @Value("${stripe.simulator.adaptive-limit.latency-threshold-in-milliseconds:1000}") long latencyThreshold,
+                                    @Value("${stripe.simulator.adaptive-limit.max-wait-in-milliseconds:500}") long maxWait,
+                                    @Value("${stripe.simulator.adaptive-limit.max-waiting:50}") int maxWaiting) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.maxWaiting = maxWaiting;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public static StripeConcurrencyLimiter disabled() {
+        return new StripeConcurrencyLimiter(false, 1, 1, 1, 1, 0, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Threads a caller running blocking calls on a pool of its own needs so that the pool never caps the limit: the
+     * pool of fixedThreads when the limit is disabled, at least max-limit otherwise.
+     */
+    public int threadsFor(int fixedThreads) {
+        return enabled ? Math.max(fixedThreads, maxLimit) : fixedThreads;
+    }
+
+    /**
+     * Runs the blocking call within the limit, waiting up to max-wait for a slot.
+     */
+    public <T> T call(@NonNull Supplier<T> call) {
+        acquire();
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            release(start, null);
+            return result;
+        } catch (RuntimeException e) {
+            release(start, e);
+            throw e;
+        }
+    }
+
+    public void run(@NonNull Runnable call) {
+        call(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Subscribes to the call only if a slot is free right away; the slot is given back when it terminates.
+     */
+    public <T> Mono<T> limit(@NonNull Mono<T> call) {
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                rejected.increment();
+                return Mono.error(new StripeServiceOverloadedException());
+            }
+            long start = System.nanoTime();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            return call
+                    .doOnError(error::set)
+                    .doFinally(signal -> release(start, error.get()));
+        });
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stripe.concurrency.limit", this, StripeConcurrencyLimiter::getLimit)
+                .description("Current adaptive limit of concurrent calls to the payment provider")
+                .register(registry);
+        Gauge.builder("stripe.concurrency.in-flight", this, StripeConcurrencyLimiter::getInFlight)
+                .register(registry);
+        FunctionCounter.builder("stripe.concurrency.rejected", this, StripeConcurrencyLimiter::getRejected)
+                .description("Calls rejected because the limit was reached")
+                .register(registry);
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    private synchronized void acquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return;
+        }
+        if (waiting >= maxWaiting) {
+            rejected.increment();
+            throw new StripeServiceOverloadedException();
+        }
+
+        waiting++;
+        try {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected.increment();
+                    throw new StripeServiceOverloadedException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StripeServiceOverloadedException();
+        } finally {
+            waiting--;
+        }
+    }
+
+    private synchronized void release(long start, Throwable error) {
+        boolean inUse = inFlight * 2 >= limit;
+        inFlight--;
+
+        boolean dropped = error != null && !(error instanceof StripeAmountTooSmallException);
+        if (dropped || System.nanoTime() - start > latencyThresholdNanos) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inUse) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        notifyAll();
+    }
+}
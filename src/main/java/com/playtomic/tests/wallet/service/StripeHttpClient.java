@@ -0,0 +1,111 @@
+package com.playtomic.tests.wallet.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled, keep-alive HTTP connections to the payment provider, for the RestTemplate of StripeService.
+ *
+ * Connections are reused across charges (no TCP/TLS handshake per call), kept alive for as long as the server
+ * allows (keep-alive when it does not say), and closed by a background evictor once idle or expired.
+ * Pool usage is published as httpcomponents.httpclient.pool.* metrics tagged httpclient=stripe.
+ */
+@Slf4j
+@Component
+public class StripeHttpClient implements MeterBinder {
+
+    private final boolean enabled;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ClientHttpRequestFactory requestFactory;
+
+    public StripeHttpClient(@Value("${stripe.simulator.pool.enabled:true}") boolean enabled,
+                            @Value("${stripe.simulator.pool.max-connections:50}") int maxConnections,
+                            @Value("${stripe.simulator.pool.max-connections-per-route:20}") int maxConnectionsPerRoute,
+                            @Value("${stripe.simulator.pool.keep-alive-in-milliseconds:30000}") long keepAlive,
+                            @Value("${stripe.simulator.pool.idle-eviction-in-milliseconds:10000}") long idleEviction,
+                            @Value("${stripe.simulator.pool.connect-timeout-in-milliseconds:1000}") int connectTimeout,
+                            @Value("${stripe.simulator.pool.read-timeout-in-milliseconds:3000}") int readTimeout,
+                            @Value("${stripe.simulator.pool.acquire-timeout-in-milliseconds:500}") int acquireTimeout) {
+        this.enabled = enabled;
+        this.connectionManager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        // a connection idle for a while may have been closed by the server: check it before reusing it
+        this.connectionManager.setValidateAfterInactivity(1000);
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long fromServer = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return fromServer > 0 ? Math.min(fromServer, keepAlive) : keepAlive;
+        };
+
+        if (enabled) {
+            this.httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(connectTimeout)
+                            .setSocketTimeout(readTimeout)
+                            .setConnectionRequestTimeout(acquireTimeout)
+                            .build())
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleEviction, TimeUnit.MILLISECONDS)
+                    .build();
+            this.requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        } else {
+            this.httpClient = null;
+            this.requestFactory = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Request factory backed by the pool; null when pooling is disabled (RestTemplate default then).
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        return requestFactory;
+    }
+
+    public PoolStats stats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (enabled) {
+            new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "stripe").bindTo(registry);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (httpClient == null) {
+            return;
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Could not close the Stripe HTTP client", e);
+        }
+    }
+}
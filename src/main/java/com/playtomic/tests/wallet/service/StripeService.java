@@ -1,6 +1,7 @@
 package com.playtomic.tests.wallet.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.playtomic.tests.wallet.api.entity.Money;
 import com.sun.istack.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
@@ -8,6 +9,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
@@ -34,11 +36,20 @@ public class StripeService {
     @NonNull
     private RestTemplate restTemplate;
 
+    @NonNull
+    private StripeConcurrencyLimiter concurrencyLimiter;
+
     public StripeService(@Value("${stripe.simulator.charges-uri}") @NonNull URI chargesUri,
                          @Value("${stripe.simulator.refunds-uri}") @NonNull URI refundsUri,
-                         @NotNull RestTemplateBuilder restTemplateBuilder) {
+                         @NotNull RestTemplateBuilder restTemplateBuilder,
+                         @NonNull StripeHttpClient stripeHttpClient,
+                         @NonNull StripeConcurrencyLimiter concurrencyLimiter) {
         this.chargesUri = chargesUri;
         this.refundsUri = refundsUri;
+        this.concurrencyLimiter = concurrencyLimiter;
+        if (stripeHttpClient.isEnabled()) {
+            restTemplateBuilder = restTemplateBuilder.requestFactory(stripeHttpClient::requestFactory);
+        }
         this.restTemplate =
                 restTemplateBuilder
                 .errorHandler(new StripeRestTemplateResponseErrorHandler())
@@ -54,11 +65,21 @@ public class StripeService {
      * @param amount The amount that will be charged.
      *
      * @throws StripeServiceException
+     * @throws StripeServiceOverloadedException when the adaptive concurrency limit is reached
+     * @throws StripeServiceTimeoutException when no answer is read, the charge may have been made
      */
-    public void charge(@NonNull String creditCardNumber, @NonNull BigDecimal amount) throws StripeServiceException {
-        ChargeRequest body = new ChargeRequest(creditCardNumber, amount);
-        // Object.class because we don't read the body here.
-        restTemplate.postForObject(chargesUri, body, Object.class);
+    public void charge(@NonNull String creditCardNumber, @NonNull Money amount) throws StripeServiceException {
+        ChargeRequest body = new ChargeRequest(creditCardNumber, amount.toDecimal());
+        try {
+            // Object.class because we don't read the body here.
+            if (concurrencyLimiter.isEnabled()) {
+                concurrencyLimiter.run(() -> restTemplate.postForObject(chargesUri, body, Object.class));
+            } else {
+                restTemplate.postForObject(chargesUri, body, Object.class);
+            }
+        } catch (ResourceAccessException e) {
+            throw new StripeServiceTimeoutException();
+        }
     }
 
     /**
@@ -0,0 +1,7 @@
+package com.playtomic.tests.wallet.service;
+
+/**
+ * The adaptive concurrency limit of calls to Stripe is reached: the call is rejected without being sent.
+ */
+public class StripeServiceOverloadedException extends StripeServiceException {
+}
@@ -0,0 +1,8 @@
+package com.playtomic.tests.wallet.service;
+
+/**
+ * No answer from Stripe in time (timed out, interrupted or the connection broke): unlike the other
+ * StripeServiceExceptions, the charge may or may not have been made.
+ */
+public class StripeServiceTimeoutException extends StripeServiceException {
+}
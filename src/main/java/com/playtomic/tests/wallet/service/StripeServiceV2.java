@@ -1,7 +1,10 @@
 package com.playtomic.tests.wallet.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.playtomic.tests.wallet.api.entity.Money;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
 import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -10,6 +13,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.Exceptions;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.client.HttpClient;
 
@@ -19,8 +24,8 @@ import java.time.Duration;
 
 /**
  * Handles the communication with Stripe using Spring Webclient.
- * Here in the blocking mode, only to follow the given design paradigm.
- * Should be in non-blocking mode.
+ * {@link #charge} is the blocking mode, only to follow the given design paradigm.
+ * {@link #chargeReactive} is the non-blocking mode, used by the V3 API.
  */
 
 @Slf4j
@@ -36,11 +41,21 @@ public class StripeServiceV2 {
     @NonNull
     private WebClient client;
 
+    @NonNull
+    private io.github.resilience4j.bulkhead.Bulkhead bulkhead;
+
+    @NonNull
+    private StripeConcurrencyLimiter concurrencyLimiter;
+
     public StripeServiceV2(@Value("${stripe.simulator.charges-uri}") @NonNull URI chargesUri,
                            @Value("${stripe.simulator.refunds-uri}") @NonNull URI refundsUri,
-                           @Value("${stripe.simulator.timeout-in-milliseconds}") @NonNull int timeout) {
+                           @Value("${stripe.simulator.timeout-in-milliseconds}") @NonNull int timeout,
+                           @NonNull BulkheadRegistry bulkheadRegistry,
+                           @NonNull StripeConcurrencyLimiter concurrencyLimiter) {
         this.chargesUri = chargesUri;
         this.refundsUri = refundsUri;
+        this.bulkhead = bulkheadRegistry.bulkhead("stripeService");
+        this.concurrencyLimiter = concurrencyLimiter;
         HttpClient httpClient = HttpClient.create()
                 .responseTimeout(Duration.ofMillis(timeout));
         this.client = WebClient.builder()
@@ -48,16 +63,51 @@ public class StripeServiceV2 {
                 .build();
     }
 
-    @Bulkhead(name = "stripeService")
-    public void charge(@NonNull String creditCardNumber, @NonNull BigDecimal amount) throws StripeServiceException {
-        ChargeRequestV2 body = new ChargeRequestV2(creditCardNumber, amount);
-        client.post()
+    /**
+     * Blocking charge, within the adaptive concurrency limit (or the fixed "stripeService" bulkhead when the
+     * adaptive limit is disabled).
+     */
+    public void charge(@NonNull String creditCardNumber, @NonNull Money amount) throws StripeServiceException {
+        try {
+            if (concurrencyLimiter.isEnabled()) {
+                concurrencyLimiter.call(() -> chargeRequest(creditCardNumber, amount).block());
+            } else {
+                bulkhead.executeSupplier(() -> chargeRequest(creditCardNumber, amount).block());
+            }
+        } catch (RuntimeException e) {
+            if (Exceptions.unwrap(e) instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new StripeServiceTimeoutException();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking charge: no thread waits for Stripe. Same limit as {@link #charge}, in its reactor form
+     * (rejects with StripeServiceOverloadedException / BulkheadFullException instead of waiting for a permit).
+     * Failures other than {@link StripeAmountTooSmallException} and {@link StripeServiceTimeoutException} are
+     * signalled as {@link StripeServiceException}.
+     */
+    public Mono<Void> chargeReactive(@NonNull String creditCardNumber, @NonNull Money amount) {
+        Mono<Object> charge = chargeRequest(creditCardNumber, amount)
+                .onErrorMap(e -> !(e instanceof StripeServiceException), e -> new StripeServiceException());
+        return (concurrencyLimiter.isEnabled()
+                ? concurrencyLimiter.limit(charge)
+                : charge.transformDeferred(BulkheadOperator.of(bulkhead)))
+                .then();
+    }
+
+    private Mono<Object> chargeRequest(String creditCardNumber, Money amount) {
+        ChargeRequestV2 body = new ChargeRequestV2(creditCardNumber, amount.toDecimal());
+        return client.post()
                 .uri(chargesUri)
                 .body(Mono.just(body), ChargeRequestV2.class)
                 .retrieve()
                 .onStatus(status -> status.value() == 422, res -> Mono.error(new StripeAmountTooSmallException()))
                 .bodyToMono(Object.class)
-                .block();
+                // sent, or maybe sent, but no answer read (response timeout, connection reset)
+                .onErrorMap(WebClientRequestException.class, e -> new StripeServiceTimeoutException());
     }
 
     @Bulkhead(name = "stripeService")
@@ -0,0 +1,23 @@
+-- Creates the charge_command table, the transactional outbox of the OUTBOX top-up mode, see TopUpOutbox.
+-- The schema is created by Hibernate (ddl-auto) on fresh databases and no migration tool runs this script: run it
+-- by hand, once, on an existing PostgreSQL database (every shard, with the application stopped) before deploying:
+--
+--   psql "$WALLET_DATABASE_URL" -v ON_ERROR_STOP=1 -f src/main/sql/charge-command.sql
+--
+-- Run it BEFORE money-minor-units.sql, which converts the amount column created here.
+
+BEGIN;
+
+CREATE TABLE charge_command (
+    top_up_id          UUID PRIMARY KEY,
+    sequence_number    BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    created_on         TIMESTAMP,
+    wallet_id          UUID NOT NULL,
+    amount             NUMERIC(19, 2) NOT NULL,
+    credit_card_number VARCHAR(255) NOT NULL,
+    attempts           INTEGER NOT NULL
+);
+
+CREATE INDEX idx_charge_command_sequence ON charge_command (sequence_number);
+
+COMMIT;
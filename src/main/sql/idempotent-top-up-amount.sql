@@ -0,0 +1,10 @@
+-- Stores the amount of a top-up with its Idempotency-Key, so that the key is not replayed for another amount (see
+-- IdempotencyStore). The schema is created by Hibernate (ddl-auto) on fresh databases and no migration tool runs this
+-- script: run it by hand, once, on an existing PostgreSQL database (every shard) before deploying:
+--
+--   psql "$WALLET_DATABASE_URL" -v ON_ERROR_STOP=1 -f src/main/sql/idempotent-top-up-amount.sql
+--
+-- The keys stored before keep a null amount and are replayed for any amount, as they were, until they expire
+-- (wallet.idempotency.ttl-in-milliseconds). Run it after money-minor-units.sql: the amount is in minor units.
+
+ALTER TABLE idempotent_top_up ADD COLUMN amount BIGINT;
@@ -0,0 +1,27 @@
+-- Adds the ledger schema of the LEDGER balance mode: typed wallet_transaction entries with a database-assigned
+-- sequence_number, and the wallet_snapshot table, see BalanceProjection.
+-- The schema is created by Hibernate (ddl-auto) on fresh databases and no migration tool runs this script: run it
+-- by hand, once, on an existing PostgreSQL database (every shard, with the application stopped) before deploying:
+--
+--   psql "$WALLET_DATABASE_URL" -v ON_ERROR_STOP=1 -f src/main/sql/ledger-schema.sql
+--
+-- Run it BEFORE money-minor-units.sql, which converts the amount and balance columns added here. Existing entries
+-- keep a null type and amount, the ledger ignores them; they are numbered in an arbitrary order.
+
+BEGIN;
+
+ALTER TABLE wallet_transaction
+    ADD COLUMN type VARCHAR(16),
+    ADD COLUMN amount NUMERIC(19, 2),
+    ADD COLUMN sequence_number BIGINT GENERATED BY DEFAULT AS IDENTITY;
+
+CREATE INDEX idx_wallet_transaction_wallet_sequence ON wallet_transaction (wallet_id, sequence_number);
+
+CREATE TABLE wallet_snapshot (
+    wallet_id       UUID PRIMARY KEY,
+    balance         NUMERIC(19, 2) NOT NULL,
+    sequence_number BIGINT NOT NULL,
+    updated_on      TIMESTAMP
+);
+
+COMMIT;
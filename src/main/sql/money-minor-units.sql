@@ -0,0 +1,33 @@
+-- Moves the money columns from NUMERIC (units, scale 2) to BIGINT minor units (cents), see Money.
+-- The schema is created by Hibernate (ddl-auto) on fresh databases and no migration tool runs this script: run it
+-- by hand, once, on an existing PostgreSQL database (every shard, with the application stopped) before deploying:
+--
+--   psql "$WALLET_DATABASE_URL" -v ON_ERROR_STOP=1 -f src/main/sql/money-minor-units.sql
+--
+-- Run it after ledger-schema.sql and charge-command.sql, which add columns and tables it converts.
+-- All amounts have at most two decimals, so ROUND only drops the ".0" of the NUMERIC result.
+
+BEGIN;
+
+ALTER TABLE wallet
+    ALTER COLUMN balance TYPE BIGINT USING ROUND(balance * 100),
+    ADD COLUMN currency CHAR(3) NOT NULL DEFAULT 'EUR';
+
+ALTER TABLE wallet_transaction
+    ALTER COLUMN amount TYPE BIGINT USING ROUND(amount * 100),
+    ALTER COLUMN old_balance TYPE BIGINT USING ROUND(old_balance * 100),
+    ALTER COLUMN new_balance TYPE BIGINT USING ROUND(new_balance * 100);
+
+ALTER TABLE wallet_snapshot
+    ALTER COLUMN balance TYPE BIGINT USING ROUND(balance * 100);
+
+ALTER TABLE top_up
+    ALTER COLUMN amount TYPE BIGINT USING ROUND(amount * 100);
+
+ALTER TABLE charge_command
+    ALTER COLUMN amount TYPE BIGINT USING ROUND(amount * 100);
+
+ALTER TABLE idempotent_top_up
+    ALTER COLUMN balance TYPE BIGINT USING ROUND(balance * 100);
+
+COMMIT;
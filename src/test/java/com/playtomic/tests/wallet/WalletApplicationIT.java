@@ -1,6 +1,7 @@
 package com.playtomic.tests.wallet;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.playtomic.tests.wallet.api.entity.Money;
 import com.playtomic.tests.wallet.api.entity.Wallet;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
 import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
@@ -17,10 +18,10 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
-import java.math.BigDecimal;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -32,7 +33,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 @WireMockTest(httpPort = 9999)
 @AutoConfigureMockMvc
-@SpringBootTest
+@SpringBootTest(properties = "wallet.cache.enabled=true")
 //@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
 public class WalletApplicationIT {
@@ -54,13 +55,13 @@ public class WalletApplicationIT {
 	public void test_exception() {
 		stubFor(post("/").willReturn(status(422)));
 		Assertions.assertThrows(StripeAmountTooSmallException.class,
-				() -> s.charge("4242 4242 4242 4242", new BigDecimal(5)));
+				() -> s.charge("4242 4242 4242 4242", Money.of("5")));
 	}
 
 	@Test
 	public void test_ok() throws StripeServiceException {
 		stubFor(post("/").willReturn(ok()));
-		s.charge("4242 4242 4242 4242", new BigDecimal(15));
+		s.charge("4242 4242 4242 4242", Money.of("15"));
 	}
 
 	@Sql("/wallets_01.sql")
@@ -94,7 +95,7 @@ public class WalletApplicationIT {
 				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 
 		Optional<Wallet> optional = walletRepository.findById(id);
-		assertEquals(new BigDecimal("400.00"), optional.get().getBalance());
+		assertEquals(Money.of("400.00"), optional.get().getBalance());
 	}
 
 	@Sql("/wallets_03.sql")
@@ -114,7 +115,7 @@ public class WalletApplicationIT {
 				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 
 		Optional<Wallet> optional = walletRepository.findById(id);
-		assertEquals(new BigDecimal("100.00"), optional.get().getBalance());
+		assertEquals(Money.of("100.00"), optional.get().getBalance());
 	}
 
 	@Sql("/wallets_04.sql")
@@ -135,7 +136,7 @@ public class WalletApplicationIT {
 				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 
 		Optional<Wallet> optional = walletRepository.findById(id);
-		assertEquals(new BigDecimal("100.00"), optional.get().getBalance());
+		assertEquals(Money.of("100.00"), optional.get().getBalance());
 	}
 
 
@@ -157,8 +158,156 @@ public class WalletApplicationIT {
 				.andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 
 		Optional<Wallet> optional = walletRepository.findById(id);
-		assertEquals(new BigDecimal("100.00"), optional.get().getBalance());
+		assertEquals(Money.of("100.00"), optional.get().getBalance());
 
 	}
 
+	@Sql("/wallets_07.sql")
+	@Test
+	@DisplayName("Should update Wallet with given amount of money through the reactive V3 API")
+	public void addMoneyToWallet_reactive() throws Exception {
+		UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e7");
+
+		stubFor(post("/").willReturn(ok()));
+
+		String json = "{ \"amount\": 300 }";
+
+		MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.post("/v3/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66e7")
+						.contentType(MediaType.APPLICATION_JSON_VALUE)
+						.content(json))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted())
+				.andReturn();
+
+		this.mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(jsonPath("$.balance").value(400));
+
+		Optional<Wallet> optional = walletRepository.findById(id);
+		assertEquals(Money.of("400.00"), optional.get().getBalance());
+	}
+
+	@Sql("/wallets_08.sql")
+	@Test
+	@DisplayName("Should return status 400 through the reactive V3 API and leave the amount in the database unchanged")
+	public void addMoneyToWallet_reactive_withLessAmount() throws Exception {
+		UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e8");
+
+		stubFor(post("/").willReturn(status(422)));
+
+		String json = "{ \"amount\": 5 }";
+
+		MvcResult result = this.mockMvc.perform(MockMvcRequestBuilders.post("/v3/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66e8")
+						.contentType(MediaType.APPLICATION_JSON_VALUE)
+						.content(json))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted())
+				.andReturn();
+
+		this.mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+				.andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+		Optional<Wallet> optional = walletRepository.findById(id);
+		assertEquals(Money.of("100.00"), optional.get().getBalance());
+	}
+
+	@Sql("/wallets_09.sql")
+	@Test
+	@DisplayName("Should charge only once when the same top-up is retried with the same Idempotency-Key, and reject another amount")
+	public void addMoneyToWallet_withIdempotencyKey() throws Exception {
+		UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e9");
+
+		stubFor(post("/").willReturn(ok()));
+
+		String json = "{ \"amount\": 300 }";
+
+		for (int i = 0; i < 3; i++) {
+			this.mockMvc.perform(MockMvcRequestBuilders.post("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66e9")
+							.header("Idempotency-Key", "retry-me")
+							.contentType(MediaType.APPLICATION_JSON_VALUE)
+							.content(json))
+					.andExpect(MockMvcResultMatchers.status().isOk())
+					.andExpect(jsonPath("$.balance").value(400));
+		}
+		this.mockMvc.perform(MockMvcRequestBuilders.post("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66e9")
+						.header("Idempotency-Key", "retry-me")
+						.contentType(MediaType.APPLICATION_JSON_VALUE)
+						.content("{ \"amount\": 200 }"))
+				.andExpect(MockMvcResultMatchers.status().isUnprocessableEntity());
+
+		Optional<Wallet> optional = walletRepository.findById(id);
+		assertEquals(Money.of("400.00"), optional.get().getBalance());
+		verify(1, postRequestedFor(urlEqualTo("/"))
+				.withRequestBody(containing("1111 2222 3333 9999")));
+	}
+
+	@Sql("/wallets_10.sql")
+	@Test
+	@DisplayName("Should return the new balance from GET right after a top-up, although the Wallet was cached before")
+	public void getWalletById_afterTopUp() throws Exception {
+		stubFor(post("/").willReturn(ok()));
+
+		this.mockMvc.perform(get("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb6610"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(jsonPath("$.balance").value(100));
+
+		this.mockMvc.perform(MockMvcRequestBuilders.post("/v2/wallets/d4ebba32-bebb-42fc-9caf-e71023fb6610")
+						.contentType(MediaType.APPLICATION_JSON_VALUE)
+						.content("{ \"amount\": 300 }"))
+				.andExpect(MockMvcResultMatchers.status().isOk());
+
+		this.mockMvc.perform(get("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb6610"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(jsonPath("$.balance").value(400));
+	}
+
+	@Sql("/wallets_11.sql")
+	@Test
+	@DisplayName("Should page through and export as NDJSON the 10000 transactions of the Wallet")
+	public void getTransactions() throws Exception {
+		this.mockMvc.perform(get("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb6611/transactions").param("size", "100"))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(jsonPath("$.content.length()").value(100))
+				.andExpect(jsonPath("$.nextCursor").isNotEmpty());
+
+		MvcResult result = this.mockMvc.perform(get("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb6611/transactions")
+						.accept("application/x-ndjson"))
+				.andExpect(MockMvcResultMatchers.request().asyncStarted())
+				.andReturn();
+
+		String body = this.mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		assertEquals(10000, body.split("\n").length);
+	}
+
+	@Sql("/wallets_12.sql")
+	@Test
+	@DisplayName("Should top-up several Wallets in one request and report the failed ones without applying them")
+	public void addMoneyToWallets() throws Exception {
+		UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb6612");
+
+		stubFor(post("/").willReturn(ok()));
+		stubFor(post("/").withRequestBody(containing("1111 2222 3333 0422")).willReturn(status(422)));
+
+		String json = "{ \"topUps\": [ " +
+				"{ \"walletId\": \"d4ebba32-bebb-42fc-9caf-e71023fb6612\", \"amount\": 100 }, " +
+				"{ \"walletId\": \"d4ebba32-bebb-42fc-9caf-e71023fb6613\", \"amount\": 100 }, " +
+				"{ \"walletId\": \"d4ebba32-bebb-42fc-9caf-e71023fb6699\", \"amount\": 100 }, " +
+				"{ \"walletId\": \"d4ebba32-bebb-42fc-9caf-e71023fb6612\", \"amount\": 50 } ] }";
+
+		this.mockMvc.perform(MockMvcRequestBuilders.post("/v1/wallets/top-ups")
+						.contentType(MediaType.APPLICATION_JSON_VALUE)
+						.content(json))
+				.andExpect(MockMvcResultMatchers.status().isOk())
+				.andExpect(jsonPath("$[0].status").value(200))
+				.andExpect(jsonPath("$[0].balance").value(200))
+				.andExpect(jsonPath("$[1].status").value(400))
+				.andExpect(jsonPath("$[2].status").value(404))
+				.andExpect(jsonPath("$[3].status").value(200))
+				.andExpect(jsonPath("$[3].balance").value(250));
+
+		assertEquals(Money.of("250.00"), walletRepository.findById(id).get().getBalance());
+		assertEquals(Money.of("100.00"),
+				walletRepository.findById(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb6613")).get().getBalance());
+	}
+
 }
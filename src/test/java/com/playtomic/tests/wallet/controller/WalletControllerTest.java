@@ -1,7 +1,14 @@
 package com.playtomic.tests.wallet.controller;
 
 import com.playtomic.tests.wallet.api.controller.WalletController;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.request.BulkTopUpRequest;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.TopUpResultDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.response.WalletTransactionDto;
+import com.playtomic.tests.wallet.api.service.IdempotencyStore;
+import com.playtomic.tests.wallet.api.service.TransactionHistoryService;
 import com.playtomic.tests.wallet.api.service.WalletService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -17,15 +24,24 @@ import org.springframework.data.web.PageableHandlerMethodArgumentResolver;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -38,10 +54,16 @@ public class WalletControllerTest {
     @Mock
     private WalletService walletService;
 
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    @Mock
+    private TransactionHistoryService transactionHistoryService;
+
     @BeforeEach
     void setUp() {
         mockMvc = MockMvcBuilders
-                .standaloneSetup(new WalletController(walletService))
+                .standaloneSetup(new WalletController(walletService, idempotencyStore, transactionHistoryService))
                 .setCustomArgumentResolvers(new PageableHandlerMethodArgumentResolver())
                 .build();
     }
@@ -88,13 +110,109 @@ public class WalletControllerTest {
         assertEquals(25, pageable.getPageSize());
     }
 
+    @Test
+    @DisplayName("Should return a keyset page of WalletDtos with the cursor of the next page")
+    void getWalletsAfter() throws Exception {
+        CursorPage<WalletDto> page = new CursorPage<>(Collections.singletonList(createWalletDto()), "next-cursor");
+        when(walletService.getPage("some-cursor", 25)).thenReturn(page);
+
+        this.mockMvc.perform(get("/v1/wallets")
+                        .param("cursor", "some-cursor")
+                        .param("size", "25"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(jsonPath("$.content[0].id").value("d4ebba32-bebb-42fc-9caf-e71023fb66ef"))
+                .andExpect(jsonPath("$.nextCursor").value("next-cursor"));
+
+        verify(walletService, never()).getAll(any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Should return a keyset page of the Wallet transactions")
+    void getTransactions() throws Exception {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletTransactionDto transaction = new WalletTransactionDto(UUID.randomUUID(), Instant.parse("2022-01-01T00:00:00Z"),
+                Money.ZERO, Money.of("10"));
+        when(transactionHistoryService.getPage(id, "", 10))
+                .thenReturn(new CursorPage<>(Collections.singletonList(transaction), null));
+
+        this.mockMvc.perform(get("/v1/wallets/{id}/transactions", id))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(jsonPath("$.content[0].newBalance").value(10))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+
+        verify(transactionHistoryService, never()).export(any(UUID.class));
+    }
+
+    @Test
+    @DisplayName("Should stream the Wallet transactions as NDJSON when asked for application/x-ndjson")
+    void exportTransactions() throws Exception {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        when(transactionHistoryService.export(id)).thenReturn(out -> {
+            try {
+                out.write("{\"a\":1}\n{\"a\":2}\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        MvcResult result = this.mockMvc.perform(get("/v1/wallets/{id}/transactions", id)
+                        .accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"a\":1}\n{\"a\":2}\n"));
+    }
+
+    @Test
+    @DisplayName("Should return one result per top-up of a bulk request")
+    void addMoneyToWallets() throws Exception {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        when(walletService.addToWallets(anyList())).thenReturn(List.of(
+                new TopUpResultDto(id, Money.of("100"), 200, Money.of("600"), null),
+                new TopUpResultDto(id, Money.of("5"), 400, null, "Amount is less then minimal")));
+
+        this.mockMvc.perform(post("/v1/wallets/top-ups")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content("{ \"topUps\": [ { \"walletId\": \"" + id + "\", \"amount\": 100 }, " +
+                                "{ \"walletId\": \"" + id + "\", \"amount\": 5 } ] }"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[0].balance").value(600))
+                .andExpect(jsonPath("$[1].status").value(400));
+
+        verify(walletService, times(1)).addToWallets(List.of(
+                new BulkTopUpRequest.TopUp(id, new BigDecimal(100)),
+                new BulkTopUpRequest.TopUp(id, new BigDecimal(5))));
+    }
+
+    @Test
+    @DisplayName("Should reject a bulk request without top-ups or with a non positive amount")
+    void addMoneyToWallets_invalid() throws Exception {
+        this.mockMvc.perform(post("/v1/wallets/top-ups")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content("{ \"topUps\": [] }"))
+                .andExpect(status().isBadRequest());
+
+        this.mockMvc.perform(post("/v1/wallets/top-ups")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content("{ \"topUps\": [ { \"walletId\": \"d4ebba32-bebb-42fc-9caf-e71023fb66ef\", \"amount\": -1 } ] }"))
+                .andExpect(status().isBadRequest());
+
+        verify(walletService, never()).addToWallets(anyList());
+    }
+
     @Test
     @DisplayName("Should call WalletService to update Wallet with given amount of money")
     void addMoneyToWallet() throws Exception {
         WalletDto walletDto = createWalletDto();
         String json = "{ \"amount\": 300 }";
 
-        when(walletService.addToWallet(any(UUID.class), any(BigDecimal.class))).thenReturn(walletDto);
+        when(walletService.addToWallet(any(UUID.class), any(Money.class))).thenReturn(walletDto);
 
         this.mockMvc.perform(post("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66ef")
                         .contentType(MediaType.APPLICATION_JSON_VALUE)
@@ -103,7 +221,27 @@ public class WalletControllerTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
 
         verify(walletService, times(1))
-                .addToWallet(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef"), new BigDecimal(300));
+                .addToWallet(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef"), Money.of("300"));
+    }
+
+    @Test
+    @DisplayName("Should go through the IdempotencyStore when the Idempotency-Key header is present")
+    void addMoneyToWallet_withIdempotencyKey() throws Exception {
+        WalletDto walletDto = createWalletDto();
+        String json = "{ \"amount\": 300 }";
+
+        when(idempotencyStore.execute(eq("key-1"), any(UUID.class), eq(Money.of("300")), any())).thenReturn(walletDto);
+
+        this.mockMvc.perform(post("/v1/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66ef")
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(json))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(500));
+
+        verify(idempotencyStore, times(1))
+                .execute(eq("key-1"), eq(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef")), eq(Money.of("300")), any());
+        verify(walletService, never()).addToWallet(any(UUID.class), any(Money.class));
     }
 
     @Test
@@ -121,7 +259,7 @@ public class WalletControllerTest {
     private WalletDto createWalletDto() {
         UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
         String creditCardNumber = "1111 2222 3333 4444";
-        BigDecimal balance = new BigDecimal(500);
+        Money balance = Money.of("500");
         return new WalletDto(id, balance, creditCardNumber);
     }
 }
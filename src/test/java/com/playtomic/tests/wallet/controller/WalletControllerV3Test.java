@@ -0,0 +1,99 @@
+package com.playtomic.tests.wallet.controller;
+
+import com.playtomic.tests.wallet.api.controller.WalletControllerV3;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.GlobalExceptionHandler;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.WalletServiceV3;
+import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+public class WalletControllerV3Test {
+
+    private MockMvc mockMvc;
+
+    @Mock
+    private WalletServiceV3 walletService;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new WalletControllerV3(walletService))
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @Test
+    @DisplayName("Should return WalletDto with provided identifier asynchronously")
+    void getWalletById() throws Exception {
+        when(walletService.getById(any(UUID.class))).thenReturn(Mono.just(createWalletDto()));
+
+        MvcResult result = this.mockMvc.perform(get("/v3/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66ef"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(jsonPath("$.id").value("d4ebba32-bebb-42fc-9caf-e71023fb66ef"))
+                .andExpect(jsonPath("$.balance").value(500));
+    }
+
+    @Test
+    @DisplayName("Should call WalletServiceV3 to update Wallet and return the result asynchronously")
+    void addMoneyToWallet() throws Exception {
+        when(walletService.addToWallet(any(UUID.class), any(Money.class))).thenReturn(Mono.just(createWalletDto()));
+
+        MvcResult result = this.mockMvc.perform(post("/v3/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66ef")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content("{ \"amount\": 300 }"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(500));
+
+        verify(walletService, times(1))
+                .addToWallet(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef"), Money.of("300"));
+    }
+
+    @Test
+    @DisplayName("Should return 400 Bad request when Stripe rejects the amount")
+    void addMoneyToWallet_withLessAmount() throws Exception {
+        when(walletService.addToWallet(any(UUID.class), any(Money.class)))
+                .thenReturn(Mono.error(new StripeAmountTooSmallException()));
+
+        MvcResult result = this.mockMvc.perform(post("/v3/wallets/d4ebba32-bebb-42fc-9caf-e71023fb66ef")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content("{ \"amount\": 5 }"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest());
+    }
+
+    private WalletDto createWalletDto() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        return new WalletDto(id, Money.of("500"), "1111 2222 3333 4444");
+    }
+}
@@ -0,0 +1,78 @@
+package com.playtomic.tests.wallet.load;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stand-in of the Stripe simulator for the load test: answers every charge with a 422 (amount too small) with
+ * probability rejection-rate, not before timeout-delay with probability timeout-rate, and with a 200 after a delay
+ * of the given distribution otherwise.
+ *
+ * Configured with system properties:
+ * load.stripe.latency-distribution (lognormal, uniform or fixed), load.stripe.latency-median-in-milliseconds
+ * (lognormal and fixed), load.stripe.latency-sigma (lognormal), load.stripe.latency-min-in-milliseconds and
+ * load.stripe.latency-max-in-milliseconds (uniform), load.stripe.rejection-rate, load.stripe.timeout-rate,
+ * load.stripe.timeout-delay-in-milliseconds.
+ */
+public class StripeSimulator extends ResponseDefinitionTransformer {
+
+    private final String latencyDistribution = System.getProperty("load.stripe.latency-distribution", "lognormal");
+    private final double latencyMedian = Double.parseDouble(System.getProperty("load.stripe.latency-median-in-milliseconds", "100"));
+    private final double latencySigma = Double.parseDouble(System.getProperty("load.stripe.latency-sigma", "0.5"));
+    private final int latencyMin = Integer.getInteger("load.stripe.latency-min-in-milliseconds", 50);
+    private final int latencyMax = Integer.getInteger("load.stripe.latency-max-in-milliseconds", 300);
+    private final double rejectionRate = Double.parseDouble(System.getProperty("load.stripe.rejection-rate", "0.05"));
+    private final double timeoutRate = Double.parseDouble(System.getProperty("load.stripe.timeout-rate", "0.01"));
+    private final int timeoutDelay = Integer.getInteger("load.stripe.timeout-delay-in-milliseconds", 5000);
+
+    private final LongAdder charges = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    @Override
+    public ResponseDefinition transform(Request request, ResponseDefinition responseDefinition,
+                                        FileSource files, Parameters parameters) {
+        charges.increment();
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < rejectionRate) {
+            rejections.increment();
+            return ResponseDefinitionBuilder.like(responseDefinition).but().withStatus(422).build();
+        }
+        if (draw < rejectionRate + timeoutRate) {
+            timeouts.increment();
+            return ResponseDefinitionBuilder.like(responseDefinition).but().withFixedDelay(timeoutDelay).build();
+        }
+
+        ResponseDefinitionBuilder response = ResponseDefinitionBuilder.like(responseDefinition).but();
+        switch (latencyDistribution) {
+            case "lognormal":
+                return response.withLogNormalRandomDelay(latencyMedian, latencySigma).build();
+            case "uniform":
+                return response.withUniformRandomDelay(latencyMin, latencyMax).build();
+            case "fixed":
+                return response.withFixedDelay((int) latencyMedian).build();
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution " + latencyDistribution);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "stripe-simulator";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("latency=%s (median=%.0fms, sigma=%.2f, min=%dms, max=%dms), rejection-rate=%.3f, " +
+                        "timeout-rate=%.3f (%dms) | charges=%d, 422=%d, timeouts=%d",
+                latencyDistribution, latencyMedian, latencySigma, latencyMin, latencyMax, rejectionRate,
+                timeoutRate, timeoutDelay, charges.sum(), rejections.sum(), timeouts.sum());
+    }
+}
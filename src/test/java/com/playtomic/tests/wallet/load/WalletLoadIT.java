@@ -0,0 +1,220 @@
+package com.playtomic.tests.wallet.load;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Load test of the whole application against a local Stripe stand-in ({@link StripeSimulator}), to size
+ * stripe.simulator.number-of-threads, the bulkhead and the adaptive limit before a release. Excluded from the
+ * normal build, run with:
+ *
+ *   mvn -P load-test verify -Dload.rps=200 -Dload.duration-in-seconds=60 -Dstripe.simulator.number-of-threads=8
+ *
+ * Requests are sent at a fixed rate (open model), load.top-up-ratio of them are top-ups of load.amount on
+ * /{load.api}/wallets/{id} and the rest GET /v1/wallets/{id}, over load.wallets Wallets. Latencies are measured
+ * from the time a request was due, so a slow server is not hidden by a slow sender. Requests beyond
+ * load.max-in-flight outstanding ones are dropped by the sender. Any spring property (-Dwallet.top-up-mode=...)
+ * is passed on to the application.
+ *
+ * The test fails only if a Wallet's final balance differs from its initial balance plus its successful (200)
+ * top-ups; the OUTBOX mode, which answers 202 and settles later, is not covered by this check.
+ */
+@Slf4j
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class WalletLoadIT {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+
+    private static final StripeSimulator STRIPE_SIMULATOR = new StripeSimulator();
+
+    @RegisterExtension
+    static WireMockExtension stripe = WireMockExtension.newInstance()
+            .options(wireMockConfig().port(9999).containerThreads(500).disableRequestJournal()
+                    .extensions(STRIPE_SIMULATOR))
+            .build();
+
+    private final int rps = Integer.getInteger("load.rps", 100);
+    private final int durationInSeconds = Integer.getInteger("load.duration-in-seconds", 30);
+    private final int walletCount = Integer.getInteger("load.wallets", 50);
+    private final double topUpRatio = Double.parseDouble(System.getProperty("load.top-up-ratio", "0.3"));
+    private final String api = System.getProperty("load.api", "v1");
+    private final BigDecimal amount = new BigDecimal(System.getProperty("load.amount", "15"));
+    private final int maxInFlight = Integer.getInteger("load.max-in-flight", 1000);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(Executors.newFixedThreadPool(16))
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final Stats gets = new Stats();
+    private final Stats topUps = new Stats();
+    private final Map<UUID, LongAdder> appliedTopUps = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    @Test
+    @DisplayName("Should keep the balances of the Wallets consistent under the configured load")
+    void load() throws Exception {
+        stripe.stubFor(post("/").willReturn(ok()));
+        List<UUID> ids = createWallets();
+
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        long total = (long) rps * durationInSeconds;
+        AtomicLong sent = new AtomicLong();
+        Phaser outstanding = new Phaser(1);
+        ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+
+        sender.scheduleAtFixedRate(() -> {
+            long i = sent.getAndIncrement();
+            if (i >= total) {
+                return;
+            }
+            long due = start + i * periodNanos;
+            UUID id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                dropped.increment();
+                return;
+            }
+            outstanding.register();
+            boolean topUp = ThreadLocalRandom.current().nextDouble() < topUpRatio;
+            send(topUp ? topUpRequest(id) : getRequest(id), topUp ? topUps : gets, due, topUp ? id : null, outstanding);
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        while (sent.get() < total) {
+            Thread.sleep(100);
+        }
+        sender.shutdownNow();
+        outstanding.awaitAdvanceInterruptibly(outstanding.arriveAndDeregister(), 60, TimeUnit.SECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        report(elapsed);
+        for (UUID id : ids) {
+            BigDecimal expected = INITIAL_BALANCE.add(
+                    amount.multiply(BigDecimal.valueOf(appliedTopUps.getOrDefault(id, new LongAdder()).sum())));
+            assertEquals(0, expected.compareTo(walletRepository.findById(id).orElseThrow().getBalance().toDecimal()),
+                    "Balance of the Wallet with id=" + id);
+        }
+    }
+
+    private List<UUID> createWallets() {
+        List<Wallet> wallets = new ArrayList<>();
+        for (int i = 0; i < walletCount; i++) {
+            wallets.add(new Wallet(null, null, null, Money.of(INITIAL_BALANCE), "4242 4242 4242 4242", new ArrayList<>()));
+        }
+        List<UUID> ids = new ArrayList<>();
+        walletRepository.saveAll(wallets).forEach(wallet -> ids.add(wallet.getId()));
+        return ids;
+    }
+
+    private HttpRequest getRequest(UUID id) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/v1/wallets/" + id))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+    }
+
+    private HttpRequest topUpRequest(UUID id) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/" + api + "/wallets/" + id))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{ \"amount\": " + amount + " }"))
+                .build();
+    }
+
+    private void send(HttpRequest request, Stats stats, long due, UUID toppedUp, Phaser outstanding) {
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, e) -> {
+                    stats.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+                    String outcome = e != null ? e.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                    stats.outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+                    if (e != null || response.statusCode() >= 300) {
+                        stats.samples.putIfAbsent(outcome, e != null ? String.valueOf(e.getMessage()) : response.body());
+                    }
+                    if (toppedUp != null && response != null && response.statusCode() == 200) {
+                        appliedTopUps.computeIfAbsent(toppedUp, id -> new LongAdder()).increment();
+                    }
+                    inFlight.decrementAndGet();
+                    outstanding.arriveAndDeregister();
+                });
+    }
+
+    private void report(double elapsed) {
+        log.info("Load test: {} rps for {}s, {} Wallets, top-up ratio {} on /{}, {}s elapsed, {} dropped by the sender",
+                rps, durationInSeconds, walletCount, topUpRatio, api, String.format("%.1f", elapsed), dropped.sum());
+        log.info("Stripe simulator: {}", STRIPE_SIMULATOR);
+        gets.report("GET   ", elapsed);
+        topUps.report("TOP-UP", elapsed);
+    }
+
+    private static class Stats {
+
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        /** first response body (or exception message) of every unsuccessful outcome */
+        private final Map<String, String> samples = new ConcurrentHashMap<>();
+
+        private void report(String name, double elapsed) {
+            Map<String, Long> byOutcome = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> byOutcome.put(outcome, count.sum()));
+            long rejected = byOutcome.getOrDefault("503", 0L) + byOutcome.getOrDefault("429", 0L);
+            log.info("{}: {} requests, {} req/s, latency ms p50={} p90={} p99={} p99.9={} max={}, rejected={}, outcomes={}",
+                    name, latencies.getTotalCount(), String.format("%.1f", latencies.getTotalCount() / elapsed),
+                    millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                    millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                    millis(latencies.getMaxValue()), rejected, byOutcome);
+            samples.forEach((outcome, sample) -> log.info("{}: {} -> {}", name, outcome, sample));
+        }
+
+        private static String millis(long micros) {
+            return String.format("%.1f", micros / 1000.0);
+        }
+    }
+}
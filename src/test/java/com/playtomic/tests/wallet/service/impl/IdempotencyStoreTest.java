@@ -0,0 +1,192 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.IdempotentTopUp;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.IdempotencyKeyMismatchException;
+import com.playtomic.tests.wallet.api.repository.IdempotentTopUpRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.IdempotencyStore;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+public class IdempotencyStoreTest {
+
+    private static final UUID WALLET_ID = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+    private static final Money AMOUNT = Money.of("300");
+
+    @Mock
+    private IdempotentTopUpRepository repository;
+
+    @Test
+    @DisplayName("Should run the top-up only once and replay the stored response for the same key")
+    void execute_replay() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+
+        WalletDto first = store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+        WalletDto second = store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+
+        assertEquals(1, calls.get());
+        assertEquals(first, second);
+        verify(repository, times(1)).insert(anyString(), any(UUID.class), eq(30000L), eq(60000L), anyString());
+        verify(repository, times(1)).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("Should fall back to the persisted response when the key was evicted from memory")
+    void execute_evicted() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 1, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+
+        store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+        store.execute("key-2", WALLET_ID, AMOUNT, () -> topUp(calls));
+
+        when(repository.findById(WALLET_ID + ":key-1")).thenReturn(Optional.of(new IdempotentTopUp(
+                WALLET_ID + ":key-1", Instant.now(), WALLET_ID, AMOUNT, Money.of("600"), "1111 2222 3333 4444")));
+
+        WalletDto replayed = store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+
+        assertEquals(2, calls.get());
+        assertEquals(Money.of("600"), replayed.getBalance());
+    }
+
+    @Test
+    @DisplayName("Should run the top-up again when the stored response expired")
+    void execute_expired() {
+        IdempotencyStore store = new IdempotencyStore(-1, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+
+        store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+        store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    @DisplayName("Should NOT store failed top-ups, so they can be retried")
+    void execute_failure() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(StripeServiceException.class, () -> store.execute("key-1", WALLET_ID, AMOUNT, () -> {
+            throw new StripeServiceException();
+        }));
+        store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+
+        assertEquals(1, calls.get());
+        verify(repository, times(1)).insert(anyString(), any(UUID.class), eq(30000L), eq(60000L), anyString());
+    }
+
+    @Test
+    @DisplayName("Should run the top-up only once when concurrent requests carry the same key")
+    void execute_concurrent() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<WalletDto>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return store.execute("key-1", WALLET_ID, AMOUNT, () -> {
+                    sleep(100);
+                    return topUp(calls);
+                });
+            }));
+        }
+        start.countDown();
+
+        for (Future<WalletDto> future : futures) {
+            assertEquals(Money.of("600"), future.get(5, TimeUnit.SECONDS).getBalance());
+        }
+        executor.shutdown();
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("Should reject a key replayed with another amount, remembered or persisted")
+    void execute_otherAmount() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+
+        store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls));
+        assertThrows(IdempotencyKeyMismatchException.class,
+                () -> store.execute("key-1", WALLET_ID, Money.of("300.01"), () -> topUp(calls)));
+
+        when(repository.findById(WALLET_ID + ":key-2")).thenReturn(Optional.of(new IdempotentTopUp(
+                WALLET_ID + ":key-2", Instant.now(), WALLET_ID, AMOUNT, Money.of("600"), "1111 2222 3333 4444")));
+        assertThrows(IdempotencyKeyMismatchException.class,
+                () -> store.execute("key-2", WALLET_ID, Money.of("200"), () -> topUp(calls)));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    @DisplayName("Should replay a key persisted without its amount for any amount")
+    void execute_persistedWithoutAmount() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+        WalletDto stored = new WalletDto(WALLET_ID, Money.of("900"), "1111 2222 3333 4444");
+
+        when(repository.findById(WALLET_ID + ":key-1")).thenReturn(Optional.of(new IdempotentTopUp(
+                WALLET_ID + ":key-1", Instant.now(), WALLET_ID, null, stored.getBalance(), stored.getCreditCardNumber())));
+
+        assertEquals(stored, store.execute("key-1", WALLET_ID, Money.of("200"), () -> topUp(calls)));
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    @DisplayName("Should return the response stored first when another instance inserted the same key concurrently")
+    void execute_insertedByAnotherInstance() {
+        IdempotencyStore store = new IdempotencyStore(60_000, 10, repository, ShardRouter.single());
+        AtomicInteger calls = new AtomicInteger();
+        WalletDto stored = new WalletDto(WALLET_ID, Money.of("900"), "1111 2222 3333 4444");
+
+        when(repository.insert(anyString(), any(UUID.class), anyLong(), anyLong(), anyString()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+        when(repository.findById(WALLET_ID + ":key-1"))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(new IdempotentTopUp(WALLET_ID + ":key-1", Instant.now(), WALLET_ID, AMOUNT,
+                        stored.getBalance(), stored.getCreditCardNumber())));
+
+        assertEquals(stored, store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls)));
+        assertEquals(stored, store.execute("key-1", WALLET_ID, AMOUNT, () -> topUp(calls)));
+        assertEquals(1, calls.get());
+    }
+
+    private static WalletDto topUp(AtomicInteger calls) {
+        calls.incrementAndGet();
+        return new WalletDto(WALLET_ID, Money.of("600"), "1111 2222 3333 4444");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
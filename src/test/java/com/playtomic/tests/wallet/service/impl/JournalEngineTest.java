@@ -0,0 +1,269 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.exceptions.InvalidAmountException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.JournalEngine;
+import com.playtomic.tests.wallet.api.service.JournalProjection;
+import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.service.StripeService;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JOURNAL balance update mode: balances applied in memory once journaled, the database projected afterwards.
+ */
+@SpringBootTest(properties = {
+        "wallet.balance-update-mode=JOURNAL",
+        "wallet.journal.segment-size-in-megabytes=1",
+        "wallet.journal.projection-interval-in-milliseconds=60000"
+})
+@ActiveProfiles("test")
+public class JournalEngineTest {
+
+    private static final Path JOURNAL = temporaryDirectory();
+    private static final String CREDIT_CARD_NUMBER = "4242 4242 4242 4242";
+    /** header and payload of a ledger entry, the record opening a Wallet also has the credit card number */
+    private static final int ENTRY_SIZE = 8 + 8 + 8 + 1 + 16 + 8 + 2;
+
+    @DynamicPropertySource
+    static void journalDirectory(DynamicPropertyRegistry registry) {
+        registry.add("wallet.journal.directory", JOURNAL::toString);
+    }
+
+    @TempDir
+    Path directory;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private JournalProjection journalProjection;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private StripeService stripeService;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    @AfterEach
+    void tearDown() {
+        journalProjection.project();
+        walletTransactionRepository.deleteAll();
+        topUpRepository.deleteAll();
+        walletRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Should apply concurrent top-ups in memory at once and project them into the database afterwards")
+    void addToWallet_concurrent() throws Exception {
+        UUID id = wallet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 25; j++) {
+                    walletService.addToWallet(id, Money.of("10"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(Money.of("2100.00"), walletService.getById(id).getBalance());
+        assertEquals(Money.of("100.00"), walletRepository.findById(id).orElseThrow().getBalance());
+
+        assertEquals(200, journalProjection.project());
+        assertEquals(0, journalProjection.getLag());
+        assertEquals(0, Money.of("2100.00").compareTo(walletRepository.findById(id).orElseThrow().getBalance()));
+        assertEquals(200, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM wallet_transaction WHERE wallet_id = ? AND type = 'TOP_UP'", Integer.class, id));
+        assertEquals(2100_00L, jdbcTemplate.queryForObject(
+                "SELECT MAX(new_balance) FROM wallet_transaction WHERE wallet_id = ?", Long.class, id));
+    }
+
+    @Test
+    @DisplayName("Should leave the TopUp PENDING, not CONFIRMED, when its entry can not be appended to the journal")
+    void addToWallet_appendFails() {
+        // the entry would overflow the balance: the engine rejects it
+        UUID id = walletRepository.save(new Wallet(null, null, null, Money.ofMinorUnits(Long.MAX_VALUE - 5),
+                CREDIT_CARD_NUMBER, new ArrayList<>())).getId();
+
+        assertThrows(InvalidAmountException.class, () -> walletService.addToWallet(id, Money.of("0.10")));
+
+        List<TopUp> topUps = topUpRepository.findAll();
+        assertEquals(1, topUps.size());
+        assertEquals(TopUpStatus.PENDING, topUps.get(0).getStatus());
+        assertEquals(Money.ofMinorUnits(Long.MAX_VALUE - 5), walletService.getById(id).getBalance());
+    }
+
+    @Test
+    @DisplayName("Should rebuild the balances from the journal and project only what the checkpoint is missing")
+    void restart_replaysJournal() {
+        UUID id = wallet();
+        JournalProjection projection = projection();
+        JournalEngine engine = engine(directory, projection, true);
+        engine.start();
+        engine.append(id, LedgerEntryType.TOP_UP, Money.of("15.00"));
+        assertEquals(1, projection.project());
+        engine.append(id, LedgerEntryType.TOP_UP, Money.of("5.00"));
+        engine.stop();
+
+        JournalProjection restartedProjection = projection();
+        JournalEngine restarted = engine(directory, restartedProjection, true);
+        restarted.start();
+        assertEquals(Money.of("120.00"), restarted.get(id).getBalance());
+        assertEquals(1, restartedProjection.project());
+        restarted.stop();
+
+        assertEquals(0, Money.of("120.00").compareTo(walletRepository.findById(id).orElseThrow().getBalance()));
+        assertEquals(2, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM wallet_transaction WHERE wallet_id = ?", Integer.class, id));
+
+        JournalProjection projectionAgain = projection();
+        JournalEngine again = engine(directory, projectionAgain, true);
+        again.start();
+        assertEquals(0, projectionAgain.getLag());
+        again.stop();
+    }
+
+    @Test
+    @DisplayName("Should drop a torn record at the end of the journal and go on appending after the last complete one")
+    void restart_tornRecord() throws IOException {
+        UUID id = wallet();
+        JournalEngine engine = engine(directory, projection(), true);
+        engine.start();
+        for (int i = 0; i < 3; i++) {
+            engine.append(id, LedgerEntryType.TOP_UP, Money.of("1"));
+        }
+        engine.stop();
+
+        // the third entry was being written when the process died
+        Path segment = segments(directory).get(0);
+        long opening = ENTRY_SIZE + CREDIT_CARD_NUMBER.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(opening + 2 * ENTRY_SIZE + 30);
+            file.write(0xff);
+        }
+
+        JournalEngine restarted = engine(directory, projection(), true);
+        restarted.start();
+        assertEquals(Money.of("102.00"), restarted.get(id).getBalance());
+        assertEquals(Money.of("107.00"), restarted.append(id, LedgerEntryType.TOP_UP, Money.of("5.00")).getBalance());
+        restarted.stop();
+
+        JournalEngine again = engine(directory, projection(), true);
+        again.start();
+        assertEquals(Money.of("107.00"), again.get(id).getBalance());
+        again.stop();
+    }
+
+    @Test
+    @DisplayName("Should roll over to a new segment when one is full and replay all of them")
+    void append_rollsSegments() throws Exception {
+        UUID id = wallet();
+        JournalEngine engine = engine(directory, projection(), false);
+        engine.start();
+        int entries = 1024 * 1024 / ENTRY_SIZE + 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < entries / 8; j++) {
+                    engine.append(id, LedgerEntryType.TOP_UP, Money.of("0.01"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        engine.stop();
+
+        assertEquals(2, segments(directory).size());
+        JournalEngine restarted = engine(directory, projection(), false);
+        restarted.start();
+        assertEquals(Money.of("100.00").plus(Money.ofMinorUnits(entries / 8 * 8)),
+                restarted.get(id).getBalance());
+        restarted.stop();
+    }
+
+    private UUID wallet() {
+        return walletRepository.save(
+                new Wallet(null, null, null, Money.of("100.00"), CREDIT_CARD_NUMBER, new ArrayList<>())).getId();
+    }
+
+    private JournalProjection projection() {
+        return new JournalProjection(BalanceUpdateMode.JOURNAL, 1000, transactionManager, jdbcTemplate);
+    }
+
+    private JournalEngine engine(Path directory, JournalProjection projection, boolean fsync) {
+        return new JournalEngine(BalanceUpdateMode.JOURNAL, directory.toString(), 1, fsync, 64, 1024, projection,
+                walletRepository);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".journal")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static Path temporaryDirectory() {
+        try {
+            Path directory = Files.createTempDirectory("journal");
+            directory.toFile().deleteOnExit();
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
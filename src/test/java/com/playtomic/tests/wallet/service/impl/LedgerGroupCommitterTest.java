@@ -0,0 +1,224 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = "wallet.group-commit.enabled=true")
+@ActiveProfiles("test")
+public class LedgerGroupCommitterTest {
+
+    @Autowired
+    private LedgerGroupCommitter ledgerGroupCommitter;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        walletTransactionRepository.deleteAll();
+        topUpRepository.deleteAll();
+        walletRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Should apply concurrent top-ups to several Wallets with a consistent ledger")
+    void settle_concurrent() throws Exception {
+        List<UUID> walletIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            walletIds.add(walletRepository.save(
+                    new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>())).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        List<Future<WalletDto>> futures = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            TopUp topUp = topUpRepository.save(new TopUp(walletIds.get(i % 4), Money.of("10")));
+            futures.add(executor.submit(() -> ledgerGroupCommitter.settle(topUp)));
+        }
+        for (Future<WalletDto> future : futures) {
+            assertNotNull(future.get(30, TimeUnit.SECONDS).getBalance());
+        }
+        executor.shutdown();
+
+        for (UUID walletId : walletIds) {
+            assertEquals(0, Money.of("1100.00").compareTo(walletRepository.findById(walletId).get().getBalance()));
+        }
+        assertTrue(topUpRepository.findAll().stream().allMatch(t -> t.getStatus() == TopUpStatus.CONFIRMED));
+
+        Map<UUID, List<WalletTransaction>> ledger = walletTransactionRepository.findAll().stream()
+                .collect(Collectors.groupingBy(t -> t.getWallet().getId()));
+        for (List<WalletTransaction> transactions : ledger.values()) {
+            assertEquals(100, transactions.size());
+            // every balance between 100 and 1100 is seen exactly once as an old and as a new balance
+            Set<Money> oldBalances = transactions.stream().map(WalletTransaction::getOldBalance).collect(Collectors.toSet());
+            Set<Money> newBalances = transactions.stream().map(WalletTransaction::getNewBalance).collect(Collectors.toSet());
+            assertEquals(100, oldBalances.size());
+            assertEquals(100, newBalances.size());
+            assertTrue(oldBalances.contains(Money.of("100")));
+            assertTrue(newBalances.contains(Money.of("1100")));
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail only the TopUp that is no longer PENDING")
+    void settle_notPending() {
+        UUID walletId = walletRepository.save(
+                new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>())).getId();
+        TopUp failed = new TopUp(walletId, Money.of("10"));
+        failed.setStatus(TopUpStatus.FAILED);
+        TopUp failedTopUp = topUpRepository.save(failed);
+        TopUp pendingTopUp = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+
+        CompletableFuture<WalletDto> first = CompletableFuture.supplyAsync(() -> ledgerGroupCommitter.settle(failedTopUp));
+        CompletableFuture<WalletDto> second = CompletableFuture.supplyAsync(() -> ledgerGroupCommitter.settle(pendingTopUp));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof StripeServiceException);
+        assertEquals(0, Money.of("110.00").compareTo(assertDoesNotThrow(() -> second.get(10, TimeUnit.SECONDS)).getBalance()));
+        assertEquals(1, walletTransactionRepository.count());
+    }
+
+    @Test
+    @DisplayName("Should settle a list of TopUps synchronously and report the failure of the one that is no longer PENDING")
+    void settleAll() {
+        UUID walletId = walletRepository.save(
+                new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>())).getId();
+        TopUp failed = new TopUp(walletId, Money.of("10"));
+        failed.setStatus(TopUpStatus.FAILED);
+        List<TopUp> topUps = List.of(topUpRepository.save(new TopUp(walletId, Money.of("10"))),
+                topUpRepository.save(failed),
+                topUpRepository.save(new TopUp(walletId, Money.of("1"))));
+
+        List<CompletableFuture<WalletDto>> results = ledgerGroupCommitter.settleAll(topUps);
+
+        assertEquals(0, Money.of("110.00").compareTo(results.get(0).join().getBalance()));
+        CompletionException e = assertThrows(CompletionException.class, () -> results.get(1).join());
+        assertTrue(e.getCause() instanceof StripeServiceException);
+        assertEquals(0, Money.of("111.00").compareTo(results.get(2).join().getBalance()));
+        assertEquals(2, walletTransactionRepository.count());
+    }
+
+    @Test
+    @DisplayName("Should stop waiting after the settle timeout, leaving a TopUp not taken by the writer PENDING")
+    void settle_timeout() {
+        CountDownLatch commit = new CountDownLatch(1);
+        LedgerGroupCommitter blocked = new LedgerGroupCommitter(true, 1, 0, 10, 200, jdbcTemplate,
+                waitingFor(commit), ShardRouter.single());
+        try {
+            UUID walletId = walletRepository.save(
+                    new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>())).getId();
+            TopUp taken = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+            TopUp queued = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> blocked.settle(taken));
+            assertTrue(e.getMessage().endsWith("within 200ms, it may still be"), e.getMessage());
+            e = assertThrows(IllegalStateException.class, () -> blocked.settle(queued));
+            assertTrue(e.getMessage().endsWith("within 200ms, left PENDING"), e.getMessage());
+            assertEquals(TopUpStatus.PENDING, topUpRepository.findById(queued.getId()).get().getStatus());
+        } finally {
+            blocked.stop();
+            commit.countDown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail the queued TopUps when stopped, and reject the later ones")
+    void stop() throws Exception {
+        CountDownLatch commit = new CountDownLatch(1);
+        LedgerGroupCommitter blocked = new LedgerGroupCommitter(true, 1, 0, 10, 10_000, jdbcTemplate,
+                waitingFor(commit), ShardRouter.single());
+        UUID walletId = walletRepository.save(
+                new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>())).getId();
+        List<CompletableFuture<WalletDto>> waiting = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TopUp topUp = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+            waiting.add(CompletableFuture.supplyAsync(() -> blocked.settle(topUp)));
+        }
+        // one taken by the writer, waiting to commit, the others queued behind it
+        Thread.sleep(200);
+
+        blocked.stop();
+
+        // the one taken fails to begin its transaction, the queued ones are failed by stop()
+        int stopped = 0;
+        for (CompletableFuture<WalletDto> result : waiting) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(2, TimeUnit.SECONDS));
+            if (e.getCause().getMessage().startsWith("Group commit stopped")) {
+                stopped++;
+            }
+        }
+        assertEquals(2, stopped);
+        TopUp later = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> blocked.settle(later));
+        assertTrue(e.getMessage().startsWith("Group commit stopped"), e.getMessage());
+        assertTrue(topUpRepository.findAll().stream().allMatch(t -> t.getStatus() == TopUpStatus.PENDING));
+        assertEquals(0, walletTransactionRepository.count());
+    }
+
+    /**
+     * Transactions that begin only once commit is released (or fail when interrupted while waiting for it).
+     */
+    private PlatformTransactionManager waitingFor(CountDownLatch commit) {
+        return new PlatformTransactionManager() {
+            @Override
+            public TransactionStatus getTransaction(TransactionDefinition definition) {
+                try {
+                    commit.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CannotCreateTransactionException("Interrupted", e);
+                }
+                return transactionManager.getTransaction(definition);
+            }
+
+            @Override
+            public void commit(TransactionStatus status) {
+                transactionManager.commit(status);
+            }
+
+            @Override
+            public void rollback(TransactionStatus status) {
+                transactionManager.rollback(status);
+            }
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.InvalidAmountException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    @Test
+    @DisplayName("Should convert amounts with up to two decimals to cents and back")
+    void toMinorUnits() {
+        assertEquals(1000, Money.toMinorUnits(BigDecimal.TEN));
+        assertEquals(1050, Money.toMinorUnits(new BigDecimal("10.5")));
+        assertEquals(1, Money.toMinorUnits(new BigDecimal("0.010")));
+        assertEquals(999999999999999L, Money.toMinorUnits(Money.MAX_AMOUNT));
+        assertEquals(new BigDecimal("10.50"), Money.toDecimal(1050));
+    }
+
+    @Test
+    @DisplayName("Should reject amounts with more than two decimals instead of rounding them")
+    void toMinorUnits_tooManyDecimals() {
+        assertThrows(InvalidAmountException.class, () -> Money.toMinorUnits(new BigDecimal("10.005")));
+    }
+
+    @Test
+    @DisplayName("Should reject amounts beyond the maximum")
+    void toMinorUnits_tooLarge() {
+        assertThrows(InvalidAmountException.class, () -> Money.toMinorUnits(Money.MAX_AMOUNT.add(new BigDecimal("0.01"))));
+        assertThrows(InvalidAmountException.class, () -> Money.toMinorUnits(new BigDecimal("1e30")));
+    }
+
+    @Test
+    @DisplayName("Should fail a sum overflowing a long instead of wrapping around")
+    void add_overflow() {
+        assertEquals(300, Money.add(100, 200));
+        assertThrows(InvalidAmountException.class, () -> Money.add(Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    @DisplayName("Should compare and add amounts by their minor units, whatever the scale they were written with")
+    void plus() {
+        assertEquals(Money.of("10.5"), Money.of(new BigDecimal("10.50")));
+        assertEquals(Money.ofMinorUnits(1075), Money.of("10.50").plus(Money.of("0.25")));
+        assertEquals(Money.of("-0.25"), Money.of("10.25").minus(Money.of("10.50")));
+        assertTrue(Money.of("0.01").compareTo(Money.ZERO) > 0);
+        assertThrows(InvalidAmountException.class, () -> Money.ofMinorUnits(Long.MAX_VALUE).plus(Money.of("0.01")));
+    }
+
+    @Test
+    @DisplayName("Should be written to and read from JSON as a decimal number")
+    void json() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        assertEquals("10.50", objectMapper.writeValueAsString(Money.ofMinorUnits(1050)));
+        assertEquals(Money.ofMinorUnits(1050), objectMapper.readValue("10.5", Money.class));
+    }
+}
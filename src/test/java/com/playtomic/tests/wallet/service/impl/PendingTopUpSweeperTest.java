@@ -0,0 +1,60 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.service.PendingTopUpSweeper;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest
+public class PendingTopUpSweeperTest {
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    @DisplayName("Should mark only the TopUps stuck in PENDING as UNKNOWN, not FAILED")
+    void sweep() {
+        UUID walletId = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e1");
+        TopUp pending = topUpRepository.save(new TopUp(walletId, Money.of("10")));
+        TopUp confirmed = new TopUp(walletId, Money.of("20"));
+        confirmed.setStatus(TopUpStatus.CONFIRMED);
+        confirmed = topUpRepository.save(confirmed);
+        entityManager.flush();
+
+        // negative timeout: everything created up to now is considered stuck
+        int swept = new PendingTopUpSweeper(-1000, topUpRepository, ShardRouter.single()).sweep();
+        entityManager.clear();
+
+        assertEquals(1, swept);
+        assertEquals(TopUpStatus.UNKNOWN, topUpRepository.findById(pending.getId()).get().getStatus());
+        assertEquals(TopUpStatus.CONFIRMED, topUpRepository.findById(confirmed.getId()).get().getStatus());
+    }
+
+    @Test
+    @DisplayName("Should leave recent PENDING TopUps untouched")
+    void sweep_recent() {
+        TopUp pending = topUpRepository.save(
+                new TopUp(UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e1"), Money.of("10")));
+        entityManager.flush();
+
+        int swept = new PendingTopUpSweeper(60_000, topUpRepository, ShardRouter.single()).sweep();
+        entityManager.clear();
+
+        assertEquals(0, swept);
+        assertEquals(TopUpStatus.PENDING, topUpRepository.findById(pending.getId()).get().getStatus());
+    }
+}
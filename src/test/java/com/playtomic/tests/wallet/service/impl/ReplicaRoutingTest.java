@@ -0,0 +1,131 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.service.StripeService;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Read-only transactions served by a replica, a second H2 database that is not replicated to: its rows are stale
+ * copies written by the test.
+ */
+@SpringBootTest(properties = {
+        "wallet.replica.enabled=true",
+        "wallet.replica.url=" + ReplicaRoutingTest.REPLICA_URL,
+        "wallet.replica.username=sa",
+        "wallet.replica.read-your-writes-window-in-milliseconds=500",
+        "wallet.cache.enabled=false"
+})
+@ActiveProfiles("test")
+public class ReplicaRoutingTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @MockBean
+    private StripeService stripeService;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    @BeforeEach
+    void setUp() {
+        replica.execute("CREATE TABLE IF NOT EXISTS wallet (id UUID PRIMARY KEY, created_on TIMESTAMP NOT NULL, " +
+                "updated_on TIMESTAMP, balance BIGINT, currency VARCHAR(3) NOT NULL, credit_card_number VARCHAR(255))");
+    }
+
+    @AfterEach
+    void tearDown() {
+        replica.update("DELETE FROM wallet");
+        walletRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Should read the Wallets from the replica")
+    void reads_fromReplica() {
+        UUID id = createWallet(Money.of("100.00"), Money.of("90.00"));
+
+        assertEquals(Money.of("90.00"), walletService.getById(id).getBalance());
+        assertEquals(1, walletService.getAll(PageRequest.of(0, 10)).getTotalElements());
+        assertEquals(0, walletService.getPage(null, 10).getContent().stream()
+                .filter(wallet -> wallet.getId().equals(id))
+                .map(WalletDto::getBalance)
+                .findFirst().orElseThrow()
+                .compareTo(Money.of("90.00")));
+        // outside of a read-only transaction
+        assertEquals(10000L, jdbcTemplate.queryForObject("SELECT balance FROM wallet WHERE id = ?", Long.class, id));
+    }
+
+    @Test
+    @DisplayName("Should read a Wallet topped up on this instance from the primary during the read-your-writes window")
+    void getById_readYourWrites() throws InterruptedException {
+        UUID toppedUp = createWallet(Money.of("100.00"), Money.of("100.00"));
+        UUID other = createWallet(Money.of("50.00"), Money.of("40.00"));
+
+        walletService.addToWallet(toppedUp, Money.of("15.00"));
+
+        assertEquals(Money.of("115.00"), walletService.getById(toppedUp).getBalance());
+        assertEquals(Money.of("40.00"), walletService.getById(other).getBalance());
+
+        Thread.sleep(600);
+        assertEquals(Money.of("100.00"), walletService.getById(toppedUp).getBalance());
+    }
+
+    @Test
+    @DisplayName("Should publish the metrics of the primary and of the replica pool")
+    void poolMetrics() {
+        createWallet(Money.of("100.00"), Money.of("100.00"));
+        walletService.getAll(PageRequest.of(0, 10));
+
+        assertNotNull(meterRegistry.find("hikaricp.connections").tag("pool", "primary").gauge());
+        assertNotNull(meterRegistry.find("hikaricp.connections").tag("pool", "replica").gauge());
+    }
+
+    /**
+     * Wallet with the given balance on the primary and a stale one on the replica.
+     */
+    private UUID createWallet(Money balance, Money replicaBalance) {
+        Wallet wallet = walletRepository.save(new Wallet(TimeOrderedUuidGenerator.next(), null, null, balance,
+                "4242 4242 4242 4242", new ArrayList<>()));
+        replica.update("INSERT INTO wallet (id, created_on, balance, currency, credit_card_number) VALUES (?, ?, ?, 'EUR', ?)",
+                wallet.getId(), Timestamp.from(Instant.now()), replicaBalance.getMinorUnits(),
+                wallet.getCreditCardNumber());
+        return wallet.getId();
+    }
+}
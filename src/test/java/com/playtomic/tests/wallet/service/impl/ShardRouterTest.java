@@ -0,0 +1,108 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardRouterTest {
+
+    private static final int WALLETS = 100_000;
+
+    private final List<UUID> ids = ids();
+
+    @Test
+    @DisplayName("Should map a Wallet to the same shard whatever the instance or the order of the shards")
+    void shardOf_deterministic() {
+        ShardRouter router = new ShardRouter(List.of("a", "b", "c"), 256);
+        ShardRouter other = new ShardRouter(List.of("a", "b", "c"), 256);
+        ShardRouter reordered = new ShardRouter(List.of("c", "a", "b"), 256);
+
+        for (UUID id : ids) {
+            assertEquals(router.shardOf(id), other.shardOf(id));
+            assertEquals(router.getName(router.shardOf(id)), reordered.getName(reordered.shardOf(id)));
+        }
+    }
+
+    @Test
+    @DisplayName("Should spread time-ordered Wallet ids evenly over the shards")
+    void shardOf_even() {
+        ShardRouter router = new ShardRouter(List.of("a", "b", "c", "d"), 256);
+
+        int[] counts = new int[4];
+        ids.forEach(id -> counts[router.shardOf(id)]++);
+        for (int count : counts) {
+            assertEquals(WALLETS / 4.0, count, WALLETS / 4.0 * 0.15);
+        }
+    }
+
+    @Test
+    @DisplayName("Should only move the Wallets taken over by an added shard")
+    void shardOf_addShard() {
+        ShardRouter before = new ShardRouter(List.of("a", "b", "c"), 256);
+        ShardRouter after = new ShardRouter(List.of("a", "b", "c", "d"), 256);
+
+        int moved = 0;
+        for (UUID id : ids) {
+            String shard = after.getName(after.shardOf(id));
+            if (!shard.equals(before.getName(before.shardOf(id)))) {
+                assertEquals("d", shard);
+                moved++;
+            }
+        }
+        assertEquals(WALLETS / 4.0, moved, WALLETS / 4.0 * 0.15);
+    }
+
+    @Test
+    @DisplayName("Should split items by shard and keep their order")
+    void partition() {
+        ShardRouter router = new ShardRouter(List.of("a", "b"), 256);
+
+        Map<Integer, List<UUID>> byShard = router.partition(ids, id -> id);
+
+        assertEquals(WALLETS, byShard.values().stream().mapToInt(List::size).sum());
+        byShard.forEach((shard, idsOfShard) -> {
+            idsOfShard.forEach(id -> assertEquals(shard, router.shardOf(id)));
+            // time-ordered ids: in the order they were generated
+            for (int i = 1; i < idsOfShard.size(); i++) {
+                assertTrue(idsOfShard.get(i - 1).compareTo(idsOfShard.get(i)) < 0);
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Should not select a shard when there is only one")
+    void single() {
+        ShardRouter router = ShardRouter.single();
+
+        assertFalse(router.isSharded());
+        assertEquals(0, router.shardOf(ids.get(0)));
+        assertNull(router.onShard(0, ShardRouter::currentShard));
+    }
+
+    @Test
+    @DisplayName("Should select the shard for the work only, and reject duplicate shard names")
+    void onShard() {
+        ShardRouter router = new ShardRouter(List.of("a", "b"), 256);
+
+        assertEquals(1, router.onShard(1, ShardRouter::currentShard));
+        assertEquals(List.of(0, 1), router.onEachShard(ShardRouter::currentShard));
+        assertNull(ShardRouter.currentShard());
+        assertThrows(IllegalArgumentException.class, () -> new ShardRouter(List.of("a", "a"), 256));
+    }
+
+    private static List<UUID> ids() {
+        List<UUID> ids = new ArrayList<>(WALLETS);
+        for (int i = 0; i < WALLETS; i++) {
+            ids.add(TimeOrderedUuidGenerator.next());
+        }
+        return ids;
+    }
+}
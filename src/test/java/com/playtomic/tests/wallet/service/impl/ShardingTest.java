@@ -0,0 +1,209 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.request.BulkTopUpRequest;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.TopUpResultDto;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.ShardRebalancer;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TransactionHistoryService;
+import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.service.StripeService;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Wallets sharded over three H2 databases.
+ */
+@SpringBootTest(properties = {
+        "wallet.sharding.enabled=true",
+        "wallet.sharding.shards[0].name=shard-a",
+        "wallet.sharding.shards[0].url=jdbc:h2:mem:shard-a;DB_CLOSE_DELAY=-1",
+        "wallet.sharding.shards[0].username=sa",
+        "wallet.sharding.shards[1].name=shard-b",
+        "wallet.sharding.shards[1].url=jdbc:h2:mem:shard-b;DB_CLOSE_DELAY=-1",
+        "wallet.sharding.shards[1].username=sa",
+        "wallet.sharding.shards[2].name=shard-c",
+        "wallet.sharding.shards[2].url=jdbc:h2:mem:shard-c;DB_CLOSE_DELAY=-1",
+        "wallet.sharding.shards[2].username=sa",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@ActiveProfiles("test")
+public class ShardingTest {
+
+    private static final int WALLETS = 30;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private TransactionHistoryService transactionHistoryService;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @MockBean
+    private StripeService stripeService;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    @AfterEach
+    void tearDown() {
+        shardRouter.onEachShard(() -> {
+            for (String table : List.of("wallet_transaction", "top_up", "idempotent_top_up", "wallet")) {
+                jdbcTemplate.update("DELETE FROM " + table);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    @DisplayName("Should store the TopUps and the ledger of a Wallet on the Wallet's shard only")
+    void addToWallet_onTheWalletsShard() {
+        List<UUID> ids = createWallets();
+        Map<UUID, Money> balances = new HashMap<>();
+        ids.forEach(id -> balances.put(id, walletService.getById(id).getBalance()));
+
+        ids.forEach(id -> walletService.addToWallet(id, Money.of("15.00")));
+        List<TopUpResultDto> results = walletService.addToWallets(ids.stream()
+                .map(id -> new BulkTopUpRequest.TopUp(id, new BigDecimal("5.00")))
+                .collect(Collectors.toList()));
+
+        results.forEach(result -> assertEquals(200, result.getStatus()));
+        for (UUID id : ids) {
+            assertEquals(balances.get(id).plus(Money.of("20.00")), walletService.getById(id).getBalance());
+            assertEquals(2, transactionHistoryService.getPage(id, null, 10).getContent().size());
+            for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+                int expected = shard == shardRouter.shardOf(id) ? 2 : 0;
+                assertEquals(expected, count(shard, "top_up", id));
+                assertEquals(expected, count(shard, "wallet_transaction", id));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should merge the pages of every shard")
+    void getAll_mergesShards() {
+        createWallets();
+
+        Page<WalletDto> page = walletService.getAll(PageRequest.of(1, 7, Sort.by(Sort.Direction.DESC, "balance")));
+
+        assertEquals(WALLETS, page.getTotalElements());
+        List<Money> balances = page.getContent().stream().map(WalletDto::getBalance).collect(Collectors.toList());
+        List<Money> expected = new ArrayList<>();
+        for (int balance = 123; balance > 116; balance--) {
+            expected.add(Money.of(balance + ".00"));
+        }
+        assertEquals(expected, balances);
+    }
+
+    @Test
+    @DisplayName("Should list every Wallet of every shard exactly once with the cursor")
+    void getPage_mergesShards() {
+        List<UUID> ids = createWallets();
+
+        List<UUID> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<WalletDto> page = walletService.getPage(cursor, 7);
+            page.getContent().forEach(wallet -> listed.add(wallet.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(WALLETS, listed.size());
+        assertEquals(new HashSet<>(ids), new HashSet<>(listed));
+    }
+
+    @Test
+    @DisplayName("Should move the Wallets taken over by an added shard, with their rows, and only once")
+    void rebalance_afterAddingShard() {
+        ShardRouter twoShards = new ShardRouter(List.of("shard-a", "shard-b"), 256);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            UUID id = TimeOrderedUuidGenerator.next();
+            shardRouter.onShard(twoShards.shardOf(id), () -> {
+                walletRepository.save(new Wallet(id, null, null, Money.of("100.00"), "4242 4242 4242 4242", new ArrayList<>()));
+                transactionTemplate.executeWithoutResult(status -> {
+                    walletRepository.addToBalance(id, 1000);
+                    walletRepository.insertTransaction(TimeOrderedUuidGenerator.next(), id, 1000);
+                });
+            });
+            ids.add(id);
+        }
+        long moving = ids.stream().filter(id -> shardRouter.shardOf(id) != twoShards.shardOf(id)).count();
+        assertTrue(moving > 0);
+
+        assertEquals(moving, shardRebalancer.rebalance());
+        assertEquals(0, shardRebalancer.rebalance());
+
+        for (UUID id : ids) {
+            assertEquals(0, Money.of("110.00").compareTo(walletService.getById(id).getBalance()));
+            for (int shard = 0; shard < shardRouter.getShardCount(); shard++) {
+                assertEquals(shard == shardRouter.shardOf(id) ? 1 : 0, count(shard, "wallet_transaction", id));
+            }
+        }
+        assertEquals(WALLETS, walletService.getAll(PageRequest.of(0, 100)).getTotalElements());
+    }
+
+    @Test
+    @DisplayName("Should refuse a connection when no shard is selected")
+    void unroutedAccess() {
+        assertThrows(CannotGetJdbcConnectionException.class,
+                () -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallet", Integer.class));
+    }
+
+    /**
+     * Wallets with balances 101.00 to 130.00, each on its shard; fails unless they are spread over every shard.
+     */
+    private List<UUID> createWallets() {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 1; i <= WALLETS; i++) {
+            Wallet wallet = new Wallet(TimeOrderedUuidGenerator.next(), null, null, Money.of(100 + i + ".00"),
+                    "4242 4242 4242 4242", new ArrayList<>());
+            shardRouter.onShardOf(wallet.getId(), () -> walletRepository.save(wallet));
+            ids.add(wallet.getId());
+        }
+        assertEquals(shardRouter.getShardCount(), ids.stream().map(shardRouter::shardOf).distinct().count());
+        return ids;
+    }
+
+    private int count(int shard, String table, UUID walletId) {
+        return shardRouter.onShard(shard, () -> jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM " + table + " WHERE wallet_id = ?", Integer.class, walletId));
+    }
+}
@@ -0,0 +1,150 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
+import com.playtomic.tests.wallet.service.StripeServiceException;
+import com.playtomic.tests.wallet.service.StripeServiceOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StripeConcurrencyLimiterTest {
+
+    @Test
+    @DisplayName("Should raise the limit by one per fast call, only while at least half of it is in use")
+    void call_increase() {
+        StripeConcurrencyLimiter limiter = new StripeConcurrencyLimiter(true, 2, 2, 4, 0.5, 1000, 0, 0);
+
+        // sequential calls use one slot: 2 -> 3, then 1 in flight out of 3 is not enough to grow
+        for (int i = 0; i < 10; i++) {
+            assertEquals("ok", limiter.call(() -> "ok"));
+        }
+        assertEquals(3, limiter.getLimit());
+
+        limiter.run(() -> limiter.run(() -> {
+        }));
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    @DisplayName("Should cut the limit on failures and slow calls, but not on a too small amount")
+    void call_decrease() {
+        StripeConcurrencyLimiter limiter = new StripeConcurrencyLimiter(true, 40, 2, 100, 0.5, 10, 0, 0);
+
+        assertThrows(StripeServiceException.class, () -> limiter.call(() -> {
+            throw new StripeServiceException();
+        }));
+        assertEquals(20, limiter.getLimit());
+
+        limiter.run(() -> sleep(50));
+        assertEquals(10, limiter.getLimit());
+
+        assertThrows(StripeAmountTooSmallException.class, () -> limiter.call(() -> {
+            throw new StripeAmountTooSmallException();
+        }));
+        assertEquals(10, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IllegalStateException.class, () -> limiter.call(() -> {
+                throw new IllegalStateException("503");
+            }));
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should reject a blocking call once max-wait is over, and let waiting calls in when a slot is free")
+    void call_reject() throws Exception {
+        StripeConcurrencyLimiter limiter = new StripeConcurrencyLimiter(true, 2, 2, 2, 0.9, 1000, 200, 10);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> limiter.run(() -> {
+                    started.countDown();
+                    await(release);
+                }));
+            }
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+
+            assertThrows(StripeServiceOverloadedException.class, () -> limiter.call(() -> "too many"));
+            assertEquals(1, limiter.getRejected());
+
+            release.countDown();
+            assertEquals("ok", limiter.call(() -> "ok"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject a reactive call right away when the limit is reached, and free the slot on termination")
+    void limit() {
+        StripeConcurrencyLimiter limiter = new StripeConcurrencyLimiter(true, 2, 2, 2, 0.9, 1000, 500, 10);
+        Sinks.Empty<Void> first = Sinks.empty();
+        Sinks.Empty<Void> second = Sinks.empty();
+
+        limiter.limit(first.asMono()).subscribe();
+        limiter.limit(second.asMono()).subscribe(null, e -> {
+        });
+        assertEquals(2, limiter.getInFlight());
+
+        assertThrows(StripeServiceOverloadedException.class, () -> limiter.limit(Mono.just("too many")).block());
+        assertEquals(1, limiter.getRejected());
+
+        first.tryEmitEmpty();
+        second.tryEmitError(new StripeServiceException());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals("ok", limiter.limit(Mono.just("ok")).block());
+    }
+
+    @Test
+    @DisplayName("Should publish the current limit as a metric")
+    void bindTo() {
+        StripeConcurrencyLimiter limiter = new StripeConcurrencyLimiter(true, 10, 2, 100, 0.9, 1000, 500, 10);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        limiter.bindTo(registry);
+
+        assertEquals(10, registry.get("stripe.concurrency.limit").gauge().value());
+        assertEquals(0, registry.get("stripe.concurrency.in-flight").gauge().value());
+        assertEquals(0, registry.get("stripe.concurrency.rejected").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("Should need a pool of max-limit threads, so that a fixed pool never caps the limit")
+    void threadsFor() {
+        assertEquals(50, new StripeConcurrencyLimiter(true, 10, 2, 50, 0.9, 1000, 500, 10).threadsFor(4));
+        assertEquals(64, new StripeConcurrencyLimiter(true, 10, 2, 50, 0.9, 1000, 500, 10).threadsFor(64));
+        assertEquals(4, StripeConcurrencyLimiter.disabled().threadsFor(4));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
+import com.playtomic.tests.wallet.service.StripeHttpClient;
+import com.playtomic.tests.wallet.service.StripeService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+import java.net.URI;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@WireMockTest
+public class StripeHttpClientTest {
+
+    private StripeHttpClient stripeHttpClient;
+
+    private StripeService stripeService;
+
+    @BeforeEach
+    void setUp(WireMockRuntimeInfo wireMock) {
+        stripeHttpClient = new StripeHttpClient(true, 50, 20, 30_000, 10_000, 1000, 3000, 500);
+        URI uri = URI.create(wireMock.getHttpBaseUrl());
+        stripeService = new StripeService(uri, uri, new RestTemplateBuilder(), stripeHttpClient,
+                new StripeConcurrencyLimiter(true, 10, 2, 50, 0.9, 1000, 500, 50));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stripeHttpClient.close();
+    }
+
+    @Test
+    @DisplayName("Should reuse one kept-alive connection for sequential charges, also after an error response")
+    void charge_reusesConnection() {
+        stubFor(post("/").willReturn(ok()));
+        stubFor(post("/").withRequestBody(containing("4242 4242 4242 0422")).willReturn(status(422)));
+
+        for (int i = 0; i < 20; i++) {
+            stripeService.charge("4242 4242 4242 4242", Money.of("15"));
+        }
+        assertThrows(StripeAmountTooSmallException.class,
+                () -> stripeService.charge("4242 4242 4242 0422", Money.of("5")));
+        stripeService.charge("4242 4242 4242 4242", Money.of("15"));
+
+        assertEquals(0, stripeHttpClient.stats().getLeased());
+        assertEquals(1, stripeHttpClient.stats().getAvailable());
+    }
+
+    @Test
+    @DisplayName("Should publish the pool usage as metrics")
+    void bindTo() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        stripeHttpClient.bindTo(registry);
+
+        assertEquals(50, registry.get("httpcomponents.httpclient.pool.total.max").tag("httpclient", "stripe").gauge().value());
+        assertEquals(0, registry.get("httpcomponents.httpclient.pool.total.connections")
+                .tag("httpclient", "stripe").tag("state", "leased").gauge().value());
+    }
+}
@@ -1,7 +1,10 @@
 package com.playtomic.tests.wallet.service.impl;
 
 
+import com.playtomic.tests.wallet.api.entity.Money;
 import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
+import com.playtomic.tests.wallet.service.StripeHttpClient;
 import com.playtomic.tests.wallet.service.StripeService;
 import com.playtomic.tests.wallet.service.StripeServiceException;
 import org.junit.jupiter.api.Assertions;
@@ -13,7 +16,6 @@ import org.springframework.context.annotation.PropertySource;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.client.MockRestServiceServer;
 
-import java.math.BigDecimal;
 
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
@@ -26,7 +28,7 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
  */
 
 @PropertySource("classpath:application.yml")
-@RestClientTest(StripeService.class)
+@RestClientTest({StripeService.class, StripeHttpClient.class, StripeConcurrencyLimiter.class})
 public class StripeServiceTest {
 
     @Autowired
@@ -48,7 +50,7 @@ public class StripeServiceTest {
                 .andRespond(withStatus(HttpStatus.UNPROCESSABLE_ENTITY));
 
         Assertions.assertThrows(StripeAmountTooSmallException.class,
-                () -> s.charge("4242 4242 4242 4242", new BigDecimal(5)));
+                () -> s.charge("4242 4242 4242 4242", Money.of("5")));
     }
 
     @Test
@@ -57,7 +59,7 @@ public class StripeServiceTest {
         this.mockServer.expect(requestTo(chargesUri))
                 .andRespond(withSuccess());
 
-        s.charge("4242 4242 4242 4242", new BigDecimal(15));
+        s.charge("4242 4242 4242 4242", Money.of("15"));
 
     }
 }
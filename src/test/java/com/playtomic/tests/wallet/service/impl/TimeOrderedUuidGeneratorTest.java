@@ -0,0 +1,56 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.TimeOrderedUuidGenerator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeOrderedUuidGeneratorTest {
+
+    @Test
+    @DisplayName("Should generate version 7 ids carrying the current time in their first 48 bits")
+    void next() {
+        long before = System.currentTimeMillis();
+        UUID id = TimeOrderedUuidGenerator.next();
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        long timestamp = id.getMostSignificantBits() >>> 16;
+        // a burst of earlier ids may have moved the timestamp a little ahead of the clock
+        assertTrue(timestamp >= before && timestamp <= after + 100);
+    }
+
+    @Test
+    @DisplayName("Should generate strictly increasing ids, also from concurrent threads within the same millisecond")
+    void next_ordered() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<UUID>>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                List<UUID> ids = new ArrayList<>();
+                for (int j = 0; j < 10_000; j++) {
+                    ids.add(TimeOrderedUuidGenerator.next());
+                }
+                return ids;
+            }));
+        }
+        List<UUID> all = new ArrayList<>();
+        for (Future<List<UUID>> future : futures) {
+            List<UUID> ids = future.get(10, TimeUnit.SECONDS);
+            for (int i = 1; i < ids.size(); i++) {
+                assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+            }
+            all.addAll(ids);
+        }
+        executor.shutdown();
+
+        assertEquals(40_000, all.stream().distinct().count());
+    }
+}
@@ -0,0 +1,173 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.exceptions.TopUpQueueFullException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.service.TopUpOutbox;
+import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(properties = {
+        "wallet.top-up-mode=OUTBOX",
+        "wallet.outbox.workers=2",
+        "wallet.outbox.buffer-capacity=4",
+        "wallet.outbox.max-depth=12",
+        "wallet.outbox.poll-interval-in-milliseconds=50"
+})
+@ActiveProfiles("test")
+public class TopUpOutboxTest {
+
+    @Autowired
+    private TopUpOutbox topUpOutbox;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM charge_command");
+        walletTransactionRepository.deleteAll();
+        topUpRepository.deleteAll();
+        walletRepository.deleteAll();
+    }
+
+    @Test
+    @DisplayName("Should charge and settle the accepted top-ups of a Wallet in order, and fail the declined ones")
+    void submit() {
+        UUID walletId = wallet("1111 2222 3333 4444");
+        doThrow(new StripeAmountTooSmallException())
+                .when(stripeServiceV2).charge(eq("1111 2222 3333 4444"), argThat(amount -> amount.compareTo(Money.of("5")) == 0));
+
+        List<UUID> confirmed = new ArrayList<>();
+        for (int i = 11; i <= 20; i++) {
+            TopUp topUp = topUpOutbox.submit(walletId, Money.of(String.valueOf(i)));
+            assertEquals(TopUpStatus.PENDING, topUp.getStatus());
+            confirmed.add(topUp.getId());
+        }
+        UUID failed = topUpOutbox.submit(walletId, Money.of("5")).getId();
+        awaitUntil(() -> topUpOutbox.getDepth() == 0);
+
+        assertTrue(confirmed.stream().allMatch(id -> status(id) == TopUpStatus.CONFIRMED));
+        assertEquals(TopUpStatus.FAILED, status(failed));
+        assertEquals(0, Money.of("255.00").compareTo(walletRepository.findById(walletId).get().getBalance()));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM charge_command", Integer.class));
+
+        // amounts are stored in cents
+        List<Long> amounts = jdbcTemplate.queryForList(
+                "SELECT amount FROM wallet_transaction WHERE wallet_id = ? ORDER BY sequence_number", Long.class, walletId);
+        for (int i = 0; i < 10; i++) {
+            assertEquals((11 + i) * 100L, amounts.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep commands in the table while the lanes are full, reject past max-depth, and read them back")
+    void submit_overflow() throws Exception {
+        UUID walletId = wallet("4242 4242 4242 4242");
+        CountDownLatch gateway = new CountDownLatch(1);
+        doAnswer(invocation -> gateway.await(10, TimeUnit.SECONDS))
+                .when(stripeServiceV2).charge(eq("4242 4242 4242 4242"), any(Money.class));
+
+        List<UUID> accepted = new ArrayList<>();
+        assertThrows(TopUpQueueFullException.class, () -> {
+            for (int i = 0; i < 20; i++) {
+                accepted.add(topUpOutbox.submit(walletId, Money.of("10")).getId());
+            }
+        });
+        assertEquals(12, accepted.size());
+        assertEquals(1, topUpOutbox.getRejected());
+
+        // left by a run that stopped in the middle of the charge: its outcome is unknown
+        TopUp interrupted = topUpRepository.save(new TopUp(walletId, Money.of("1")));
+        jdbcTemplate.update("INSERT INTO charge_command (top_up_id, created_on, wallet_id, amount, credit_card_number, attempts) " +
+                        "VALUES (?, ?, ?, ?, ?, 1)",
+                interrupted.getId(), Timestamp.from(Instant.now()), walletId, 100L, "4242 4242 4242 4242");
+
+        gateway.countDown();
+        awaitUntil(() -> jdbcTemplate.queryForObject("SELECT COUNT(*) FROM charge_command", Integer.class) == 0);
+        awaitUntil(topUpOutbox::poll);
+
+        assertTrue(accepted.stream().allMatch(id -> status(id) == TopUpStatus.CONFIRMED));
+        assertEquals(TopUpStatus.UNKNOWN, status(interrupted.getId()));
+        assertEquals(0, Money.of("220.00").compareTo(walletRepository.findById(walletId).get().getBalance()));
+        verify(stripeServiceV2, times(12)).charge(eq("4242 4242 4242 4242"), any(Money.class));
+    }
+
+    @Test
+    @DisplayName("Should park a charged top-up that can not be settled as UNKNOWN, not drop it")
+    void submit_chargedButNotSettled() {
+        UUID walletId = wallet("5555 6666 7777 8888");
+        // the Wallet is gone by the time the charge is settled
+        doAnswer(invocation -> jdbcTemplate.update("DELETE FROM wallet WHERE id = ?", walletId))
+                .when(stripeServiceV2).charge(eq("5555 6666 7777 8888"), any(Money.class));
+
+        UUID charged = topUpOutbox.submit(walletId, Money.of("10")).getId();
+        awaitUntil(() -> topUpOutbox.getDepth() == 0);
+
+        assertEquals(TopUpStatus.UNKNOWN, status(charged));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM charge_command", Integer.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallet_transaction", Integer.class));
+    }
+
+    private UUID wallet(String creditCardNumber) {
+        return walletRepository.save(
+                new Wallet(null, null, null, Money.of("100.00"), creditCardNumber, new ArrayList<>())).getId();
+    }
+
+    private TopUpStatus status(UUID topUpId) {
+        return topUpRepository.findById(topUpId).orElseThrow().getStatus();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the outbox");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+}
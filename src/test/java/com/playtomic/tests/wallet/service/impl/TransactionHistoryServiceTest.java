@@ -0,0 +1,124 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.response.CursorPage;
+import com.playtomic.tests.wallet.api.response.WalletTransactionDto;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TransactionHistoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+public class TransactionHistoryServiceTest {
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private TransactionHistoryService transactionHistoryService;
+
+    private UUID walletId;
+
+    @BeforeEach
+    void setUp() {
+        transactionHistoryService = new TransactionHistoryService(10, walletRepository, jdbcTemplate, objectMapper, transactionManager,
+                ShardRouter.single());
+
+        walletId = entityManager.persistAndFlush(new Wallet(null, null, null, Money.of("25"), "1111 2222 3333 4444", new ArrayList<>())).getId();
+        Wallet other = entityManager.persistAndFlush(new Wallet(null, null, null, Money.of("1"), "1111 2222 3333 4444", new ArrayList<>()));
+        Instant createdOn = Instant.parse("2022-01-01T00:00:00Z");
+        for (int i = 0; i < 25; i++) {
+            // groups of 5 rows share the same creation time, so ties are broken by id
+            insertTransaction(walletId, createdOn.plusSeconds(i / 5), i);
+        }
+        insertTransaction(other.getId(), createdOn, 0);
+    }
+
+    @Test
+    @DisplayName("Should walk the history of the Wallet in (createdOn, id) order without duplicates")
+    void getPage() {
+        List<WalletTransactionDto> seen = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = "";
+        do {
+            CursorPage<WalletTransactionDto> page = transactionHistoryService.getPage(walletId, cursor, 10);
+            seen.addAll(page.getContent());
+            pageSizes.add(page.getContent().size());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of(10, 10, 5), pageSizes);
+        assertEquals(25, seen.stream().map(WalletTransactionDto::getId).distinct().count());
+        for (int i = 1; i < seen.size(); i++) {
+            WalletTransactionDto previous = seen.get(i - 1);
+            WalletTransactionDto current = seen.get(i);
+            int byCreatedOn = previous.getCreatedOn().compareTo(current.getCreatedOn());
+            assertTrue(byCreatedOn < 0 || (byCreatedOn == 0 && previous.getId().compareTo(current.getId()) < 0));
+        }
+    }
+
+    @Test
+    @DisplayName("Should export the whole history of the Wallet as one JSON document per line")
+    void export() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        transactionHistoryService.export(walletId).accept(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(25, lines.length);
+        Set<Integer> oldBalances = new HashSet<>();
+        for (String line : lines) {
+            JsonNode transaction = objectMapper.readTree(line);
+            oldBalances.add(transaction.get("oldBalance").intValue());
+            assertEquals(transaction.get("oldBalance").intValue() + 1, transaction.get("newBalance").intValue());
+        }
+        assertEquals(25, oldBalances.size());
+    }
+
+    @Test
+    @DisplayName("Should throw EntityNotFoundException for an unknown Wallet before anything is streamed")
+    void export_unknownWallet() {
+        assertThrows(EntityNotFoundException.class, () -> transactionHistoryService.export(UUID.randomUUID()));
+    }
+
+    private void insertTransaction(UUID walletId, Instant createdOn, int i) {
+        jdbcTemplate.update("INSERT INTO wallet_transaction (id, created_on, old_balance, new_balance, wallet_id) VALUES (?, ?, ?, ?, ?)",
+                UUID.randomUUID(), Timestamp.from(createdOn), i * 100L, (i + 1) * 100L, walletId);
+    }
+}
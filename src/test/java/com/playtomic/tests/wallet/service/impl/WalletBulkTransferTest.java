@@ -0,0 +1,157 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.service.BulkFormat;
+import com.playtomic.tests.wallet.api.service.BulkTransferResult;
+import com.playtomic.tests.wallet.api.service.WalletBulkExporter;
+import com.playtomic.tests.wallet.api.service.WalletBulkLoader;
+import com.playtomic.tests.wallet.service.StripeService;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Bulk import and export, with chunks, statements and commits much smaller than the data.
+ */
+@SpringBootTest(properties = {
+        "wallet.bulk.chunk-size=64",
+        "wallet.bulk.parallelism=4",
+        "wallet.bulk.rows-per-statement=10",
+        "wallet.bulk.commit-interval=200",
+        "wallet.bulk.fetch-size=50",
+        "wallet.bulk.buffer-size-in-kilobytes=64",
+        "wallet.bulk.progress-interval=1000"
+})
+@ActiveProfiles("test")
+public class WalletBulkTransferTest {
+
+    private static final String SELECT_WALLETS =
+            "SELECT id, created_on, updated_on, currency, balance, credit_card_number FROM wallet ORDER BY id";
+    private static final String SELECT_ENTRIES =
+            "SELECT id, wallet_id, created_on, type, amount, old_balance, new_balance FROM wallet_transaction " +
+            "ORDER BY wallet_id, sequence_number";
+
+    @TempDir
+    Path directory;
+
+    @Autowired
+    private WalletBulkLoader walletBulkLoader;
+
+    @Autowired
+    private WalletBulkExporter walletBulkExporter;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private StripeService stripeService;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    @AfterEach
+    void tearDown() {
+        deleteAll();
+    }
+
+    @Test
+    @DisplayName("Should load synthetic Wallets with a ledger matching their balance")
+    void loadSynthetic() {
+        BulkTransferResult result = walletBulkLoader.loadSynthetic(1000, 3);
+
+        assertEquals(1000, result.getWallets());
+        assertEquals(3000, result.getEntries());
+        assertEquals(1000, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallet WHERE balance = 13000", Integer.class));
+        assertEquals(3000, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM wallet_transaction WHERE type = 'TOP_UP' AND amount = 1000", Integer.class));
+        assertEquals(1000, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM wallet_transaction t JOIN wallet w ON w.id = t.wallet_id " +
+                "WHERE t.new_balance = w.balance", Integer.class));
+    }
+
+    @ParameterizedTest
+    @EnumSource(BulkFormat.class)
+    @DisplayName("Should import what it exported, row for row")
+    void export_thenLoad(BulkFormat format) {
+        walletBulkLoader.loadSynthetic(300, 2);
+        UUID quoted = walletRepository.save(
+                new Wallet(null, null, null, Money.of("1.50"), "4242, \"4242\"", new ArrayList<>())).getId();
+        jdbcTemplate.update("INSERT INTO wallet_transaction (id, wallet_id, created_on, old_balance, new_balance) " +
+                "VALUES (RANDOM_UUID(), ?, CURRENT_TIMESTAMP, 0, 150)", quoted);
+        List<Map<String, Object>> wallets = jdbcTemplate.queryForList(SELECT_WALLETS);
+        List<Map<String, Object>> entries = jdbcTemplate.queryForList(SELECT_ENTRIES);
+
+        Path file = directory.resolve("wallets." + format.name().toLowerCase());
+        BulkTransferResult exported = walletBulkExporter.export(file, format);
+        assertEquals(301, exported.getWallets());
+        assertEquals(601, exported.getEntries());
+
+        deleteAll();
+        BulkTransferResult loaded = walletBulkLoader.load(file, format);
+        assertEquals(301, loaded.getWallets());
+        assertEquals(601, loaded.getEntries());
+        assertEquals(wallets, jdbcTemplate.queryForList(SELECT_WALLETS));
+        assertEquals(entries, jdbcTemplate.queryForList(SELECT_ENTRIES));
+    }
+
+    @Test
+    @DisplayName("Should stop at an invalid record and keep only what was committed before it")
+    void load_invalidRecord() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 250; i++) {
+            UUID id = UUID.randomUUID();
+            csv.append("W,").append(id).append(",2022-01-01T00:00:00Z,,EUR,10.00,4242 4242 4242 4242\n")
+                    .append("T,").append(UUID.randomUUID()).append(',').append(id)
+                    .append(",2022-01-01T00:00:00Z,TOP_UP,10.00,0.00,").append(i == 240 ? "11.00" : "10.00").append('\n');
+        }
+        Path file = directory.resolve("invalid.csv");
+        Files.writeString(file, csv, StandardCharsets.UTF_8);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> walletBulkLoader.load(file, BulkFormat.CSV));
+        assertTrue(e.getMessage().startsWith("Invalid record 482: "), e.getMessage());
+        // committed every 200 records, which the chunk size of 64 rounds up to 256
+        assertEquals(128, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallet", Integer.class));
+        assertEquals(128, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM wallet_transaction", Integer.class));
+    }
+
+    @Test
+    @DisplayName("Should reject a malformed line with its line number")
+    void load_malformedLine() throws IOException {
+        Path file = directory.resolve("malformed.csv");
+        Files.writeString(file, "# W,id,created_on\nW," + UUID.randomUUID() + ",yesterday,,EUR,1.00,\n", StandardCharsets.UTF_8);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> walletBulkLoader.load(file, BulkFormat.CSV));
+        assertTrue(e.getMessage().startsWith("Malformed line 2: "), e.getMessage());
+        assertEquals(0, walletRepository.count());
+    }
+
+    private void deleteAll() {
+        jdbcTemplate.update("DELETE FROM wallet_transaction");
+        jdbcTemplate.update("DELETE FROM wallet");
+    }
+}
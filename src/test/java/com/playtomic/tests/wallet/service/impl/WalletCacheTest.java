@@ -0,0 +1,108 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import com.playtomic.tests.wallet.api.service.WalletCache;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalletCacheTest {
+
+    private static final UUID WALLET_ID = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+
+    @Test
+    @DisplayName("Should load once and count hits and misses")
+    void get() {
+        WalletCache cache = new WalletCache(true, 100, 60_000);
+
+        cache.get(WALLET_ID, () -> wallet(100));
+        WalletDto cached = cache.get(WALLET_ID, () -> wallet(200));
+
+        assertEquals(Money.of("100"), cached.getBalance());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(1, cache.stats().hitCount());
+    }
+
+    @Test
+    @DisplayName("Should load from the primary, and leave the routing alone when disabled")
+    void get_primary() {
+        assertEquals(Money.of("100"), new WalletCache(true, 100, 60_000).get(WALLET_ID,
+                () -> wallet(ReplicaRouter.isPrimaryForced() ? 100 : 200)).getBalance());
+        assertEquals(Money.of("200"), WalletCache.disabled().get(WALLET_ID,
+                () -> wallet(ReplicaRouter.isPrimaryForced() ? 100 : 200)).getBalance());
+        assertFalse(ReplicaRouter.isPrimaryForced());
+    }
+
+    @Test
+    @DisplayName("Should not cache Wallets that are not found")
+    void get_notFound() {
+        WalletCache cache = new WalletCache(true, 100, 60_000);
+
+        assertThrows(EntityNotFoundException.class,
+                () -> cache.get(WALLET_ID, () -> { throw new EntityNotFoundException("not found"); }));
+
+        assertEquals(Money.of("100"), cache.get(WALLET_ID, () -> wallet(100)).getBalance());
+    }
+
+    @Test
+    @DisplayName("Should drop a value loaded before the writer committed, even if the load finishes after the invalidation")
+    void invalidate_duringLoad() throws Exception {
+        WalletCache cache = new WalletCache(true, 100, 60_000);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Money> database = new AtomicReference<>(Money.of("100"));
+
+        CompletableFuture<WalletDto> slowReader = CompletableFuture.supplyAsync(() -> cache.get(WALLET_ID, () -> {
+            WalletDto stale = wallet(database.get());
+            loading.countDown();
+            await(release);
+            return stale;
+        }));
+        loading.await();
+
+        // writer commits a new balance and invalidates while the reader still holds the old one
+        database.set(Money.of("200"));
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> cache.invalidate(WALLET_ID));
+        release.countDown();
+
+        assertEquals(Money.of("100"), slowReader.get(5, TimeUnit.SECONDS).getBalance());
+        writer.get(5, TimeUnit.SECONDS);
+        assertEquals(Money.of("200"), cache.get(WALLET_ID, () -> wallet(database.get())).getBalance());
+    }
+
+    @Test
+    @DisplayName("Should always go to the loader when disabled")
+    void disabled() {
+        WalletCache cache = WalletCache.disabled();
+
+        cache.get(WALLET_ID, () -> wallet(100));
+
+        assertEquals(Money.of("200"), cache.get(WALLET_ID, () -> wallet(200)).getBalance());
+    }
+
+    private static WalletDto wallet(int balance) {
+        return wallet(Money.of(String.valueOf(balance)));
+    }
+
+    private static WalletDto wallet(Money balance) {
+        return new WalletDto(WALLET_ID, balance, "1111 2222 3333 4444");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
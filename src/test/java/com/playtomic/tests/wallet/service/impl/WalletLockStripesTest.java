@@ -0,0 +1,125 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.exceptions.WalletBusyException;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalletLockStripesTest {
+
+    private static final UUID WALLET_ID = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+
+    @Test
+    @DisplayName("Should serialize writes to the same Wallet")
+    void withLock_sameWallet() throws Exception {
+        WalletLockStripes stripes = new WalletLockStripes(true, 16, 64, 5000);
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    // not atomic on purpose: only correct when the writes are serialized
+                    stripes.withLock(WALLET_ID, () -> counter[0]++);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(8000, counter[0]);
+        assertEquals(8000, stripes.getAcquired());
+        assertEquals(0, stripes.getRejected());
+    }
+
+    @Test
+    @DisplayName("Should let writes to a different Wallet proceed while one Wallet is locked")
+    void withLock_differentWallets() throws Exception {
+        WalletLockStripes stripes = new WalletLockStripes(true, 1024, 64, 100);
+        // lands on a different stripe than WALLET_ID (the mapping is deterministic)
+        UUID other = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e1");
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<?> holder = executor.submit(() -> stripes.withLock(WALLET_ID, () -> {
+            locked.countDown();
+            await(release);
+            return null;
+        }));
+        locked.await();
+
+        assertEquals("done", stripes.withLock(other, () -> "done"));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(0, stripes.getContended());
+    }
+
+    @Test
+    @DisplayName("Should reject writes when the queue of the stripe is full")
+    void withLock_queueFull() throws Exception {
+        WalletLockStripes stripes = new WalletLockStripes(true, 16, 0, 1000);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<?> holder = executor.submit(() -> stripes.withLock(WALLET_ID, () -> {
+            locked.countDown();
+            await(release);
+            return null;
+        }));
+        locked.await();
+
+        assertThrows(WalletBusyException.class, () -> stripes.withLock(WALLET_ID, () -> null));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(1, stripes.getContended());
+        assertEquals(1, stripes.getRejected());
+    }
+
+    @Test
+    @DisplayName("Should reject writes that can not get the lock within the acquire timeout")
+    void withLock_timeout() throws Exception {
+        WalletLockStripes stripes = new WalletLockStripes(true, 16, 64, 50);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<?> holder = executor.submit(() -> stripes.withLock(WALLET_ID, () -> {
+            locked.countDown();
+            await(release);
+            return null;
+        }));
+        locked.await();
+
+        assertThrows(WalletBusyException.class, () -> stripes.withLock(WALLET_ID, () -> null));
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(1, stripes.getRejected());
+        assertEquals(0, stripes.getWaiting());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletSnapshot;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletSnapshotRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.service.BalanceProjection;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.JournalEngine;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics;
+import com.playtomic.tests.wallet.api.service.TopUpMode;
+import com.playtomic.tests.wallet.api.service.TopUpOutbox;
+import com.playtomic.tests.wallet.api.service.TopUpSettler;
+import com.playtomic.tests.wallet.api.service.WalletCache;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
+import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.api.service.WalletServiceV2;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
+import com.playtomic.tests.wallet.service.StripeService;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers a single Wallet with concurrent top-ups, in every configuration that changes how concurrent writes to
+ * a Wallet are applied, and checks that no update is lost and that the configuration was actually in effect.
+ * The services are built per configuration on top of the (ATOMIC, TWO_PHASE) application context.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+public class WalletServiceContentionTest {
+
+    private static final int THREADS = 16;
+    private static final int TOP_UPS_PER_THREAD = 25;
+
+    enum Configuration {
+        /** single guarded UPDATE, the default */
+        ATOMIC,
+        /** writes to the same Wallet serialized by the in-process lock table */
+        SERIALIZED,
+        /** settle step of the top-ups group-committed */
+        GROUP_COMMIT,
+        /** top-ups appended to the event-sourced ledger, snapshotted while they are appended */
+        LEDGER
+    }
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletReadRepository walletReadRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    @Autowired
+    private WalletSnapshotRepository walletSnapshotRepository;
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private TopUpOutbox topUpOutbox;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @MockBean
+    private StripeService stripeService;
+
+    @MockBean
+    private StripeServiceV2 stripeServiceV2;
+
+    private UUID walletId;
+    private SimpleMeterRegistry meterRegistry;
+    private WalletLockStripes walletLockStripes;
+    private LedgerGroupCommitter ledgerGroupCommitter;
+    private BalanceProjection balanceProjection;
+    private WalletService walletService;
+    private WalletServiceV2 walletServiceV2;
+    private int snapshots;
+
+    @BeforeEach
+    void setUp() {
+        Wallet wallet = new Wallet(null, null, null, Money.of("100.00"), "1111 2222 3333 4444", new ArrayList<>());
+        walletId = walletRepository.save(wallet).getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ledgerGroupCommitter != null) {
+            ledgerGroupCommitter.stop();
+        }
+        walletRepository.deleteAll();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Configuration.class)
+    @DisplayName("Should not lose any update when many threads top-up the same Wallet (V1)")
+    void addToWallet_concurrent(Configuration configuration) throws Exception {
+        create(configuration);
+        runConcurrently(walletService::addToWallet);
+        assertNoLostUpdates();
+        assertInEffect(configuration);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Configuration.class)
+    @DisplayName("Should not lose any update when many threads top-up the same Wallet (V2)")
+    void addToWalletV2_concurrent(Configuration configuration) throws Exception {
+        create(configuration);
+        runConcurrently(walletServiceV2::addToWallet);
+        assertNoLostUpdates();
+        assertInEffect(configuration);
+    }
+
+    private void create(Configuration configuration) {
+        meterRegistry = new SimpleMeterRegistry();
+        TopUpMetrics topUpMetrics = new TopUpMetrics(meterRegistry);
+        walletLockStripes = configuration == Configuration.SERIALIZED
+                ? new WalletLockStripes(true, 1024, 64, 1000)
+                : WalletLockStripes.disabled();
+        walletLockStripes.bindTo(meterRegistry);
+        ledgerGroupCommitter = new LedgerGroupCommitter(configuration == Configuration.GROUP_COMMIT, 256, 2000, 10000, 5000,
+                jdbcTemplate, transactionManager, ShardRouter.single());
+        ledgerGroupCommitter.bindTo(meterRegistry);
+        BalanceUpdateMode balanceUpdateMode = configuration == Configuration.LEDGER
+                ? BalanceUpdateMode.LEDGER
+                : BalanceUpdateMode.ATOMIC;
+        balanceProjection = new BalanceProjection(balanceUpdateMode, transactionManager, jdbcTemplate,
+                walletRepository, walletSnapshotRepository, JournalEngine.disabled());
+        snapshots = 0;
+
+        TopUpSettler topUpSettler = new TopUpSettler(balanceUpdateMode, transactionManager, walletLockStripes,
+                ledgerGroupCommitter, balanceProjection, topUpMetrics, walletRepository, walletTransactionRepository,
+                topUpRepository);
+        walletService = new WalletService(1000, THREADS, balanceUpdateMode, TopUpMode.TWO_PHASE,
+                transactionManager, walletLockStripes, ledgerGroupCommitter, WalletCache.disabled(), balanceProjection,
+                topUpSettler, topUpMetrics, ShardRouter.single(), ReplicaRouter.disabled(), walletRepository,
+                walletReadRepository, topUpRepository, stripeService, StripeConcurrencyLimiter.disabled());
+        walletServiceV2 = new WalletServiceV2(balanceUpdateMode, TopUpMode.TWO_PHASE, transactionManager,
+                walletLockStripes, WalletCache.disabled(), balanceProjection, topUpSettler, topUpMetrics,
+                topUpOutbox, ShardRouter.single(), ReplicaRouter.disabled(), walletRepository, topUpRepository,
+                stripeServiceV2);
+    }
+
+    private void runConcurrently(BiConsumer<UUID, Money> topUp) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < TOP_UPS_PER_THREAD; j++) {
+                    topUp.accept(walletId, Money.of("10"));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        // LEDGER: the snapshotter runs during the appends, as the scheduled one does
+        while (balanceProjection.isEnabled() && !futures.stream().allMatch(Future::isDone)) {
+            snapshots += balanceProjection.snapshot();
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    private void assertNoLostUpdates() {
+        int topUps = THREADS * TOP_UPS_PER_THREAD;
+        Money expected = Money.of("100.00").plus(Money.ofMinorUnits(1000L * topUps));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Wallet wallet = walletRepository.findById(walletId).orElseThrow();
+            // in LEDGER mode the Wallet row keeps its opening balance
+            Money balance = balanceProjection.isEnabled()
+                    ? balanceProjection.get(walletId).getBalance()
+                    : wallet.getBalance();
+            assertEquals(expected, balance);
+            assertEquals(topUps, wallet.getTransactions().size());
+
+            Money ledgerSum = wallet.getTransactions().stream()
+                    .map(t -> t.getNewBalance().minus(t.getOldBalance()))
+                    .reduce(Money.ZERO, Money::plus);
+            assertEquals(Money.ofMinorUnits(1000L * topUps), ledgerSum);
+        });
+    }
+
+    /**
+     * Fails when the configuration under test was silently not applied.
+     */
+    private void assertInEffect(Configuration configuration) {
+        int topUps = THREADS * TOP_UPS_PER_THREAD;
+        Money expected = Money.of("100.00").plus(Money.ofMinorUnits(1000L * topUps));
+        switch (configuration) {
+            case SERIALIZED:
+                // every top-up took the lock, the ones behind another writer waited for it, none timed out
+                assertEquals(topUps, meterRegistry.get("wallet.write.lock.acquired").functionCounter().count());
+                assertTrue(meterRegistry.get("wallet.write.lock.contended").functionCounter().count() > 0);
+                assertTrue(meterRegistry.get("wallet.write.lock.wait").functionCounter().count() > 0);
+                assertEquals(0, meterRegistry.get("wallet.write.lock.rejected").functionCounter().count());
+                break;
+            case GROUP_COMMIT:
+                // every settle went through the writer thread, several of them per transaction
+                double batches = meterRegistry.get("wallet.group-commit.batches").functionCounter().count();
+                assertEquals(topUps, meterRegistry.get("wallet.group-commit.settled").functionCounter().count());
+                assertTrue(topUps / batches > 1, "average batch size " + topUps / batches);
+                break;
+            case LEDGER:
+                // the Wallet row keeps its opening balance; the last snapshot taken during the appends plus the
+                // entries after it add up to the balance, as does the final snapshot
+                assertEquals(Money.of("100.00"), walletRepository.findDtoById(walletId).orElseThrow().getBalance());
+                assertTrue(snapshots > 0);
+                BalanceProjection rebuilt = new BalanceProjection(BalanceUpdateMode.LEDGER, transactionManager,
+                        jdbcTemplate, walletRepository, walletSnapshotRepository, JournalEngine.disabled());
+                rebuilt.rebuild();
+                assertEquals(expected, rebuilt.get(walletId).getBalance());
+
+                balanceProjection.snapshot();
+                WalletSnapshot snapshot = walletSnapshotRepository.findById(walletId).orElseThrow();
+                assertEquals(expected, snapshot.getBalance());
+                assertEquals(jdbcTemplate.queryForObject(
+                        "SELECT MAX(sequence_number) FROM wallet_transaction WHERE wallet_id = ?", Long.class, walletId),
+                        snapshot.getSequenceNumber());
+                break;
+            default:
+                assertEquals(0, meterRegistry.get("wallet.write.lock.acquired").functionCounter().count());
+                assertEquals(0, meterRegistry.get("wallet.group-commit.batches").functionCounter().count());
+                assertEquals(expected, walletRepository.findDtoById(walletId).orElseThrow().getBalance());
+        }
+    }
+}
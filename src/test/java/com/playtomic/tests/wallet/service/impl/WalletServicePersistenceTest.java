@@ -1,27 +1,67 @@
 package com.playtomic.tests.wallet.service.impl;
 
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
 import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.exceptions.InvalidCursorException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletSnapshotRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.response.CursorPage;
 import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.BalanceProjection;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.JournalEngine;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics;
+import com.playtomic.tests.wallet.api.service.TopUpMode;
+import com.playtomic.tests.wallet.api.service.TopUpSettler;
+import com.playtomic.tests.wallet.api.service.WalletCache;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
 import com.playtomic.tests.wallet.api.service.WalletService;
+import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
 import com.playtomic.tests.wallet.service.StripeService;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.PlatformTransactionManager;
 
-import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 
 /**
  *  Testing Persistence layer
@@ -32,14 +72,44 @@ public class WalletServicePersistenceTest {
     @Autowired
     private WalletRepository walletRepository;
 
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    private WalletReadRepository walletReadRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private TopUpRepository topUpRepository;
+
+    @Autowired
+    private WalletSnapshotRepository walletSnapshotRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Mocked, so the service writes within the transaction of the test (and sees the @Sql data).
+     */
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private LedgerGroupCommitter ledgerGroupCommitter;
+
     @Mock
     private StripeService stripeService;
 
+    private final WalletCache walletCache = WalletCache.disabled();
+    private final TopUpMetrics topUpMetrics = new TopUpMetrics(new SimpleMeterRegistry());
+
     private WalletService walletService;
 
     @BeforeEach
     void setUp() {
-        walletService = new WalletService(1000, 2, walletRepository, stripeService);
+        walletReadRepository = new WalletReadRepository(jdbcTemplate);
+        walletService = createWalletService(BalanceUpdateMode.LOAD_AND_SAVE, TopUpMode.SINGLE_TRANSACTION);
     }
 
     @Sql("/wallets_01.sql")
@@ -47,11 +117,11 @@ public class WalletServicePersistenceTest {
     @DisplayName("Should add amount to Wallet and save changes to database")
     void addToWallet() {
         UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e1");
-        doNothing().when(stripeService).charge(anyString(), any(BigDecimal.class));
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
 
-        WalletDto walletDto = walletService.addToWallet(id, new BigDecimal(200));
+        WalletDto walletDto = walletService.addToWallet(id, Money.of("200"));
 
-        assertEquals(new BigDecimal("300.00"), walletDto.getBalance());
+        assertEquals(Money.of("300.00"), walletDto.getBalance());
         assertNotNull(walletDto.getId());
     }
 
@@ -60,16 +130,185 @@ public class WalletServicePersistenceTest {
     @DisplayName("Should add amount to Wallet and create Transaction")
     void addToWallet_checkTransaction() {
         UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e2");
-        doNothing().when(stripeService).charge(anyString(), any(BigDecimal.class));
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
 
-        WalletDto walletDto = walletService.addToWallet(id, new BigDecimal(200));
+        WalletDto walletDto = walletService.addToWallet(id, Money.of("200"));
 
-        assertEquals(new BigDecimal("300.00"), walletDto.getBalance());
+        assertEquals(Money.of("300.00"), walletDto.getBalance());
 
+        entityManager.flush();
+        entityManager.clear();
         Optional<Wallet> optional = walletRepository.findById(id);
         assertEquals(1, optional.get().getTransactions().size());
-        assertEquals(new BigDecimal("100.00"), optional.get().getTransactions().get(0).getOldBalance());
-        assertEquals(new BigDecimal("300.00"), optional.get().getTransactions().get(0).getNewBalance());
+        assertEquals(Money.of("100.00"), optional.get().getTransactions().get(0).getOldBalance());
+        assertEquals(Money.of("300.00"), optional.get().getTransactions().get(0).getNewBalance());
+        assertEquals(7, optional.get().getTransactions().get(0).getId().version());
+    }
+
+    @Sql("/wallets_02.sql")
+    @Test
+    @DisplayName("Should add amount to Wallet and create Transaction with the atomic UPDATE")
+    void addToWallet_atomic() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e2");
+        WalletService atomicService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.SINGLE_TRANSACTION);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        WalletDto walletDto = atomicService.addToWallet(id, Money.of("200"));
+
+        assertEquals(Money.of("300.00"), walletDto.getBalance());
+        assertEquals("1111 2222 3333 4444", walletDto.getCreditCardNumber());
+
+        Optional<Wallet> optional = walletRepository.findById(id);
+        assertEquals(Money.of("300.00"), optional.get().getBalance());
+        assertEquals(1, optional.get().getTransactions().size());
+        assertEquals(Money.of("100.00"), optional.get().getTransactions().get(0).getOldBalance());
+        assertEquals(Money.of("300.00"), optional.get().getTransactions().get(0).getNewBalance());
+    }
+
+    @Sql("/wallets_06.sql")
+    @Test
+    @DisplayName("Should add Transaction without loading the (10k entries) transaction history of the Wallet")
+    void addToWallet_withLongHistory() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e6");
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        WalletDto walletDto = walletService.addToWallet(id, Money.of("200"));
+        assertEquals(Money.of("300.00"), walletDto.getBalance());
+
+        Wallet wallet = entityManager.find(Wallet.class, id);
+        assertFalse(Hibernate.isInitialized(wallet.getTransactions()));
+
+        entityManager.flush();
+        assertEquals(10_001, walletTransactionRepository.count());
+    }
+
+    @Sql("/wallets_02.sql")
+    @Test
+    @DisplayName("Should add amount to Wallet and leave a CONFIRMED TopUp in TWO_PHASE mode")
+    void addToWallet_twoPhase() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e2");
+        WalletService twoPhaseService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        WalletDto walletDto = twoPhaseService.addToWallet(id, Money.of("200"));
+
+        assertEquals(Money.of("300.00"), walletDto.getBalance());
+
+        entityManager.clear();
+        List<TopUp> topUps = topUpRepository.findAll();
+        assertEquals(1, topUps.size());
+        assertEquals(TopUpStatus.CONFIRMED, topUps.get(0).getStatus());
+        assertEquals(id, topUps.get(0).getWalletId());
+    }
+
+    @Sql("/wallets_03.sql")
+    @Test
+    @DisplayName("Should leave the balance untouched and a FAILED TopUp when Stripe fails in TWO_PHASE mode")
+    void addToWallet_twoPhase_withException() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e3");
+        WalletService twoPhaseService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE);
+        doThrow(new StripeAmountTooSmallException()).when(stripeService).charge(anyString(), any(Money.class));
+
+        assertThrows(StripeAmountTooSmallException.class,
+                () -> twoPhaseService.addToWallet(id, Money.of("5")));
+
+        entityManager.clear();
+        assertEquals(Money.of("100.00"), walletRepository.findById(id).get().getBalance());
+        assertEquals(TopUpStatus.FAILED, topUpRepository.findAll().get(0).getStatus());
+    }
+
+    @Sql("/wallets_01.sql")
+    @Test
+    @DisplayName("Should read Wallets as DTOs, without loading any entity into the persistence context")
+    void getById_projection() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e1");
+        entityManager.clear();
+
+        assertEquals(Money.of("100.00"), walletService.getById(id).getBalance());
+        Page<WalletDto> page = walletService.getAll(PageRequest.of(0, 10));
+        assertEquals(1, page.getTotalElements());
+        assertEquals(id, page.getContent().get(0).getId());
+        assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    @Test
+    @DisplayName("Should walk all Wallets with the keyset listing, without duplicates and with no cursor on the last page")
+    void getPage() {
+        Instant createdOn = Instant.parse("2022-01-01T00:00:00Z");
+        for (int i = 0; i < 25; i++) {
+            // groups of 5 Wallets share the same creation time, so ties are broken by id
+            entityManager.getEntityManager().createNativeQuery(
+                            "INSERT INTO wallet (id, created_on, balance, credit_card_number) VALUES (?, ?, 10000, '1111 2222 3333 4444')")
+                    .setParameter(1, UUID.randomUUID())
+                    .setParameter(2, Timestamp.from(createdOn.plusSeconds(i / 5)))
+                    .executeUpdate();
+        }
+
+        Set<UUID> seen = new HashSet<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = "";
+        do {
+            CursorPage<WalletDto> page = walletService.getPage(cursor, 10);
+            page.getContent().forEach(w -> seen.add(w.getId()));
+            pageSizes.add(page.getContent().size());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(25, seen.size());
+        assertEquals(List.of(10, 10, 5), pageSizes);
+    }
+
+    @Test
+    @DisplayName("Should reject a cursor that was not produced by the listing")
+    void getPage_invalidCursor() {
+        assertThrows(InvalidCursorException.class, () -> walletService.getPage("not-a-cursor", 10));
+    }
+
+    @Sql("/wallets_02.sql")
+    @Test
+    @DisplayName("Should only append typed ledger entries in LEDGER mode, and rebuild the balance from the snapshot and the entries after it")
+    void addToWallet_ledger() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e2");
+        BalanceProjection balanceProjection = createBalanceProjection();
+        WalletService ledgerService = createWalletService(BalanceUpdateMode.LEDGER, TopUpMode.TWO_PHASE, balanceProjection);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        assertEquals(Money.of("300.00"), ledgerService.addToWallet(id, Money.of("200")).getBalance());
+        entityManager.flush();
+        assertEquals(1, balanceProjection.snapshot());
+        assertEquals(Money.of("350.00"), ledgerService.addToWallet(id, Money.of("50")).getBalance());
+        assertEquals(Money.of("350.00"), ledgerService.getById(id).getBalance());
+
+        entityManager.clear();
+        assertEquals(Money.of("100.00"), walletRepository.findById(id).get().getBalance());
+        assertEquals(Money.of("300.00"), walletSnapshotRepository.findById(id).get().getBalance());
+        List<WalletTransaction> entries = walletTransactionRepository.findAll();
+        assertEquals(2, entries.size());
+        entries.forEach(entry -> assertEquals(LedgerEntryType.TOP_UP, entry.getType()));
+
+        BalanceProjection rebuilt = createBalanceProjection();
+        rebuilt.rebuild();
+        assertEquals(Money.of("350.00"), rebuilt.get(id).getBalance());
+    }
+
+    private BalanceProjection createBalanceProjection() {
+        return new BalanceProjection(BalanceUpdateMode.LEDGER, transactionManager, jdbcTemplate,
+                walletRepository, walletSnapshotRepository, JournalEngine.disabled());
+    }
+
+    private WalletService createWalletService(BalanceUpdateMode balanceUpdateMode, TopUpMode topUpMode) {
+        return createWalletService(balanceUpdateMode, topUpMode, createBalanceProjection());
+    }
+
+    private WalletService createWalletService(BalanceUpdateMode balanceUpdateMode, TopUpMode topUpMode,
+                                              BalanceProjection balanceProjection) {
+        TopUpSettler topUpSettler = new TopUpSettler(balanceUpdateMode, transactionManager,
+                WalletLockStripes.disabled(), ledgerGroupCommitter, balanceProjection, topUpMetrics, walletRepository,
+                walletTransactionRepository, topUpRepository);
+        return new WalletService(1000, 2, balanceUpdateMode, topUpMode, transactionManager,
+                WalletLockStripes.disabled(), ledgerGroupCommitter, walletCache, balanceProjection, topUpSettler,
+                topUpMetrics, ShardRouter.single(), ReplicaRouter.disabled(), walletRepository, walletReadRepository,
+                topUpRepository, stripeService, StripeConcurrencyLimiter.disabled());
     }
 
 }
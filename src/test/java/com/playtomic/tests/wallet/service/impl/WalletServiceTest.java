@@ -1,12 +1,36 @@
 package com.playtomic.tests.wallet.service.impl;
 
+import com.playtomic.tests.wallet.api.entity.LedgerEntryType;
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
 import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.entity.WalletTransaction;
+import com.playtomic.tests.wallet.api.exceptions.EntityNotFoundException;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
 import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.request.BulkTopUpRequest;
+import com.playtomic.tests.wallet.api.response.TopUpResultDto;
 import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.BalanceProjection;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics;
+import com.playtomic.tests.wallet.api.service.TopUpMode;
+import com.playtomic.tests.wallet.api.service.TopUpSettler;
+import com.playtomic.tests.wallet.api.service.WalletCache;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
 import com.playtomic.tests.wallet.api.service.WalletService;
 import com.playtomic.tests.wallet.service.StripeAmountTooSmallException;
+import com.playtomic.tests.wallet.service.StripeConcurrencyLimiter;
 import com.playtomic.tests.wallet.service.StripeService;
 import com.playtomic.tests.wallet.service.StripeServiceException;
+import com.playtomic.tests.wallet.service.StripeServiceTimeoutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -14,19 +38,30 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static com.playtomic.tests.wallet.utils.Stubber.doSleep;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
@@ -35,13 +70,32 @@ public class WalletServiceTest {
     @Mock
     private WalletRepository walletRepository;
     @Mock
+    private WalletReadRepository walletReadRepository;
+    @Mock
+    private WalletTransactionRepository walletTransactionRepository;
+    @Mock
+    private TopUpRepository topUpRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private LedgerGroupCommitter ledgerGroupCommitter;
+    @Mock
     private StripeService stripeService;
+    @Mock
+    private BalanceProjection balanceProjection;
+
+    private WalletCache walletCache;
+    private SimpleMeterRegistry meterRegistry;
+    private TopUpMetrics topUpMetrics;
 
     private WalletService walletService;
 
     @BeforeEach
     void setUp() {
-        walletService = new WalletService(1000, 2, walletRepository, stripeService);
+        walletCache = new WalletCache(true, 100, 60_000);
+        meterRegistry = new SimpleMeterRegistry();
+        topUpMetrics = new TopUpMetrics(meterRegistry);
+        walletService = createWalletService(BalanceUpdateMode.LOAD_AND_SAVE, TopUpMode.SINGLE_TRANSACTION);
     }
 
     @DisplayName("Should add given amount of money to the wallet with given identifier")
@@ -52,26 +106,70 @@ public class WalletServiceTest {
 
         when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
         when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
-        doNothing().when(stripeService).charge(anyString(), any(BigDecimal.class));
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
 
 
-        WalletDto walletDto = walletService.addToWallet(id, new BigDecimal(100));
+        WalletDto walletDto = walletService.addToWallet(id, Money.of("100"));
 
 
-        assertEquals(new BigDecimal(100 + 500), walletDto.getBalance());
+        assertEquals(Money.of("600"), walletDto.getBalance());
 
         verify(walletRepository, times(1)).findById(id);
 
         ArgumentCaptor<Wallet> captor = ArgumentCaptor.forClass(Wallet.class);
         verify(walletRepository, times(1)).save(captor.capture());
 
-        assertEquals(new BigDecimal(100 + 500), captor.getValue().getBalance());
+        assertEquals(Money.of("600"), captor.getValue().getBalance());
 
         verify(stripeService, times(1))
-                .charge("1111 2222 3333 4444", new BigDecimal(100));
+                .charge("1111 2222 3333 4444", Money.of("100"));
 
     }
 
+    @DisplayName("Should time the top-up and each of its phases, tagged with its outcome")
+    @Test
+    void addToWallet_metrics() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        Wallet wallet = createWallet();
+
+        when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
+        when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
+        doNothing().when(stripeService).charge(anyString(), eq(Money.of("100")));
+        doThrow(new StripeAmountTooSmallException()).when(stripeService).charge(anyString(), eq(Money.of("1")));
+
+        walletService.addToWallet(id, Money.of("100"));
+        assertThrows(StripeAmountTooSmallException.class, () -> walletService.addToWallet(id, Money.of("1")));
+
+        assertEquals(1, meterRegistry.get("wallet.top-up").tags("api", "v1", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("wallet.top-up")
+                .tags("api", "v1", "outcome", "StripeAmountTooSmallException").timer().count());
+        for (String phase : List.of("wallet-load", "balance-update", "ledger-insert", "stripe-call", "commit")) {
+            assertTrue(meterRegistry.get("wallet.top-up.phase").tags("api", "v1", "phase", phase).timer().count() > 0, phase);
+        }
+        assertEquals(0, meterRegistry.get("executor.queued").tag("name", "stripe-charges").gauge().value());
+    }
+
+    @DisplayName("Should insert the Transaction directly without touching the transaction history of the Wallet")
+    @Test
+    void addToWallet_appendOnlyLedger() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        Wallet wallet = createWallet();
+
+        when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
+        when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        walletService.addToWallet(id, Money.of("100"));
+
+        ArgumentCaptor<WalletTransaction> captor = ArgumentCaptor.forClass(WalletTransaction.class);
+        verify(walletTransactionRepository, times(1)).save(captor.capture());
+
+        assertEquals(Money.of("500"), captor.getValue().getOldBalance());
+        assertEquals(Money.of("600"), captor.getValue().getNewBalance());
+        assertSame(wallet, captor.getValue().getWallet());
+        assertTrue(wallet.getTransactions().isEmpty());
+    }
+
     @DisplayName("Should throw the StripeServiceException exception when StripeService didn't response after defined time interval")
     @Test
     void addToWallet_withException_01() {
@@ -81,10 +179,10 @@ public class WalletServiceTest {
         when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
         when(walletRepository.save(any(Wallet.class))).thenReturn(new Wallet());
 
-        doSleep(Duration.ofSeconds(3)).when(stripeService).charge(anyString(), any(BigDecimal.class));
+        doSleep(Duration.ofSeconds(3)).when(stripeService).charge(anyString(), any(Money.class));
 
         assertThrows(StripeServiceException.class,
-                () -> walletService.addToWallet(id, new BigDecimal(100)));
+                () -> walletService.addToWallet(id, Money.of("100")));
     }
 
     @DisplayName("Should throw the StripeServiceException exception when StripeService throws StripeAmountTooSmallException")
@@ -96,10 +194,10 @@ public class WalletServiceTest {
         when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
         when(walletRepository.save(any(Wallet.class))).thenReturn(new Wallet());
         doThrow(new StripeAmountTooSmallException())
-                .when(stripeService).charge(anyString(), any(BigDecimal.class));
+                .when(stripeService).charge(anyString(), any(Money.class));
 
         assertThrows(StripeServiceException.class,
-                () -> walletService.addToWallet(id, new BigDecimal(100)));
+                () -> walletService.addToWallet(id, Money.of("100")));
     }
 
     @DisplayName("Should NOT call StripeService when writing in Database throws any Exception")
@@ -113,7 +211,265 @@ public class WalletServiceTest {
                 .when(walletRepository).save(any(Wallet.class));
 
         verify(stripeService, times(0))
-                .charge(anyString(), any(BigDecimal.class));
+                .charge(anyString(), any(Money.class));
+    }
+
+    @DisplayName("Should update balance with a single UPDATE statement without loading the Wallet in ATOMIC mode")
+    @Test
+    void addToWallet_atomic() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService atomicService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.SINGLE_TRANSACTION);
+
+        when(walletRepository.addToBalance(id, 10000L)).thenReturn(1);
+        when(walletRepository.insertTransaction(any(UUID.class), eq(id), eq(10000L))).thenReturn(1);
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("600"), "1111 2222 3333 4444")));
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        WalletDto walletDto = atomicService.addToWallet(id, Money.of("100"));
+
+        assertEquals(Money.of("600"), walletDto.getBalance());
+        verify(walletRepository, never()).findById(any(UUID.class));
+        verify(walletRepository, never()).save(any(Wallet.class));
+        verify(stripeService, times(1))
+                .charge("1111 2222 3333 4444", Money.of("100"));
+    }
+
+    @DisplayName("Should throw EntityNotFoundException and NOT call StripeService when the Wallet does not exist in ATOMIC mode")
+    @Test
+    void addToWallet_atomic_notFound() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService atomicService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.SINGLE_TRANSACTION);
+
+        when(walletRepository.addToBalance(id, 10000L)).thenReturn(0);
+
+        assertThrows(EntityNotFoundException.class,
+                () -> atomicService.addToWallet(id, Money.of("100")));
+
+        verify(walletRepository, never()).insertTransaction(any(UUID.class), any(UUID.class), anyLong());
+        verify(stripeService, never()).charge(anyString(), any(Money.class));
+    }
+
+    @DisplayName("Should record a PENDING TopUp, call StripeService and then CONFIRM it and update the balance in TWO_PHASE mode")
+    @Test
+    void addToWallet_twoPhase() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        UUID topUpId = UUID.fromString("a4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService twoPhaseService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE);
+
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("600"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> {
+            TopUp topUp = invocation.getArgument(0);
+            topUp.setId(topUpId);
+            return topUp;
+        });
+        when(topUpRepository.transition(topUpId, TopUpStatus.PENDING, TopUpStatus.CONFIRMED)).thenReturn(1);
+        when(walletRepository.addToBalance(id, 10000L)).thenReturn(1);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        WalletDto walletDto = twoPhaseService.addToWallet(id, Money.of("100"));
+
+        assertEquals(Money.of("600"), walletDto.getBalance());
+
+        ArgumentCaptor<TopUp> captor = ArgumentCaptor.forClass(TopUp.class);
+        verify(topUpRepository, times(1)).save(captor.capture());
+        assertEquals(id, captor.getValue().getWalletId());
+        assertEquals(Money.of("100"), captor.getValue().getAmount());
+
+        verify(stripeService, times(1)).charge("1111 2222 3333 4444", Money.of("100"));
+        verify(topUpRepository, times(1)).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.CONFIRMED);
+        verify(walletRepository, times(1)).insertTransaction(any(UUID.class), eq(id), eq(10000L));
+    }
+
+    @DisplayName("Should mark the TopUp as FAILED and NOT update the balance when StripeService fails in TWO_PHASE mode")
+    @Test
+    void addToWallet_twoPhase_withException() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        UUID topUpId = UUID.fromString("a4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService twoPhaseService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE);
+
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> {
+            TopUp topUp = invocation.getArgument(0);
+            topUp.setId(topUpId);
+            return topUp;
+        });
+        doThrow(new StripeAmountTooSmallException())
+                .when(stripeService).charge(anyString(), any(Money.class));
+
+        assertThrows(StripeAmountTooSmallException.class,
+                () -> twoPhaseService.addToWallet(id, Money.of("100")));
+
+        verify(topUpRepository, times(1)).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.FAILED);
+        verify(topUpRepository, never()).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.CONFIRMED);
+        verify(walletRepository, never()).addToBalance(any(UUID.class), anyLong());
+    }
+
+    @DisplayName("Should mark the TopUp as UNKNOWN, not FAILED, when StripeService does not answer in time in TWO_PHASE mode")
+    @Test
+    void addToWallet_twoPhase_timeout() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        UUID topUpId = UUID.fromString("a4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService twoPhaseService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE);
+
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> {
+            TopUp topUp = invocation.getArgument(0);
+            topUp.setId(topUpId);
+            return topUp;
+        });
+        doSleep(Duration.ofMillis(1500)).when(stripeService).charge(anyString(), any(Money.class));
+
+        assertThrows(StripeServiceTimeoutException.class,
+                () -> twoPhaseService.addToWallet(id, Money.of("100")));
+
+        verify(topUpRepository, times(1)).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.UNKNOWN);
+        verify(topUpRepository, never()).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.FAILED);
+        verify(walletRepository, never()).addToBalance(any(UUID.class), anyLong());
+    }
+
+    @DisplayName("Should settle through the group commit without holding the lock of the Wallet")
+    @Test
+    void addToWallet_twoPhase_groupCommit() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        // one stripe, no waiting: any other write gets WalletBusyException while the lock is held
+        WalletLockStripes walletLockStripes = new WalletLockStripes(true, 1, 0, 0);
+        WalletService groupCommitService = createWalletService(BalanceUpdateMode.ATOMIC, TopUpMode.TWO_PHASE,
+                walletLockStripes);
+
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(ledgerGroupCommitter.isEnabled()).thenReturn(true);
+        when(ledgerGroupCommitter.settle(any(TopUp.class))).thenAnswer(invocation -> CompletableFuture.supplyAsync(
+                () -> walletLockStripes.withLock(id, () -> new WalletDto(id, Money.of("600"), "1111 2222 3333 4444")))
+                .join());
+
+        assertEquals(Money.of("600"), groupCommitService.addToWallet(id, Money.of("100")).getBalance());
+        verify(walletRepository, never()).addToBalance(any(UUID.class), anyLong());
+    }
+
+    @DisplayName("Should append a TOP_UP entry together with the TopUp confirmation, without updating the Wallet, in LEDGER mode")
+    @Test
+    void addToWallet_ledger() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        UUID topUpId = UUID.fromString("a4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        WalletService ledgerService = createWalletService(BalanceUpdateMode.LEDGER, TopUpMode.TWO_PHASE);
+
+        when(walletRepository.findDtoById(id))
+                .thenReturn(Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> {
+            TopUp topUp = invocation.getArgument(0);
+            topUp.setId(topUpId);
+            return topUp;
+        });
+        when(topUpRepository.transition(topUpId, TopUpStatus.PENDING, TopUpStatus.CONFIRMED)).thenReturn(1);
+        when(balanceProjection.append(eq(id), eq(LedgerEntryType.TOP_UP), eq(Money.of("100")), any(Runnable.class)))
+                .thenAnswer(invocation -> {
+                    invocation.<Runnable>getArgument(3).run();
+                    return new WalletDto(id, Money.of("600"), "1111 2222 3333 4444");
+                });
+
+        WalletDto walletDto = ledgerService.addToWallet(id, Money.of("100"));
+
+        assertEquals(Money.of("600"), walletDto.getBalance());
+        verify(topUpRepository, times(1)).transition(topUpId, TopUpStatus.PENDING, TopUpStatus.CONFIRMED);
+        verify(walletRepository, never()).addToBalance(any(UUID.class), anyLong());
+        verify(walletRepository, never()).insertTransaction(any(UUID.class), any(UUID.class), anyLong());
+        verify(walletRepository, never()).save(any(Wallet.class));
+
+        when(balanceProjection.get(id)).thenReturn(walletDto);
+        assertSame(walletDto, ledgerService.getById(id));
+    }
+
+    @DisplayName("Should load the Wallets of a bulk top-up at once, charge them all and report a result per item")
+    @Test
+    void addToWallets() {
+        UUID first = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        UUID second = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e0");
+        UUID unknown = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66e9");
+
+        when(walletRepository.findDtosByIdIn(anyCollection())).thenReturn(List.of(
+                new WalletDto(first, Money.of("500"), "1111 2222 3333 4444"),
+                new WalletDto(second, Money.of("500"), "4242 4242 4242 4242")));
+        when(topUpRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<TopUp> topUps = invocation.getArgument(0);
+            topUps.forEach(topUp -> topUp.setId(UUID.randomUUID()));
+            return topUps;
+        });
+        doThrow(new StripeAmountTooSmallException()).when(stripeService).charge(eq("4242 4242 4242 4242"), any(Money.class));
+        when(ledgerGroupCommitter.settleAll(anyList())).thenAnswer(invocation -> {
+            List<TopUp> topUps = invocation.getArgument(0);
+            return topUps.stream()
+                    .map(topUp -> CompletableFuture.completedFuture(
+                            new WalletDto(topUp.getWalletId(), Money.of("500").plus(topUp.getAmount()), "1111 2222 3333 4444")))
+                    .collect(Collectors.toList());
+        });
+
+        List<TopUpResultDto> results = walletService.addToWallets(List.of(
+                new BulkTopUpRequest.TopUp(first, new BigDecimal(100)),
+                new BulkTopUpRequest.TopUp(second, new BigDecimal(5)),
+                new BulkTopUpRequest.TopUp(unknown, new BigDecimal(100))));
+
+        assertEquals(List.of(200, 400, 404), results.stream().map(TopUpResultDto::getStatus).collect(Collectors.toList()));
+        assertEquals(Money.of("600"), results.get(0).getBalance());
+
+        verify(walletRepository, times(1)).findDtosByIdIn(Set.of(first, second, unknown));
+        verify(walletRepository, never()).findById(any(UUID.class));
+        verify(stripeService, times(1)).charge("1111 2222 3333 4444", Money.of("100"));
+        verify(stripeService, times(1)).charge("4242 4242 4242 4242", Money.of("5"));
+        verify(topUpRepository, times(1)).transitionAll(anyCollection(), eq(TopUpStatus.PENDING), eq(TopUpStatus.FAILED));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TopUp>> captor = ArgumentCaptor.forClass((Class<List<TopUp>>) (Class<?>) List.class);
+        verify(ledgerGroupCommitter, times(1)).settleAll(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        assertEquals(first, captor.getValue().get(0).getWalletId());
+    }
+
+    @DisplayName("Should serve repeated reads from the cache and read the database again after a top-up")
+    @Test
+    void getById_cached() {
+        UUID id = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+        Wallet wallet = createWallet();
+
+        when(walletReadRepository.findDtoById(id)).thenReturn(
+                Optional.of(new WalletDto(id, Money.of("500"), "1111 2222 3333 4444")),
+                Optional.of(new WalletDto(id, Money.of("600"), "1111 2222 3333 4444")));
+        when(walletRepository.findById(any(UUID.class))).thenReturn(Optional.of(wallet));
+        when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
+        doNothing().when(stripeService).charge(anyString(), any(Money.class));
+
+        assertEquals(Money.of("500"), walletService.getById(id).getBalance());
+        assertEquals(Money.of("500"), walletService.getById(id).getBalance());
+        verify(walletReadRepository, times(1)).findDtoById(id);
+        assertEquals(1, walletCache.stats().hitCount());
+
+        walletService.addToWallet(id, Money.of("100"));
+
+        assertEquals(Money.of("600"), walletService.getById(id).getBalance());
+        verify(walletReadRepository, times(2)).findDtoById(id);
+        // reads never load the entity, only the top-up does
+        verify(walletRepository, times(1)).findById(id);
+    }
+
+    private WalletService createWalletService(BalanceUpdateMode balanceUpdateMode, TopUpMode topUpMode) {
+        return createWalletService(balanceUpdateMode, topUpMode, WalletLockStripes.disabled());
+    }
+
+    private WalletService createWalletService(BalanceUpdateMode balanceUpdateMode, TopUpMode topUpMode,
+                                              WalletLockStripes walletLockStripes) {
+        TopUpSettler topUpSettler = new TopUpSettler(balanceUpdateMode, transactionManager, walletLockStripes,
+                ledgerGroupCommitter, balanceProjection, topUpMetrics, walletRepository, walletTransactionRepository,
+                topUpRepository);
+        return new WalletService(1000, 2, balanceUpdateMode, topUpMode, transactionManager,
+                walletLockStripes, ledgerGroupCommitter, walletCache, balanceProjection, topUpSettler,
+                topUpMetrics, ShardRouter.single(), ReplicaRouter.disabled(), walletRepository, walletReadRepository,
+                topUpRepository, stripeService, StripeConcurrencyLimiter.disabled());
     }
 
     private Wallet createWallet() {
@@ -121,7 +477,7 @@ public class WalletServiceTest {
         String creditCardNumber = "1111 2222 3333 4444";
         Instant createdAt = Instant.parse("2021-12-29T09:25:50.820Z");
         Instant updatedAt = Instant.parse("2022-12-29T09:25:50.820Z");
-        BigDecimal amount = new BigDecimal(500);
+        Money amount = Money.of("500");
         return new Wallet(id, createdAt, updatedAt, amount, creditCardNumber, new ArrayList<>());
     }
 }
@@ -0,0 +1,111 @@
+package com.playtomic.tests.wallet.service.impl;
+
+import com.playtomic.tests.wallet.api.entity.Money;
+import com.playtomic.tests.wallet.api.entity.TopUp;
+import com.playtomic.tests.wallet.api.entity.TopUpStatus;
+import com.playtomic.tests.wallet.api.entity.Wallet;
+import com.playtomic.tests.wallet.api.repository.TopUpRepository;
+import com.playtomic.tests.wallet.api.repository.WalletReadRepository;
+import com.playtomic.tests.wallet.api.repository.WalletRepository;
+import com.playtomic.tests.wallet.api.repository.WalletTransactionRepository;
+import com.playtomic.tests.wallet.api.response.WalletDto;
+import com.playtomic.tests.wallet.api.service.BalanceProjection;
+import com.playtomic.tests.wallet.api.service.BalanceUpdateMode;
+import com.playtomic.tests.wallet.api.service.LedgerGroupCommitter;
+import com.playtomic.tests.wallet.api.service.ReplicaRouter;
+import com.playtomic.tests.wallet.api.service.ShardRouter;
+import com.playtomic.tests.wallet.api.service.TopUpMetrics;
+import com.playtomic.tests.wallet.api.service.TopUpSettler;
+import com.playtomic.tests.wallet.api.service.WalletCache;
+import com.playtomic.tests.wallet.api.service.WalletLockStripes;
+import com.playtomic.tests.wallet.api.service.WalletServiceV3;
+import com.playtomic.tests.wallet.service.StripeServiceV2;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+public class WalletServiceV3Test {
+
+    private static final UUID ID = UUID.fromString("d4ebba32-bebb-42fc-9caf-e71023fb66ef");
+
+    @Mock
+    private WalletRepository walletRepository;
+    @Mock
+    private WalletReadRepository walletReadRepository;
+    @Mock
+    private WalletTransactionRepository walletTransactionRepository;
+    @Mock
+    private TopUpRepository topUpRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private LedgerGroupCommitter ledgerGroupCommitter;
+    @Mock
+    private BalanceProjection balanceProjection;
+    @Mock
+    private StripeServiceV2 stripeService;
+
+    @DisplayName("Should settle in the configured balance update mode (LOAD_AND_SAVE), as V1 and V2 do")
+    @Test
+    void addToWallet_loadAndSave() {
+        WalletServiceV3 walletService = createWalletService(BalanceUpdateMode.LOAD_AND_SAVE);
+        Wallet wallet = new Wallet(ID, Instant.now(), Instant.now(), Money.of("500"), "1111 2222 3333 4444",
+                new ArrayList<>());
+
+        when(walletRepository.findDtoById(ID))
+                .thenReturn(Optional.of(new WalletDto(ID, Money.of("500"), "1111 2222 3333 4444")));
+        when(topUpRepository.save(any(TopUp.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(topUpRepository.transition(any(), eq(TopUpStatus.PENDING), eq(TopUpStatus.CONFIRMED))).thenReturn(1);
+        when(stripeService.chargeReactive("1111 2222 3333 4444", Money.of("100"))).thenReturn(Mono.empty());
+        when(walletRepository.findById(ID)).thenReturn(Optional.of(wallet));
+        when(walletRepository.save(any(Wallet.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        WalletDto walletDto = walletService.addToWallet(ID, Money.of("100")).block(Duration.ofSeconds(10));
+
+        assertEquals(Money.of("600"), walletDto.getBalance());
+        verify(walletRepository, times(1)).save(wallet);
+        verify(walletTransactionRepository, times(1)).save(any());
+        verify(walletRepository, never()).addToBalance(any(UUID.class), anyLong());
+    }
+
+    @DisplayName("Should read through the cache and the read repository, as V1 does")
+    @Test
+    void getById_cached() {
+        WalletServiceV3 walletService = createWalletService(BalanceUpdateMode.ATOMIC);
+
+        when(walletReadRepository.findDtoById(ID))
+                .thenReturn(Optional.of(new WalletDto(ID, Money.of("500"), "1111 2222 3333 4444")));
+
+        assertEquals(Money.of("500"), walletService.getById(ID).block(Duration.ofSeconds(10)).getBalance());
+        assertEquals(Money.of("500"), walletService.getById(ID).block(Duration.ofSeconds(10)).getBalance());
+
+        verify(walletReadRepository, times(1)).findDtoById(ID);
+        verify(walletRepository, never()).findDtoById(any(UUID.class));
+    }
+
+    private WalletServiceV3 createWalletService(BalanceUpdateMode balanceUpdateMode) {
+        TopUpSettler topUpSettler = new TopUpSettler(balanceUpdateMode, transactionManager, WalletLockStripes.disabled(),
+                ledgerGroupCommitter, balanceProjection, new TopUpMetrics(new SimpleMeterRegistry()), walletRepository,
+                walletTransactionRepository, topUpRepository);
+        return new WalletServiceV3(new WalletCache(true, 100, 60_000), balanceProjection, topUpSettler,
+                ShardRouter.single(), ReplicaRouter.disabled(), walletRepository, walletReadRepository, topUpRepository,
+                stripeService);
+    }
+}
@@ -1 +1 @@
-INSERT INTO wallet (id, balance, credit_card_number) VALUES ('d4ebba32-bebb-42fc-9caf-e71023fb66e2', 100, '1111 2222 3333 4444');
+INSERT INTO wallet (id, balance, credit_card_number) VALUES ('d4ebba32-bebb-42fc-9caf-e71023fb66e2', 10000, '1111 2222 3333 4444');
@@ -0,0 +1,2 @@
+INSERT INTO wallet (id, balance, credit_card_number) VALUES ('d4ebba32-bebb-42fc-9caf-e71023fb66e6', 10000, '1111 2222 3333 4444');
+INSERT INTO wallet_transaction (id, created_on, old_balance, new_balance, wallet_id) SELECT RANDOM_UUID(), CURRENT_TIMESTAMP, 10000, 10000, 'd4ebba32-bebb-42fc-9caf-e71023fb66e6' FROM SYSTEM_RANGE(1, 10000);
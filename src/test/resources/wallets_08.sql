@@ -0,0 +1 @@
+INSERT INTO wallet (id, balance, credit_card_number) VALUES ('d4ebba32-bebb-42fc-9caf-e71023fb66e8', 10000, '1111 2222 3333 4444');